@@ -0,0 +1,217 @@
+package net.bradball.android.sandbox.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Runs each migration against a fixture database, built with the original (version 100) schema.
+ */
+public class DatabaseMigrationsTest extends AndroidTestCase {
+    private static final int FIXTURE_VERSION = 100;
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = SQLiteDatabase.create(null);
+        createFixture(mDb);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testNoReplaceConflictsKeepsRows() {
+        DatabaseMigrations.get(DatabaseMigrations.VERSION_NO_REPLACE_CONFLICTS).migrate(mDb);
+
+        assertEquals(7, DatabaseUtils.longForQuery(mDb, "SELECT _id FROM shows WHERE showDate = '1977-05-08'", null));
+        assertEquals(7, DatabaseUtils.longForQuery(mDb, "SELECT show_id FROM recordings WHERE identifier = 'gd1977-05-08.sbd'", null));
+        assertEquals(1, DatabaseUtils.longForQuery(mDb, "SELECT available_offline FROM recordings WHERE _id = 42", null));
+
+        try {
+            mDb.execSQL("INSERT INTO shows (year, showDate) VALUES ('1977', '1977-05-08')");
+            fail("Duplicate show date should not replace the existing show");
+        } catch (SQLiteConstraintException expected) {
+        }
+        assertEquals(7, DatabaseUtils.longForQuery(mDb, "SELECT _id FROM shows WHERE showDate = '1977-05-08'", null));
+    }
+
+    public void testBrowseIndexesAreUsed() {
+        DatabaseMigrations.migrate(mDb, FIXTURE_VERSION, DatabaseMigrations.VERSION_BROWSE_INDEXES);
+
+        assertQueryUsesIndex("SELECT _id FROM recordings WHERE show_id = 7 ORDER BY showDate DESC", "recordings_show_date");
+        assertQueryUsesIndex("SELECT year, count(_id) FROM shows GROUP BY year", "shows_year_date");
+        assertQueryUsesIndex("SELECT _id FROM recordings WHERE showDate = '1977-05-08'", "recordings_date");
+    }
+
+    public void testShowAggregatesAreMaintained() {
+        DatabaseMigrations.migrate(mDb, FIXTURE_VERSION, DatabaseMigrations.VERSION_SHOW_AGGREGATES);
+        assertShowAggregates(1, 1000, 1);
+
+        mDb.execSQL("INSERT INTO recordings (_id, show_id, identifier, showDate, soundboard, downloads) VALUES (43, 7, 'gd1977-05-08.aud', '1977-05-08', 0, 500)");
+        assertShowAggregates(2, 1500, 1);
+
+        mDb.execSQL("UPDATE recordings SET downloads = 2000 WHERE _id = 43");
+        assertShowAggregates(2, 3000, 1);
+
+        mDb.execSQL("DELETE FROM recordings WHERE _id = 42");
+        assertShowAggregates(1, 2000, 0);
+
+        mDb.execSQL("INSERT INTO shows (_id, year, showDate) VALUES (8, '1977', '1977-05-09')");
+        mDb.execSQL("UPDATE recordings SET show_id = 8 WHERE _id = 43");
+        assertShowAggregates(0, 0, 0);
+        assertEquals(1, DatabaseUtils.longForQuery(mDb, "SELECT recording_count FROM shows WHERE _id = 8", null));
+    }
+
+    public void testYearSummaryIsMaintained() {
+        DatabaseMigrations.migrate(mDb, FIXTURE_VERSION, DatabaseMigrations.VERSION_YEAR_SUMMARY);
+        assertYearSummary("1977", 1, 1, 1);
+
+        mDb.execSQL("INSERT INTO shows (_id, year, showDate) VALUES (8, '1977', '1977-05-09')");
+        mDb.execSQL("INSERT INTO recordings (_id, show_id, identifier, showDate, soundboard) VALUES (43, 8, 'gd1977-05-09.sbd', '1977-05-09', 1)");
+        assertYearSummary("1977", 2, 2, 2);
+
+        mDb.execSQL("UPDATE shows SET year = '1978' WHERE _id = 8");
+        assertYearSummary("1977", 1, 1, 1);
+        assertYearSummary("1978", 1, 1, 1);
+
+        mDb.execSQL("DELETE FROM recordings WHERE _id = 43");
+        mDb.execSQL("DELETE FROM shows WHERE _id = 8");
+        assertEquals(0, DatabaseUtils.longForQuery(mDb, "SELECT count(*) FROM year_summary WHERE year = '1978'", null));
+    }
+
+    public void testSearchIsMaintained() {
+        DatabaseMigrations.migrate(mDb, FIXTURE_VERSION, DatabaseMigrations.VERSION_SEARCH);
+        assertSearchFinds("1977*", 42);
+
+        mDb.execSQL("UPDATE recordings SET setlist = 'Scarlet Begonias > Fire On The Mountain' WHERE _id = 42");
+        assertSearchFinds("scarlet* fire* 1977*", 42);
+
+        mDb.execSQL("INSERT INTO recordings (_id, show_id, identifier, showDate, setlist) VALUES (43, 7, 'gd1977-05-08.aud', '1977-05-08', 'Morning Dew')");
+        assertSearchFinds("dew*", 43);
+        assertSearchFinds("scarlet*", 42);
+
+        mDb.execSQL("DELETE FROM recordings WHERE _id = 42");
+        assertSearchFinds("scarlet*");
+        assertSearchFinds("1977*", 43);
+    }
+
+    public void testMigratedSchemaMatchesNewDatabase() {
+        DatabaseMigrations.migrate(mDb, FIXTURE_VERSION, getLatestVersion());
+
+        SQLiteDatabase created = SQLiteDatabase.create(null);
+        try {
+            new DatabaseHelper(getContext()).onCreate(created);
+            assertEquals(getSchemaObjects(created), getSchemaObjects(mDb));
+        } finally {
+            created.close();
+        }
+    }
+
+    public void testMissingMigrationFails() {
+        try {
+            DatabaseMigrations.migrate(mDb, FIXTURE_VERSION, Integer.MAX_VALUE);
+            fail("Migrating to a version without a migration should fail");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private void assertShowAggregates(int recordingCount, int downloads, int soundboard) {
+        Cursor cursor = mDb.rawQuery("SELECT recording_count, downloads, soundboard FROM shows WHERE _id = 7", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(recordingCount, cursor.getInt(0));
+            assertEquals(downloads, cursor.getInt(1));
+            assertEquals(soundboard, cursor.getInt(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertYearSummary(String year, int showCount, int recordingCount, int soundboardCount) {
+        Cursor cursor = mDb.rawQuery("SELECT show_count, recording_count, soundboard_count FROM year_summary WHERE year = ?", new String[] { year });
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(showCount, cursor.getInt(0));
+            assertEquals(recordingCount, cursor.getInt(1));
+            assertEquals(soundboardCount, cursor.getInt(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertSearchFinds(String match, long... recordingIds) {
+        Set<Long> expected = new HashSet<>();
+        for (long id : recordingIds) {
+            expected.add(id);
+        }
+
+        Set<Long> found = new HashSet<>();
+        Cursor cursor = mDb.rawQuery("SELECT docid FROM recordings_search WHERE recordings_search MATCH ?", new String[] { match });
+        try {
+            while (cursor.moveToNext()) {
+                found.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(match, expected, found);
+    }
+
+    private static int getLatestVersion() {
+        return DatabaseMigrations.MIGRATIONS[DatabaseMigrations.MIGRATIONS.length - 1].version;
+    }
+
+    private void assertQueryUsesIndex(String sql, String index) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+            }
+            assertTrue("Expected " + index + " in plan:\n" + plan, plan.toString().contains(index));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Set<String> getSchemaObjects(SQLiteDatabase db) {
+        Set<String> names = new HashSet<>();
+        Cursor cursor = db.rawQuery("SELECT type, name FROM sqlite_master WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0) + ":" + cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    /**
+     * The schema as it was at version 100, with a show and one of its recordings.
+     */
+    private static void createFixture(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE shows(_id INTEGER PRIMARY KEY AUTOINCREMENT, year TEXT NOT NULL, showDate TEXT NOT NULL, " +
+                "location TEXT,title TEXT,setlist TEXT, soundboard INTEGER NOT NULL DEFAULT 0, downloads INTEGER NOT NULL DEFAULT 0," +
+                " UNIQUE (showDate) ON CONFLICT REPLACE)");
+        db.execSQL("CREATE TABLE recordings(_id INTEGER PRIMARY KEY AUTOINCREMENT, show_id INTEGER NOT NULL, identifier TEXT NOT NULL, " +
+                "showDate TEXT NOT NULL, location TEXT,title TEXT, setlist TEXT, soundboard INTEGER NOT NULL DEFAULT 0, publisher TEXT, " +
+                "rating REAL NOT NULL DEFAULT 0, numReviews INTEGER NOT NULL DEFAULT 0, downloads INTEGER NOT NULL DEFAULT 0, " +
+                "available_offline INTEGER NOT NULL DEFAULT 0,source TEXT, UNIQUE (identifier) ON CONFLICT REPLACE, " +
+                "FOREIGN KEY(show_id) REFERENCES shows(_id) ON DELETE CASCADE)");
+
+        db.execSQL("INSERT INTO shows (_id, year, showDate, location, soundboard, downloads) VALUES (7, '1977', '1977-05-08', 'Barton Hall', 1, 1000)");
+        db.execSQL("INSERT INTO recordings (_id, show_id, identifier, showDate, soundboard, downloads, available_offline) " +
+                "VALUES (42, 7, 'gd1977-05-08.sbd', '1977-05-08', 1, 1000, 1)");
+    }
+}
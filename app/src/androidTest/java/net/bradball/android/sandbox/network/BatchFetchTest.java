@@ -0,0 +1,438 @@
+package net.bradball.android.sandbox.network;
+
+import junit.framework.TestCase;
+
+import net.bradball.android.sandbox.util.SingleFlight;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs batches against a fake {@link HttpTransport}, so nothing goes to archive.org.
+ */
+public class BatchFetchTest extends TestCase {
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private FakeTransport mTransport;
+    private ArchiveAPI mArchiveAPI;
+    private RecordingListener mListener;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTransport = new FakeTransport();
+        mArchiveAPI = new ArchiveAPI(mTransport);
+        mListener = new RecordingListener();
+    }
+
+    public void testResultsHaveValidators() throws Exception {
+        BatchFetch<String> batch = fetch(Arrays.asList("a", "b", "c"), 2, TIMEOUT_MILLIS);
+
+        assertTrue(batch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(3, mListener.results.size());
+        for (String identifier : Arrays.asList("a", "b", "c")) {
+            ArchiveAPI.ConditionalResult<String> result = mListener.results.get(identifier);
+            assertEquals("details of " + identifier, result.body);
+            assertEquals("\"etag-" + identifier + "\"", result.etag);
+            assertEquals("Sun, 08 May 1977 20:00:00 GMT", result.lastModified);
+            assertFalse(result.notModified);
+        }
+        assertTrue(mListener.errors.isEmpty());
+    }
+
+    public void testValidatorsMakeRequestsConditional() throws Exception {
+        mTransport.respond("a", HttpURLConnection.HTTP_NOT_MODIFIED, new byte[0]);
+        Map<String, BatchFetch.Validators> validators = new HashMap<>();
+        validators.put("a", new BatchFetch.Validators("\"old-a\"", "Sat, 07 May 1977 20:00:00 GMT"));
+        BatchFetch<String> batch = fetch(Arrays.asList("a", "b"), 2, TIMEOUT_MILLIS, null, validators);
+
+        assertTrue(batch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals("\"old-a\"", mTransport.requestHeaders.get("a").get("If-None-Match"));
+        assertEquals("Sat, 07 May 1977 20:00:00 GMT", mTransport.requestHeaders.get("a").get("If-Modified-Since"));
+        assertFalse(mTransport.requestHeaders.get("b").containsKey("If-None-Match"));
+
+        ArchiveAPI.ConditionalResult<String> notModified = mListener.results.get("a");
+        assertTrue(notModified.notModified);
+        assertNull(notModified.body);
+        assertEquals("\"etag-a\"", notModified.etag);
+        assertFalse(mListener.results.get("b").notModified);
+        assertTrue(mListener.errors.isEmpty());
+    }
+
+    public void testCompleteIsCalledOnceAfterEveryResult() throws Exception {
+        mTransport.respond("b", HttpURLConnection.HTTP_NOT_FOUND);
+        BatchFetch<String> batch = fetch(Arrays.asList("a", "b", "c", "d"), 2, TIMEOUT_MILLIS);
+
+        assertTrue(batch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        List<String> events = mListener.getEvents();
+        assertEquals(5, events.size());
+        assertEquals("complete false", events.get(4));
+        assertTrue(events.contains("error b"));
+        assertEquals(1, mListener.completions.get());
+    }
+
+    public void testEmptyBatchCompletes() throws Exception {
+        BatchFetch<String> batch = fetch(Collections.<String>emptyList(), 2, TIMEOUT_MILLIS);
+
+        assertTrue(batch.await(0, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList("complete false"), mListener.getEvents());
+        assertEquals(0, mTransport.requests.get());
+    }
+
+    public void testDuplicatesAreFetchedOnce() throws Exception {
+        BatchFetch<String> batch = fetch(Arrays.asList("a", "a", "b"), 2, TIMEOUT_MILLIS);
+
+        assertTrue(batch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(2, mTransport.requests.get());
+    }
+
+    public void testConcurrencyIsLimited() throws Exception {
+        mTransport.readDelayMillis = 20;
+        BatchFetch<String> batch = fetch(Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h"), 3, TIMEOUT_MILLIS);
+
+        assertTrue(batch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(8, mListener.results.size());
+        assertTrue("At most 3 requests at a time, but there were " + mTransport.maxOpen.get(), mTransport.maxOpen.get() <= 3);
+    }
+
+    public void testSlowResponseMissesDeadline() throws Exception {
+        //Every read gets a byte, so only the batch's deadline stops it.
+        mTransport.respondSlowly("slow", new byte[1000], 50);
+        BatchFetch<String> batch = fetch(Arrays.asList("slow", "a"), 2, 300);
+
+        assertTrue(batch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(mListener.errors.get("slow") instanceof SocketTimeoutException);
+        assertNotNull(mListener.results.get("a"));
+        assertEquals("complete false", mListener.getEvents().get(2));
+    }
+
+    public void testCancelAbortsRequestsInFlight() throws Exception {
+        mTransport.blockUntilAborted = true;
+        mTransport.opened = new CountDownLatch(2);
+        mTransport.aborts = new CountDownLatch(2);
+        BatchFetch<String> batch = fetch(Arrays.asList("a", "b", "c", "d"), 2, TIMEOUT_MILLIS);
+
+        assertTrue(mTransport.opened.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        batch.cancel();
+
+        assertTrue(batch.isCancelled());
+        assertTrue(batch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList("complete true"), mListener.getEvents());
+        //A request that was opened just as the batch was cancelled is aborted by its own thread, so it can be a little later.
+        assertTrue(mTransport.aborts.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        //The requests that hadn't started are dropped, and nothing else is delivered.
+        Thread.sleep(100);
+        assertEquals(2, mTransport.requests.get());
+        assertEquals(Arrays.asList("complete true"), mListener.getEvents());
+
+        batch.cancel();
+        assertEquals(1, mListener.completions.get());
+    }
+
+    public void testLoadWaitsForBatchRequest() throws Exception {
+        SingleFlight<String, ArchiveAPI.ConditionalResult<String>> flights = new SingleFlight<>();
+        mTransport.respondSlowly("a", "details of a".getBytes("UTF-8"), 20);
+        mTransport.opened = new CountDownLatch(1);
+        BatchFetch<String> batch = fetch(Arrays.asList("a"), 2, TIMEOUT_MILLIS, flights);
+
+        assertTrue(mTransport.opened.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        final AtomicInteger loads = new AtomicInteger();
+        ArchiveAPI.ConditionalResult<String> result = flights.load("a", new SingleFlight.Loader<ArchiveAPI.ConditionalResult<String>>() {
+            @Override
+            public ArchiveAPI.ConditionalResult<String> load() {
+                loads.incrementAndGet();
+                return null;
+            }
+        });
+
+        assertEquals("details of a", result.body);
+        assertEquals(0, loads.get());
+        assertTrue(batch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(1, mTransport.requests.get());
+    }
+
+    public void testSkipsRecordingsAlreadyInFlight() throws Exception {
+        SingleFlight<String, ArchiveAPI.ConditionalResult<String>> flights = new SingleFlight<>();
+        SingleFlight.Flight<ArchiveAPI.ConditionalResult<String>> flight = flights.begin("a");
+        BatchFetch<String> batch = fetch(Arrays.asList("a", "b"), 2, TIMEOUT_MILLIS, flights);
+
+        assertTrue(batch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(1, mTransport.requests.get());
+        assertEquals(Arrays.asList("result b", "complete false"), mListener.getEvents());
+        flight.finish(null);
+    }
+
+    public void testCancelFailsWaitingLoads() throws Exception {
+        final SingleFlight<String, ArchiveAPI.ConditionalResult<String>> flights = new SingleFlight<>();
+        mTransport.blockUntilAborted = true;
+        mTransport.opened = new CountDownLatch(1);
+        BatchFetch<String> batch = fetch(Arrays.asList("a"), 2, TIMEOUT_MILLIS, flights);
+        assertTrue(mTransport.opened.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    flights.load("a", new SingleFlight.Loader<ArchiveAPI.ConditionalResult<String>>() {
+                        @Override
+                        public ArchiveAPI.ConditionalResult<String> load() {
+                            return null;
+                        }
+                    });
+                } catch (RuntimeException ex) {
+                    error.set(ex);
+                }
+            }
+        };
+        waiter.start();
+        while (waiter.getState() != Thread.State.WAITING) {
+            Thread.sleep(5);
+        }
+
+        batch.cancel();
+        waiter.join(TIMEOUT_MILLIS);
+        assertTrue(error.get() instanceof CancellationException);
+    }
+
+    private BatchFetch<String> fetch(List<String> identifiers, int maxConcurrent, int timeoutMillis) {
+        return fetch(identifiers, maxConcurrent, timeoutMillis, null);
+    }
+
+    private BatchFetch<String> fetch(List<String> identifiers, int maxConcurrent, int timeoutMillis,
+                                     SingleFlight<String, ArchiveAPI.ConditionalResult<String>> flights) {
+        return fetch(identifiers, maxConcurrent, timeoutMillis, flights, null);
+    }
+
+    private BatchFetch<String> fetch(List<String> identifiers, int maxConcurrent, int timeoutMillis,
+                                     SingleFlight<String, ArchiveAPI.ConditionalResult<String>> flights,
+                                     Map<String, BatchFetch.Validators> validators) {
+        return mArchiveAPI.fetchRecordingDetails(identifiers, maxConcurrent, timeoutMillis, flights, validators,
+                new BatchFetch.ReaderFactory<String>() {
+                    @Override
+                    public ArchiveAPI.ResponseReader<String> newReader(String identifier) {
+                        return new ArchiveAPI.ResponseReader<String>() {
+                            @Override
+                            public String read(InputStream in) throws IOException {
+                                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                                int b;
+                                while ((b = in.read()) != -1) {
+                                    out.write(b);
+                                }
+                                return out.toString("UTF-8");
+                            }
+                        };
+                    }
+                }, mListener);
+    }
+
+    private static class RecordingListener implements BatchFetch.Listener<String> {
+        final Map<String, ArchiveAPI.ConditionalResult<String>> results = new ConcurrentHashMap<>();
+        final Map<String, IOException> errors = new ConcurrentHashMap<>();
+        final AtomicInteger completions = new AtomicInteger();
+        private final List<String> mEvents = new ArrayList<>();
+
+        @Override
+        public void onResult(String identifier, ArchiveAPI.ConditionalResult<String> result) {
+            results.put(identifier, result);
+            addEvent("result " + identifier);
+        }
+
+        @Override
+        public void onError(String identifier, IOException error) {
+            errors.put(identifier, error);
+            addEvent("error " + identifier);
+        }
+
+        @Override
+        public void onComplete(boolean cancelled) {
+            completions.incrementAndGet();
+            addEvent("complete " + cancelled);
+        }
+
+        private synchronized void addEvent(String event) {
+            mEvents.add(event);
+        }
+
+        synchronized List<String> getEvents() {
+            return new ArrayList<>(mEvents);
+        }
+    }
+
+    /**
+     * Answers each recording's details request with "details of (identifier)", unless it's been told otherwise.
+     */
+    private static class FakeTransport implements HttpTransport {
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger maxOpen = new AtomicInteger();
+        final Map<String, Map<String, String>> requestHeaders = new ConcurrentHashMap<>();
+        private final AtomicInteger mOpen = new AtomicInteger();
+        private final Map<String, Integer> mCodes = new HashMap<>();
+        private final Map<String, byte[]> mBodies = new HashMap<>();
+        private final Map<String, Integer> mDelays = new HashMap<>();
+
+        volatile int readDelayMillis;
+        volatile boolean blockUntilAborted;
+        volatile CountDownLatch opened;
+        volatile CountDownLatch aborts;
+
+        void respond(String identifier, int code) {
+            respond(identifier, code, null);
+        }
+
+        synchronized void respond(String identifier, int code, byte[] body) {
+            mCodes.put(identifier, code);
+            if (body != null) {
+                mBodies.put(identifier, body);
+            }
+        }
+
+        synchronized void respondSlowly(String identifier, byte[] body, int delayMillis) {
+            mBodies.put(identifier, body);
+            mDelays.put(identifier, delayMillis);
+        }
+
+        @Override
+        public HttpResponse get(String url, Map<String, String> headers, int timeoutMillis) throws IOException {
+            String identifier = url.substring(url.indexOf("/details/") + "/details/".length(), url.indexOf('?'));
+            requests.incrementAndGet();
+            requestHeaders.put(identifier, (headers == null) ? new HashMap<String, String>() : new HashMap<>(headers));
+
+            int code;
+            byte[] body;
+            int delayMillis;
+            synchronized (this) {
+                delayMillis = mDelays.containsKey(identifier) ? mDelays.get(identifier) : readDelayMillis;
+                code = mCodes.containsKey(identifier) ? mCodes.get(identifier) : HttpURLConnection.HTTP_OK;
+                body = mBodies.containsKey(identifier) ? mBodies.get(identifier) : ("details of " + identifier).getBytes("UTF-8");
+            }
+
+            int open = mOpen.incrementAndGet();
+            while (true) {
+                int max = maxOpen.get();
+                if (open <= max || maxOpen.compareAndSet(max, open)) {
+                    break;
+                }
+            }
+            if (opened != null) {
+                opened.countDown();
+            }
+
+            return new FakeResponse(identifier, code, body, delayMillis);
+        }
+
+        private class FakeResponse extends HttpResponse {
+            private final String mIdentifier;
+            private final int mCode;
+            private final InputStream mBody;
+            private final int mDelayMillis;
+            private final CountDownLatch mAborted = new CountDownLatch(1);
+            private final AtomicInteger mClosed = new AtomicInteger();
+
+            FakeResponse(String identifier, int code, byte[] body, int delayMillis) {
+                mIdentifier = identifier;
+                mCode = code;
+                mBody = new ByteArrayInputStream(body) {
+                    @Override
+                    public int read(byte[] buffer, int offset, int count) {
+                        //One byte at a time, so a slow response stays slow.
+                        return super.read(buffer, offset, Math.min(count, 1));
+                    }
+                };
+                mDelayMillis = delayMillis;
+            }
+
+            /**
+             * Waits before each read, like a slow connection. Reads fail once the response is aborted.
+             */
+            private void pause() throws IOException {
+                try {
+                    if (blockUntilAborted) {
+                        mAborted.await();
+                    } else if (mDelayMillis > 0) {
+                        Thread.sleep(mDelayMillis);
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                if (mAborted.getCount() == 0) {
+                    throw new IOException("Aborted");
+                }
+            }
+
+            @Override
+            public int getCode() {
+                return mCode;
+            }
+
+            @Override
+            public String getMessage() {
+                return "HTTP " + mCode;
+            }
+
+            @Override
+            public String getHeader(String name) {
+                if ("ETag".equals(name)) {
+                    return "\"etag-" + mIdentifier + "\"";
+                }
+                if ("Last-Modified".equals(name)) {
+                    return "Sun, 08 May 1977 20:00:00 GMT";
+                }
+                return null;
+            }
+
+            @Override
+            public InputStream getBody() {
+                return new FilterInputStream(mBody) {
+                    @Override
+                    public int read() throws IOException {
+                        pause();
+                        return super.read();
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int count) throws IOException {
+                        pause();
+                        return super.read(buffer, offset, count);
+                    }
+                };
+            }
+
+            @Override
+            public void close() {
+                if (mClosed.getAndIncrement() == 0) {
+                    mOpen.decrementAndGet();
+                }
+            }
+
+            @Override
+            public synchronized void abort() {
+                if (mAborted.getCount() > 0) {
+                    mAborted.countDown();
+                    if (aborts != null) {
+                        aborts.countDown();
+                    }
+                }
+                close();
+            }
+        }
+    }
+}
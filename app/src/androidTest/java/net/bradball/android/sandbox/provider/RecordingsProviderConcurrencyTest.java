@@ -0,0 +1,208 @@
+package net.bradball.android.sandbox.provider;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+
+import net.bradball.android.sandbox.data.DatabaseHelper;
+import net.bradball.android.sandbox.data.RecordingsBatch;
+
+import org.joda.time.LocalDate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures how long browse queries take while the sync's bulk writes are running on another thread.
+ * With write-ahead logging, a query shouldn't have to wait for a write transaction to commit.
+ */
+public class RecordingsProviderConcurrencyTest extends ProviderTestCase2<RecordingsProvider> {
+    private static final String TAG = "ProviderConcurrency";
+
+    private static final int WRITE_BATCHES = 10;
+    private static final int SHOWS_PER_BATCH = 200;
+    private static final int RECORDINGS_PER_SHOW = 5;
+
+    /**
+     * How much slower (at the 95th percentile) browse queries can be while the sync is writing, than the same
+     * queries with nothing else going on. The slack covers timer granularity and the writer thread
+     * competing for the cpu. A query that waited for a write batch to commit would take a lot longer.
+     */
+    private static final int MAX_SLOWDOWN = 5;
+    private static final long SLACK_MILLIS = 20;
+
+    /**
+     * How many rounds of queries to time for the unloaded baseline.
+     */
+    private static final int BASELINE_ROUNDS = 50;
+
+    private static final LocalDate FIRST_SHOW = new LocalDate(1965, 1, 1);
+
+    public RecordingsProviderConcurrencyTest() {
+        super(RecordingsProvider.class, RecordingsContract.CONTENT_AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        //Start every test with an empty database.
+        getMockContext().deleteDatabase(DatabaseHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getProvider().shutdown();
+        super.tearDown();
+    }
+
+    public void testDatabaseUsesWriteAheadLog() {
+        DatabaseHelper helper = new DatabaseHelper(getMockContext());
+        try {
+            SQLiteDatabase db = helper.getReadableDatabase();
+            assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+        } finally {
+            helper.close();
+        }
+    }
+
+    public void testQueryLatencyDuringBulkWrite() throws Exception {
+        final ContentResolver resolver = getMockContentResolver();
+        final AtomicReference<Throwable> writeError = new AtomicReference<>();
+
+        writeBatch(resolver, 0);
+
+        Thread writer = new Thread("bulk-writer") {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 1; i <= WRITE_BATCHES; i++) {
+                        writeBatch(resolver, i);
+                    }
+                } catch (Throwable t) {
+                    writeError.set(t);
+                }
+            }
+        };
+
+        List<Long> latencies = new ArrayList<>();
+        long writeStart = System.nanoTime();
+        writer.start();
+
+        while (writer.isAlive()) {
+            timeQueries(resolver, latencies);
+        }
+
+        writer.join();
+        long writeMillis = (System.nanoTime() - writeStart) / 1000000;
+        assertNull("Bulk write failed: " + writeError.get(), writeError.get());
+        assertFalse("No queries ran during the bulk write", latencies.isEmpty());
+
+        //The baseline runs against the finished database, which is bigger than it was for most of the
+        //queries above, so if anything it's slower.
+        List<Long> baseline = new ArrayList<>();
+        for (int i = 0; i < BASELINE_ROUNDS; i++) {
+            timeQueries(resolver, baseline);
+        }
+
+        Collections.sort(latencies);
+        Collections.sort(baseline);
+        long median = percentile(latencies, 0.5);
+        long p95 = percentile(latencies, 0.95);
+        long max = latencies.get(latencies.size() - 1);
+        long baselineP95 = percentile(baseline, 0.95);
+
+        Log.i(TAG, latencies.size() + " queries during a " + writeMillis + "ms bulk write: median " + median
+                + "ms, 95th percentile " + p95 + "ms, max " + max + "ms; 95th percentile with no writes " + baselineP95 + "ms");
+        assertTrue("95th percentile query took " + p95 + "ms during the bulk write, " + baselineP95 + "ms without it",
+                p95 <= baselineP95 * MAX_SLOWDOWN + SLACK_MILLIS);
+    }
+
+    public void testSyncControlsCheckpoints() {
+        ContentResolver resolver = getMockContentResolver();
+
+        resolver.call(RecordingsContract.BASE_CONTENT_URI, RecordingsContract.METHOD_PAUSE_AUTO_CHECKPOINT, null, null);
+        try {
+            writeBatch(resolver, 0);
+
+            Bundle result = resolver.call(RecordingsContract.BASE_CONTENT_URI, RecordingsContract.METHOD_CHECKPOINT, null, null);
+            assertNotNull(result);
+            assertTrue(result.getInt(RecordingsContract.EXTRA_WAL_FRAMES) > 0);
+
+            //Nothing else is reading, so the whole log can be checkpointed.
+            assertEquals(result.getInt(RecordingsContract.EXTRA_WAL_FRAMES), result.getInt(RecordingsContract.EXTRA_CHECKPOINTED_FRAMES));
+        } finally {
+            resolver.call(RecordingsContract.BASE_CONTENT_URI, RecordingsContract.METHOD_RESUME_AUTO_CHECKPOINT, null, null);
+        }
+    }
+
+    private static void timeQueries(ContentResolver resolver, List<Long> latencies) {
+        latencies.add(timeQuery(resolver, RecordingsContract.ShowYears.CONTENT_URI, RecordingsContract.ShowYears.PROJECTION));
+        latencies.add(timeQuery(resolver, RecordingsContract.Shows.buildShowsByDateUri("1965"), RecordingsContract.Shows.PROJECTION));
+    }
+
+    /**
+     * The value at a percentile (0 to 1) of a sorted list.
+     */
+    private static long percentile(List<Long> sorted, double percentile) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) (sorted.size() * percentile)));
+    }
+
+    private static long timeQuery(ContentResolver resolver, Uri uri, String[] projection) {
+        long start = System.nanoTime();
+        Cursor cursor = resolver.query(uri, projection, null, null, null);
+        try {
+            assertNotNull(cursor);
+            cursor.getCount();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static void writeBatch(ContentResolver resolver, int batchNumber) {
+        RecordingsBatch batch = createBatch(batchNumber * SHOWS_PER_BATCH);
+        Bundle ids = resolver.call(RecordingsContract.BASE_CONTENT_URI, RecordingsContract.METHOD_WRITE_RECORDINGS, null, batch.toBundle());
+        assertNotNull(ids);
+    }
+
+    /**
+     * A batch of new shows (one a day, starting {@code firstShow} days after 1965-01-01), each with a few recordings.
+     */
+    private static RecordingsBatch createBatch(int firstShow) {
+        RecordingsBatch batch = new RecordingsBatch(SHOWS_PER_BATCH, SHOWS_PER_BATCH * RECORDINGS_PER_SHOW);
+
+        int recording = 0;
+        for (int show = 0; show < SHOWS_PER_BATCH; show++) {
+            String date = FIRST_SHOW.plusDays(firstShow + show).toString();
+            batch.showYears[show] = date.substring(0, 4);
+            batch.showDates[show] = date;
+            batch.showLocations[show] = "Location " + show;
+            batch.showTitles[show] = "Show " + date;
+            batch.showSetlists[show] = "Scarlet Begonias > Fire On The Mountain";
+
+            for (int i = 0; i < RECORDINGS_PER_SHOW; i++) {
+                batch.recordingShows[recording] = show;
+                batch.recordingIdentifiers[recording] = "gd" + date + ".test." + i;
+                batch.recordingDates[recording] = date;
+                batch.recordingLocations[recording] = batch.showLocations[show];
+                batch.recordingTitles[recording] = batch.showTitles[show];
+                batch.recordingSetlists[recording] = batch.showSetlists[show];
+                batch.recordingSoundboards[recording] = (i == 0);
+                batch.recordingRatings[recording] = i;
+                batch.recordingDownloads[recording] = 100 * i;
+                recording++;
+            }
+        }
+
+        return batch;
+    }
+}
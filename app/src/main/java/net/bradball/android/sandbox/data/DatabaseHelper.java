@@ -4,27 +4,52 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
 import android.util.Log;
 
+import net.bradball.android.sandbox.data.DatabaseSchema.RecordingsSearchTable;
 import net.bradball.android.sandbox.data.DatabaseSchema.RecordingsTable;
 import net.bradball.android.sandbox.data.DatabaseSchema.ShowsTable;
+import net.bradball.android.sandbox.data.DatabaseSchema.TracksTable;
+import net.bradball.android.sandbox.data.DatabaseSchema.YearSummaryTable;
 import net.bradball.android.sandbox.util.LogHelper;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String TAG = LogHelper.makeLogTag(DatabaseHelper.class);
-    private static final String DATABASE_NAME = "recordings_database";
+    public static final String DATABASE_NAME = "recordings_database";
 
     private static final int INIT_VERSION = 100;
-    private static final int CURRENT_DATABASE_VERSION = INIT_VERSION;
+    private static final int CURRENT_DATABASE_VERSION = DatabaseMigrations.VERSION_TRACKS;
 
     public DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, CURRENT_DATABASE_VERSION);
         //super(context,"/mnt/sdcard/database_name.db", null, CURRENT_DATABASE_VERSION);
+
+        //Write-ahead logging lets queries run on their own connections (from a pool) while the sync is
+        //writing, instead of waiting for each write transaction to commit. The sync controls when the
+        //log is checkpointed back into the database (see RecordingsContract.METHOD_PAUSE_AUTO_CHECKPOINT).
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         LogHelper.v(TAG, "CREATE DATABASE");
+        createShowsTable(db);
+        createRecordingsTable(db);
+        createIndexes(db);
+        createShowAggregateTriggers(db);
+        createYearSummary(db);
+        createSearchTable(db);
+        createTracksTable(db);
+    }
+
+    /*
+        The unique keys on shows and recordings are plain UNIQUE constraints, not ON CONFLICT REPLACE.
+        A REPLACE deletes the existing row and inserts a new one, with a new _id, which orphans a show's
+        recordings (or cascades and deletes them), and resets columns like available_offline.
+        Writes look the row up by its key and update it in place instead (see RecordingsProvider).
+    */
+    private static void createShowsTable(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE " + ShowsTable.NAME + "(" +
                 BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
                 ShowsTable.COLUMNS.YEAR + " TEXT NOT NULL, " +
@@ -34,10 +59,13 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 ShowsTable.COLUMNS.SETLIST + " TEXT, " +
                 ShowsTable.COLUMNS.SOUNDBOARD + " INTEGER NOT NULL DEFAULT 0, " +
                 ShowsTable.COLUMNS.DOWNLOADS + " INTEGER NOT NULL DEFAULT 0," +
-                " UNIQUE (" + ShowsTable.COLUMNS.DATE + ") ON CONFLICT REPLACE" +
+                ShowsTable.COLUMNS.RECORDING_COUNT + " INTEGER NOT NULL DEFAULT 0," +
+                " UNIQUE (" + ShowsTable.COLUMNS.DATE + ")" +
                 ")"
         );
+    }
 
+    private static void createRecordingsTable(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE " + RecordingsTable.NAME + "(" +
                 BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
                 RecordingsTable.COLUMNS.SHOW_ID + " INTEGER NOT NULL, " +
@@ -53,15 +81,198 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 RecordingsTable.COLUMNS.DOWNLOADS + " INTEGER NOT NULL DEFAULT 0, " +
                 RecordingsTable.COLUMNS.AVAILABLE_OFFLINE + " INTEGER NOT NULL DEFAULT 0," +
                 RecordingsTable.COLUMNS.SOURCE + " TEXT," +
-                " UNIQUE (" + RecordingsTable.COLUMNS.IDENTIFIER + ") ON CONFLICT REPLACE," +
+                " UNIQUE (" + RecordingsTable.COLUMNS.IDENTIFIER + ")," +
                 " FOREIGN KEY(" + RecordingsTable.COLUMNS.SHOW_ID + ") REFERENCES " + ShowsTable.NAME + "(" + BaseColumns._ID + ") ON DELETE CASCADE" +
                 ")"
         );
+    }
 
+    private static void createIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX shows_year_date ON " + ShowsTable.NAME + "(" + ShowsTable.COLUMNS.YEAR + ", " + ShowsTable.COLUMNS.DATE + ")");
+        db.execSQL("CREATE INDEX recordings_show_date ON " + RecordingsTable.NAME + "(" + RecordingsTable.COLUMNS.SHOW_ID + ", " + RecordingsTable.COLUMNS.DATE + ")");
+        db.execSQL("CREATE INDEX recordings_date ON " + RecordingsTable.NAME + "(" + RecordingsTable.COLUMNS.DATE + ")");
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
+    /*
+        A show's recording_count, downloads and soundboard columns are aggregates of its recordings.
+        Rather than counting/summing with a join every time shows are browsed, these triggers keep
+        them up to date as recordings are written. Counts and downloads are adjusted incrementally,
+        the soundboard flag is re-checked against the show's recordings (using the show_id index).
+    */
+    private static final String SHOW_HAS_SOUNDBOARD = "EXISTS (SELECT 1 FROM " + RecordingsTable.NAME +
+            " WHERE " + RecordingsTable.COLUMNS.SHOW_ID + " = " + ShowsTable.NAME + "." + BaseColumns._ID +
+            " AND " + RecordingsTable.COLUMNS.SOUNDBOARD + " = 1)";
+
+    private static void createShowAggregateTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER recordings_insert_show_aggregates AFTER INSERT ON " + RecordingsTable.NAME + " BEGIN " +
+                "UPDATE " + ShowsTable.NAME + " SET " +
+                ShowsTable.COLUMNS.RECORDING_COUNT + " = " + ShowsTable.COLUMNS.RECORDING_COUNT + " + 1, " +
+                ShowsTable.COLUMNS.DOWNLOADS + " = " + ShowsTable.COLUMNS.DOWNLOADS + " + NEW." + RecordingsTable.COLUMNS.DOWNLOADS + ", " +
+                ShowsTable.COLUMNS.SOUNDBOARD + " = MAX(" + ShowsTable.COLUMNS.SOUNDBOARD + ", NEW." + RecordingsTable.COLUMNS.SOUNDBOARD + ")" +
+                " WHERE " + BaseColumns._ID + " = NEW." + RecordingsTable.COLUMNS.SHOW_ID + "; " +
+                "END");
+
+        db.execSQL("CREATE TRIGGER recordings_delete_show_aggregates AFTER DELETE ON " + RecordingsTable.NAME + " BEGIN " +
+                "UPDATE " + ShowsTable.NAME + " SET " +
+                ShowsTable.COLUMNS.RECORDING_COUNT + " = " + ShowsTable.COLUMNS.RECORDING_COUNT + " - 1, " +
+                ShowsTable.COLUMNS.DOWNLOADS + " = " + ShowsTable.COLUMNS.DOWNLOADS + " - OLD." + RecordingsTable.COLUMNS.DOWNLOADS + ", " +
+                ShowsTable.COLUMNS.SOUNDBOARD + " = " + SHOW_HAS_SOUNDBOARD +
+                " WHERE " + BaseColumns._ID + " = OLD." + RecordingsTable.COLUMNS.SHOW_ID + "; " +
+                "END");
+
+        db.execSQL("CREATE TRIGGER recordings_update_show_aggregates AFTER UPDATE OF " +
+                RecordingsTable.COLUMNS.SHOW_ID + ", " + RecordingsTable.COLUMNS.DOWNLOADS + ", " + RecordingsTable.COLUMNS.SOUNDBOARD +
+                " ON " + RecordingsTable.NAME +
+                whenChanged(RecordingsTable.COLUMNS.SHOW_ID, RecordingsTable.COLUMNS.DOWNLOADS, RecordingsTable.COLUMNS.SOUNDBOARD) + " BEGIN " +
+                "UPDATE " + ShowsTable.NAME + " SET " +
+                ShowsTable.COLUMNS.RECORDING_COUNT + " = " + ShowsTable.COLUMNS.RECORDING_COUNT + " - 1, " +
+                ShowsTable.COLUMNS.DOWNLOADS + " = " + ShowsTable.COLUMNS.DOWNLOADS + " - OLD." + RecordingsTable.COLUMNS.DOWNLOADS +
+                " WHERE " + BaseColumns._ID + " = OLD." + RecordingsTable.COLUMNS.SHOW_ID + "; " +
+                "UPDATE " + ShowsTable.NAME + " SET " +
+                ShowsTable.COLUMNS.RECORDING_COUNT + " = " + ShowsTable.COLUMNS.RECORDING_COUNT + " + 1, " +
+                ShowsTable.COLUMNS.DOWNLOADS + " = " + ShowsTable.COLUMNS.DOWNLOADS + " + NEW." + RecordingsTable.COLUMNS.DOWNLOADS +
+                " WHERE " + BaseColumns._ID + " = NEW." + RecordingsTable.COLUMNS.SHOW_ID + "; " +
+                "UPDATE " + ShowsTable.NAME + " SET " +
+                ShowsTable.COLUMNS.SOUNDBOARD + " = " + SHOW_HAS_SOUNDBOARD +
+                " WHERE " + BaseColumns._ID + " IN (OLD." + RecordingsTable.COLUMNS.SHOW_ID + ", NEW." + RecordingsTable.COLUMNS.SHOW_ID + "); " +
+                "END");
+    }
+
+    /*
+        UPDATE OF only says which columns were SET, not whether they actually changed,
+        so the update triggers also check the values to skip rewriting a row with the same data.
+    */
+    private static String whenChanged(String... columns) {
+        StringBuilder sql = new StringBuilder(" WHEN ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(" OR ");
+            }
+            sql.append("OLD.").append(columns[i]).append(" IS NOT NEW.").append(columns[i]);
+        }
+        return sql.toString();
+    }
+
+    /*
+        year_summary has a row for each year with shows in it, with counts of its shows, recordings
+        and soundboard shows, so listing the years doesn't need to group the whole shows table.
+        Triggers on shows keep it up to date (including when the recording triggers above change a show).
+    */
+    private static void createYearSummary(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + YearSummaryTable.NAME + "(" +
+                YearSummaryTable.COLUMNS.YEAR + " TEXT PRIMARY KEY, " +
+                YearSummaryTable.COLUMNS.SHOW_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                YearSummaryTable.COLUMNS.RECORDING_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                YearSummaryTable.COLUMNS.SOUNDBOARD_COUNT + " INTEGER NOT NULL DEFAULT 0" +
+                ")"
+        );
+
+        db.execSQL("CREATE TRIGGER shows_insert_year_summary AFTER INSERT ON " + ShowsTable.NAME + " BEGIN " +
+                addYearSummaryRow("NEW") +
+                updateYearSummary("NEW", "+") +
+                "END");
+
+        db.execSQL("CREATE TRIGGER shows_delete_year_summary AFTER DELETE ON " + ShowsTable.NAME + " BEGIN " +
+                updateYearSummary("OLD", "-") +
+                removeEmptyYearSummaryRow("OLD") +
+                "END");
+
+        db.execSQL("CREATE TRIGGER shows_update_year_summary AFTER UPDATE OF " +
+                ShowsTable.COLUMNS.YEAR + ", " + ShowsTable.COLUMNS.RECORDING_COUNT + ", " + ShowsTable.COLUMNS.SOUNDBOARD +
+                " ON " + ShowsTable.NAME +
+                whenChanged(ShowsTable.COLUMNS.YEAR, ShowsTable.COLUMNS.RECORDING_COUNT, ShowsTable.COLUMNS.SOUNDBOARD) + " BEGIN " +
+                addYearSummaryRow("NEW") +
+                updateYearSummary("OLD", "-") +
+                updateYearSummary("NEW", "+") +
+                removeEmptyYearSummaryRow("OLD") +
+                "END");
+    }
+
+    private static String addYearSummaryRow(String row) {
+        return "INSERT OR IGNORE INTO " + YearSummaryTable.NAME + " (" + YearSummaryTable.COLUMNS.YEAR + ") VALUES (" + row + "." + ShowsTable.COLUMNS.YEAR + "); ";
+    }
 
+    private static String updateYearSummary(String row, String operator) {
+        return "UPDATE " + YearSummaryTable.NAME + " SET " +
+                YearSummaryTable.COLUMNS.SHOW_COUNT + " = " + YearSummaryTable.COLUMNS.SHOW_COUNT + " " + operator + " 1, " +
+                YearSummaryTable.COLUMNS.RECORDING_COUNT + " = " + YearSummaryTable.COLUMNS.RECORDING_COUNT + " " + operator + " " + row + "." + ShowsTable.COLUMNS.RECORDING_COUNT + ", " +
+                YearSummaryTable.COLUMNS.SOUNDBOARD_COUNT + " = " + YearSummaryTable.COLUMNS.SOUNDBOARD_COUNT + " " + operator + " " + row + "." + ShowsTable.COLUMNS.SOUNDBOARD +
+                " WHERE " + YearSummaryTable.COLUMNS.YEAR + " = " + row + "." + ShowsTable.COLUMNS.YEAR + "; ";
+    }
+
+    private static String removeEmptyYearSummaryRow(String row) {
+        return "DELETE FROM " + YearSummaryTable.NAME + " WHERE " + YearSummaryTable.COLUMNS.YEAR + " = " + row + "." + ShowsTable.COLUMNS.YEAR +
+                " AND " + YearSummaryTable.COLUMNS.SHOW_COUNT + " <= 0; ";
+    }
+
+    /*
+        recordings_search is a full text index (FTS4) of each recording's title, location, setlist,
+        source and date, used to search the catalog without a LIKE scan over every setlist.
+        It indexes the recordings table directly (content=), so these triggers keep it in sync with
+        every write. An indexed row has to be removed while the old text is still in the recordings
+        table, so the deletes happen BEFORE the change, and the new text is added AFTER it.
+    */
+    private static void createSearchTable(SQLiteDatabase db) {
+        String columns = TextUtils.join(", ", RecordingsSearchTable.COLUMNS);
+
+        db.execSQL("CREATE VIRTUAL TABLE " + RecordingsSearchTable.NAME + " USING fts4(" +
+                "content=\"" + RecordingsTable.NAME + "\", " + columns + ")");
+
+        db.execSQL("CREATE TRIGGER recordings_search_before_update BEFORE UPDATE OF " + columns + " ON " + RecordingsTable.NAME +
+                whenChanged(RecordingsSearchTable.COLUMNS) + " BEGIN " +
+                removeFromSearch() +
+                "END");
+
+        db.execSQL("CREATE TRIGGER recordings_search_before_delete BEFORE DELETE ON " + RecordingsTable.NAME + " BEGIN " +
+                removeFromSearch() +
+                "END");
+
+        db.execSQL("CREATE TRIGGER recordings_search_after_update AFTER UPDATE OF " + columns + " ON " + RecordingsTable.NAME +
+                whenChanged(RecordingsSearchTable.COLUMNS) + " BEGIN " +
+                addToSearch(columns) +
+                "END");
+
+        db.execSQL("CREATE TRIGGER recordings_search_after_insert AFTER INSERT ON " + RecordingsTable.NAME + " BEGIN " +
+                addToSearch(columns) +
+                "END");
+    }
+
+    private static String removeFromSearch() {
+        return "DELETE FROM " + RecordingsSearchTable.NAME + " WHERE " + RecordingsSearchTable.DOCID + " = OLD." + BaseColumns._ID + "; ";
+    }
+
+    private static String addToSearch(String columns) {
+        return "INSERT INTO " + RecordingsSearchTable.NAME + " (" + RecordingsSearchTable.DOCID + ", " + columns + ") " +
+                "VALUES (NEW." + BaseColumns._ID + ", NEW." + TextUtils.join(", NEW.", RecordingsSearchTable.COLUMNS) + "); ";
+    }
+
+    /*
+        A recording's tracks, saved the first time its details are fetched from archive.org,
+        so opening it again is a local query instead of a network request.
+        The unique key also indexes the lookup of a recording's tracks.
+    */
+    private static void createTracksTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TracksTable.NAME + "(" +
+                BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                TracksTable.COLUMNS.RECORDING_ID + " INTEGER NOT NULL, " +
+                TracksTable.COLUMNS.FILENAME + " TEXT NOT NULL, " +
+                TracksTable.COLUMNS.TITLE + " TEXT, " +
+                TracksTable.COLUMNS.NUMBER + " INTEGER NOT NULL DEFAULT 0, " +
+                TracksTable.COLUMNS.ALBUM + " TEXT, " +
+                TracksTable.COLUMNS.BITRATE + " TEXT, " +
+                TracksTable.COLUMNS.LENGTH + " TEXT, " +
+                TracksTable.COLUMNS.FORMAT + " TEXT, " +
+                TracksTable.COLUMNS.SIZE + " INTEGER NOT NULL DEFAULT 0, " +
+                TracksTable.COLUMNS.MD5 + " TEXT," +
+                " UNIQUE (" + TracksTable.COLUMNS.RECORDING_ID + ", " + TracksTable.COLUMNS.FILENAME + ")," +
+                " FOREIGN KEY(" + TracksTable.COLUMNS.RECORDING_ID + ") REFERENCES " + RecordingsTable.NAME + "(" + BaseColumns._ID + ") ON DELETE CASCADE" +
+                ")"
+        );
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        LogHelper.i(TAG, "Upgrading database from version ", oldVersion, " to ", newVersion);
+        DatabaseMigrations.migrate(db, oldVersion, newVersion);
     }
-}
\ No newline at end of file
+}
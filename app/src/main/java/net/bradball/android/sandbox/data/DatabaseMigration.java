@@ -0,0 +1,27 @@
+package net.bradball.android.sandbox.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A single step in upgrading the database schema, from {@code version - 1} to {@code version}.
+ *
+ * A migration only ever sees the schema as it was at the previous version, so it shouldn't
+ * use the current table definitions in {@link DatabaseHelper}, which will keep changing.
+ * Anything it needs (table SQL, column lists, etc) should be written out in the migration itself.
+ */
+public abstract class DatabaseMigration {
+    public final int version;
+    public final String name;
+
+    protected DatabaseMigration(int version, String name) {
+        this.version = version;
+        this.name = name;
+    }
+
+    public abstract void migrate(SQLiteDatabase db);
+
+    @Override
+    public String toString() {
+        return version + " (" + name + ")";
+    }
+}
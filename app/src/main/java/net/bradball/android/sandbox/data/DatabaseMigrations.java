@@ -0,0 +1,275 @@
+package net.bradball.android.sandbox.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+
+import net.bradball.android.sandbox.util.LogHelper;
+
+/**
+ * Upgrades an existing database one version at a time, so a schema change doesn't mean
+ * wiping the database and re-syncing the whole catalog.
+ *
+ * To change the schema: bump {@link DatabaseHelper}'s version, update its onCreate() so new
+ * installs get the new schema directly, and add a {@link DatabaseMigration} for the new version
+ * to the end of {@link #MIGRATIONS}.
+ */
+public final class DatabaseMigrations {
+    private static final String TAG = LogHelper.makeLogTag(DatabaseMigrations.class);
+
+    public static final int VERSION_NO_REPLACE_CONFLICTS = 101;
+    public static final int VERSION_BROWSE_INDEXES = 102;
+    public static final int VERSION_SHOW_AGGREGATES = 103;
+    public static final int VERSION_YEAR_SUMMARY = 104;
+    public static final int VERSION_SEARCH = 105;
+    public static final int VERSION_TRACKS = 106;
+
+    /**
+     * Every migration, in version order. Don't remove or change one once it's been released,
+     * there may still be databases out there that need it.
+     */
+    static final DatabaseMigration[] MIGRATIONS = {
+
+            /*
+                Drop ON CONFLICT REPLACE from the unique keys on shows and recordings.
+                SQLite can't change a constraint on an existing table, so copy each table into
+                a new one without it. Row ids are copied along with everything else.
+            */
+            new DatabaseMigration(VERSION_NO_REPLACE_CONFLICTS, "no replace conflicts") {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE recordings RENAME TO recordings_old");
+                    db.execSQL("ALTER TABLE shows RENAME TO shows_old");
+
+                    db.execSQL("CREATE TABLE shows(" +
+                            "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "year TEXT NOT NULL, " +
+                            "showDate TEXT NOT NULL, " +
+                            "location TEXT," +
+                            "title TEXT," +
+                            "setlist TEXT, " +
+                            "soundboard INTEGER NOT NULL DEFAULT 0, " +
+                            "downloads INTEGER NOT NULL DEFAULT 0," +
+                            " UNIQUE (showDate))");
+
+                    db.execSQL("CREATE TABLE recordings(" +
+                            "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "show_id INTEGER NOT NULL, " +
+                            "identifier TEXT NOT NULL, " +
+                            "showDate TEXT NOT NULL, " +
+                            "location TEXT," +
+                            "title TEXT, " +
+                            "setlist TEXT, " +
+                            "soundboard INTEGER NOT NULL DEFAULT 0, " +
+                            "publisher TEXT, " +
+                            "rating REAL NOT NULL DEFAULT 0, " +
+                            "numReviews INTEGER NOT NULL DEFAULT 0, " +
+                            "downloads INTEGER NOT NULL DEFAULT 0, " +
+                            "available_offline INTEGER NOT NULL DEFAULT 0," +
+                            "source TEXT," +
+                            " UNIQUE (identifier)," +
+                            " FOREIGN KEY(show_id) REFERENCES shows(_id) ON DELETE CASCADE)");
+
+                    db.execSQL("INSERT INTO shows SELECT * FROM shows_old");
+                    db.execSQL("INSERT INTO recordings SELECT * FROM recordings_old");
+                    db.execSQL("DROP TABLE recordings_old");
+                    db.execSQL("DROP TABLE shows_old");
+                }
+            },
+
+            /*
+                Indexes for the provider's browse queries, which were all full table scans:
+                    - shows by year, ordered by date (SHOW_YEARS, SHOWS_BY_YEAR). _id is part of
+                      every index, so counting shows per year never touches the table.
+                    - recordings by show, ordered by date (SHOW_RECORDINGS, and the shows/recordings join).
+                    - recordings by date.
+            */
+            new DatabaseMigration(VERSION_BROWSE_INDEXES, "browse indexes") {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS shows_year_date ON shows(year, showDate)");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS recordings_show_date ON recordings(show_id, showDate)");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS recordings_date ON recordings(showDate)");
+                }
+            },
+
+            /*
+                Add a recording_count to shows, and keep it, along with downloads and soundboard,
+                up to date from the recordings table with triggers, so browsing shows doesn't need
+                to join and group the recordings. The existing rows are filled in from scratch.
+            */
+            new DatabaseMigration(VERSION_SHOW_AGGREGATES, "show aggregates") {
+                private static final String HAS_SOUNDBOARD = "EXISTS (SELECT 1 FROM recordings WHERE show_id = shows._id AND soundboard = 1)";
+
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE shows ADD COLUMN recording_count INTEGER NOT NULL DEFAULT 0");
+
+                    db.execSQL("UPDATE shows SET " +
+                            "recording_count = (SELECT count(*) FROM recordings WHERE show_id = shows._id), " +
+                            "downloads = (SELECT IFNULL(SUM(downloads), 0) FROM recordings WHERE show_id = shows._id), " +
+                            "soundboard = " + HAS_SOUNDBOARD);
+
+                    db.execSQL("CREATE TRIGGER recordings_insert_show_aggregates AFTER INSERT ON recordings BEGIN " +
+                            "UPDATE shows SET recording_count = recording_count + 1, downloads = downloads + NEW.downloads, " +
+                            "soundboard = MAX(soundboard, NEW.soundboard) WHERE _id = NEW.show_id; " +
+                            "END");
+
+                    db.execSQL("CREATE TRIGGER recordings_delete_show_aggregates AFTER DELETE ON recordings BEGIN " +
+                            "UPDATE shows SET recording_count = recording_count - 1, downloads = downloads - OLD.downloads, " +
+                            "soundboard = " + HAS_SOUNDBOARD + " WHERE _id = OLD.show_id; " +
+                            "END");
+
+                    db.execSQL("CREATE TRIGGER recordings_update_show_aggregates AFTER UPDATE OF show_id, downloads, soundboard ON recordings " +
+                            "WHEN OLD.show_id IS NOT NEW.show_id OR OLD.downloads IS NOT NEW.downloads OR OLD.soundboard IS NOT NEW.soundboard BEGIN " +
+                            "UPDATE shows SET recording_count = recording_count - 1, downloads = downloads - OLD.downloads WHERE _id = OLD.show_id; " +
+                            "UPDATE shows SET recording_count = recording_count + 1, downloads = downloads + NEW.downloads WHERE _id = NEW.show_id; " +
+                            "UPDATE shows SET soundboard = " + HAS_SOUNDBOARD + " WHERE _id IN (OLD.show_id, NEW.show_id); " +
+                            "END");
+                }
+            },
+
+            /*
+                A summary row for each year (show, recording and soundboard show counts),
+                so listing the years doesn't need to group the whole shows table.
+                Filled in from the existing shows, and then kept up to date by triggers on shows.
+            */
+            new DatabaseMigration(VERSION_YEAR_SUMMARY, "year summary") {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE year_summary(" +
+                            "year TEXT PRIMARY KEY, " +
+                            "show_count INTEGER NOT NULL DEFAULT 0, " +
+                            "recording_count INTEGER NOT NULL DEFAULT 0, " +
+                            "soundboard_count INTEGER NOT NULL DEFAULT 0)");
+
+                    db.execSQL("INSERT INTO year_summary (year, show_count, recording_count, soundboard_count) " +
+                            "SELECT year, count(*), SUM(recording_count), SUM(soundboard) FROM shows GROUP BY year");
+
+                    db.execSQL("CREATE TRIGGER shows_insert_year_summary AFTER INSERT ON shows BEGIN " +
+                            "INSERT OR IGNORE INTO year_summary (year) VALUES (NEW.year); " +
+                            "UPDATE year_summary SET show_count = show_count + 1, recording_count = recording_count + NEW.recording_count, " +
+                            "soundboard_count = soundboard_count + NEW.soundboard WHERE year = NEW.year; " +
+                            "END");
+
+                    db.execSQL("CREATE TRIGGER shows_delete_year_summary AFTER DELETE ON shows BEGIN " +
+                            "UPDATE year_summary SET show_count = show_count - 1, recording_count = recording_count - OLD.recording_count, " +
+                            "soundboard_count = soundboard_count - OLD.soundboard WHERE year = OLD.year; " +
+                            "DELETE FROM year_summary WHERE year = OLD.year AND show_count <= 0; " +
+                            "END");
+
+                    db.execSQL("CREATE TRIGGER shows_update_year_summary AFTER UPDATE OF year, recording_count, soundboard ON shows " +
+                            "WHEN OLD.year IS NOT NEW.year OR OLD.recording_count IS NOT NEW.recording_count OR OLD.soundboard IS NOT NEW.soundboard BEGIN " +
+                            "INSERT OR IGNORE INTO year_summary (year) VALUES (NEW.year); " +
+                            "UPDATE year_summary SET show_count = show_count - 1, recording_count = recording_count - OLD.recording_count, " +
+                            "soundboard_count = soundboard_count - OLD.soundboard WHERE year = OLD.year; " +
+                            "UPDATE year_summary SET show_count = show_count + 1, recording_count = recording_count + NEW.recording_count, " +
+                            "soundboard_count = soundboard_count + NEW.soundboard WHERE year = NEW.year; " +
+                            "DELETE FROM year_summary WHERE year = OLD.year AND show_count <= 0; " +
+                            "END");
+                }
+            },
+
+            /*
+                A full text index (FTS4) over the recordings' title, location, setlist, source and date,
+                for searching the catalog. It reads its text from the recordings table (content=),
+                so the existing recordings are indexed with a 'rebuild', and triggers keep it in sync after that.
+            */
+            new DatabaseMigration(VERSION_SEARCH, "search") {
+                private static final String COLUMNS = "title, location, setlist, source, showDate";
+                private static final String CHANGED = "WHEN OLD.title IS NOT NEW.title OR OLD.location IS NOT NEW.location OR " +
+                        "OLD.setlist IS NOT NEW.setlist OR OLD.source IS NOT NEW.source OR OLD.showDate IS NOT NEW.showDate";
+
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE VIRTUAL TABLE recordings_search USING fts4(content=\"recordings\", " + COLUMNS + ")");
+                    db.execSQL("INSERT INTO recordings_search (recordings_search) VALUES ('rebuild')");
+
+                    db.execSQL("CREATE TRIGGER recordings_search_before_update BEFORE UPDATE OF " + COLUMNS + " ON recordings " + CHANGED + " BEGIN " +
+                            "DELETE FROM recordings_search WHERE docid = OLD._id; " +
+                            "END");
+
+                    db.execSQL("CREATE TRIGGER recordings_search_before_delete BEFORE DELETE ON recordings BEGIN " +
+                            "DELETE FROM recordings_search WHERE docid = OLD._id; " +
+                            "END");
+
+                    db.execSQL("CREATE TRIGGER recordings_search_after_update AFTER UPDATE OF " + COLUMNS + " ON recordings " + CHANGED + " BEGIN " +
+                            "INSERT INTO recordings_search (docid, " + COLUMNS + ") " +
+                            "VALUES (NEW._id, NEW.title, NEW.location, NEW.setlist, NEW.source, NEW.showDate); " +
+                            "END");
+
+                    db.execSQL("CREATE TRIGGER recordings_search_after_insert AFTER INSERT ON recordings BEGIN " +
+                            "INSERT INTO recordings_search (docid, " + COLUMNS + ") " +
+                            "VALUES (NEW._id, NEW.title, NEW.location, NEW.setlist, NEW.source, NEW.showDate); " +
+                            "END");
+                }
+            },
+
+            /*
+                A table for recordings' tracks, so they're only fetched from archive.org once.
+                It starts out empty, tracks are saved as recordings are opened.
+            */
+            new DatabaseMigration(VERSION_TRACKS, "tracks") {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE tracks(" +
+                            "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "recording_id INTEGER NOT NULL, " +
+                            "filename TEXT NOT NULL, " +
+                            "title TEXT, " +
+                            "number INTEGER NOT NULL DEFAULT 0, " +
+                            "album TEXT, " +
+                            "bitrate TEXT, " +
+                            "length TEXT, " +
+                            "format TEXT, " +
+                            "size INTEGER NOT NULL DEFAULT 0, " +
+                            "md5 TEXT," +
+                            " UNIQUE (recording_id, filename)," +
+                            " FOREIGN KEY(recording_id) REFERENCES recordings(_id) ON DELETE CASCADE)");
+                }
+            }
+    };
+
+    private DatabaseMigrations() {
+    }
+
+    /**
+     * Run every migration after {@code oldVersion}, up to and including {@code newVersion}, in order.
+     * SQLiteOpenHelper runs onUpgrade() in a transaction, so if any step fails, none of them are kept.
+     *
+     * @throws IllegalStateException if there's a version in the range that doesn't have a migration.
+     */
+    public static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        int version = oldVersion;
+        for (DatabaseMigration migration : MIGRATIONS) {
+            if (migration.version <= oldVersion || migration.version > newVersion) {
+                continue;
+            }
+
+            if (migration.version != version + 1) {
+                throw new IllegalStateException("No database migration to version " + (version + 1));
+            }
+
+            long start = SystemClock.elapsedRealtime();
+            migration.migrate(db);
+            LogHelper.i(TAG, "Migrated database to version ", migration, " in ", SystemClock.elapsedRealtime() - start, "ms");
+
+            version = migration.version;
+        }
+
+        if (version != newVersion) {
+            throw new IllegalStateException("No database migration to version " + (version + 1));
+        }
+    }
+
+    /**
+     * Returns the migration to {@code version}, or null if there isn't one.
+     */
+    public static DatabaseMigration get(int version) {
+        for (DatabaseMigration migration : MIGRATIONS) {
+            if (migration.version == version) {
+                return migration;
+            }
+        }
+        return null;
+    }
+}
@@ -33,7 +33,54 @@ public class DatabaseSchema {
             public static final String DOWNLOADS = "downloads";
             public static final String TITLE = "title";
             public static final String SOUNDBOARD = "soundboard";
+            public static final String RECORDING_COUNT = "recording_count";
         }
     }
 
-}
\ No newline at end of file
+    public static final class YearSummaryTable {
+        public static final String NAME = "year_summary";
+
+        public static final class COLUMNS {
+            public static final String YEAR = "year";
+            public static final String SHOW_COUNT = "show_count";
+            public static final String RECORDING_COUNT = "recording_count";
+            public static final String SOUNDBOARD_COUNT = "soundboard_count";
+        }
+    }
+
+    public static final class TracksTable {
+        public static final String NAME = "tracks";
+
+        public static final class COLUMNS {
+            public static final String RECORDING_ID = "recording_id";
+            public static final String FILENAME = "filename";
+            public static final String TITLE = "title";
+            public static final String NUMBER = "number";
+            public static final String ALBUM = "album";
+            public static final String BITRATE = "bitrate";
+            public static final String LENGTH = "length";
+            public static final String FORMAT = "format";
+            public static final String SIZE = "size";
+            public static final String MD5 = "md5";
+        }
+    }
+
+    /*
+        Full text index over the recordings table's searchable text. It's an FTS4 "external content"
+        table, so the text itself is only stored once (in recordings), and each row's docid is the
+        recording's _id. The column names are the same as the recordings columns they index.
+    */
+    public static final class RecordingsSearchTable {
+        public static final String NAME = "recordings_search";
+        public static final String DOCID = "docid";
+
+        public static final String[] COLUMNS = {
+                RecordingsTable.COLUMNS.TITLE,
+                RecordingsTable.COLUMNS.LOCATION,
+                RecordingsTable.COLUMNS.SETLIST,
+                RecordingsTable.COLUMNS.SOURCE,
+                RecordingsTable.COLUMNS.DATE
+        };
+    }
+
+}
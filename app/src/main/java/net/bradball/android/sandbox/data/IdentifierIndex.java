@@ -0,0 +1,312 @@
+package net.bradball.android.sandbox.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import net.bradball.android.sandbox.provider.RecordingsContract;
+import net.bradball.android.sandbox.util.LogHelper;
+
+/**
+ * An in memory index of the shows and recordings that are already in the database,
+ * mapping a show's date, or a recording's archive.org identifier, to its row id.
+ *
+ * A sync loads the index once, and then keeps it up to date as each page is committed,
+ * so deciding if a show or recording is new or existing is a simple lookup, rather than
+ * a scan of the shows and recordings tables for every page.
+ *
+ * Show dates are stored as an int (yyyymmdd), and row ids as primitive longs, so the
+ * index stays small even with the whole catalog in it.
+ *
+ * This class is <em>not</em> thread safe.
+ */
+public class IdentifierIndex {
+    private static final String TAG = LogHelper.makeLogTag(IdentifierIndex.class);
+
+    public static final long NO_ID = -1;
+
+    private final DateIdMap mShows;
+    private final IdentifierIdMap mRecordings;
+
+    public IdentifierIndex() {
+        this(0, 0);
+    }
+
+    private IdentifierIndex(int expectedShows, int expectedRecordings) {
+        mShows = new DateIdMap(expectedShows);
+        mRecordings = new IdentifierIdMap(expectedRecordings);
+    }
+
+    /**
+     * Load an index of all of the shows and recordings currently in the database.
+     */
+    public static IdentifierIndex load(ContentResolver contentResolver) {
+        long start = System.currentTimeMillis();
+        Cursor showsCursor = null;
+        Cursor recordingsCursor = null;
+
+        try {
+            showsCursor = contentResolver.query(RecordingsContract.Shows.CONTENT_URI, ShowDatesQuery.PROJECTION, null, null, null);
+            recordingsCursor = contentResolver.query(RecordingsContract.Recordings.CONTENT_URI, RecordingIdentifiersQuery.PROJECTION, null, null, null);
+
+            IdentifierIndex index = new IdentifierIndex(
+                    (showsCursor == null) ? 0 : showsCursor.getCount(),
+                    (recordingsCursor == null) ? 0 : recordingsCursor.getCount());
+
+            if (showsCursor != null) {
+                while (showsCursor.moveToNext()) {
+                    int dateKey = parseDateKey(showsCursor.getString(ShowDatesQuery.DATE));
+                    if (dateKey > 0) {
+                        index.mShows.put(dateKey, showsCursor.getLong(ShowDatesQuery._ID));
+                    }
+                }
+            }
+
+            if (recordingsCursor != null) {
+                while (recordingsCursor.moveToNext()) {
+                    index.mRecordings.put(recordingsCursor.getString(RecordingIdentifiersQuery.IDENTIFIER), recordingsCursor.getLong(RecordingIdentifiersQuery._ID));
+                }
+            }
+
+            LogHelper.d(TAG, "Loaded index of ", index.getShowCount(), " shows and ", index.getRecordingCount(), " recordings in ", System.currentTimeMillis() - start, "ms");
+            return index;
+        } finally {
+            if (showsCursor != null) {
+                showsCursor.close();
+            }
+            if (recordingsCursor != null) {
+                recordingsCursor.close();
+            }
+        }
+    }
+
+    /**
+     * Look up a show by its date, as it's stored in the database (yyyy-MM-dd).
+     */
+    public long getShowId(String date) {
+        return mShows.get(parseDateKey(date));
+    }
+
+    public void putShow(String date, long id) {
+        int dateKey = parseDateKey(date);
+        if (dateKey > 0) {
+            mShows.put(dateKey, id);
+        }
+    }
+
+    public int getShowCount() {
+        return mShows.size();
+    }
+
+    public long getRecordingId(String identifier) {
+        return mRecordings.get(identifier);
+    }
+
+    public void putRecording(String identifier, long id) {
+        mRecordings.put(identifier, id);
+    }
+
+    public int getRecordingCount() {
+        return mRecordings.size();
+    }
+
+    /**
+     * Turn a date string from the database (yyyy-MM-dd) into a yyyymmdd int,
+     * without going through a date formatter.
+     *
+     * @return the date as an int, or 0 if the string isn't a valid date.
+     */
+    static int parseDateKey(String date) {
+        if (date == null || date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+            return 0;
+        }
+
+        int key = 0;
+        for (int i = 0; i < date.length(); i++) {
+            if (i == 4 || i == 7) {
+                continue;
+            }
+
+            int digit = date.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return 0;
+            }
+            key = (key * 10) + digit;
+        }
+
+        return key;
+    }
+
+    private static int tableSizeFor(int expected) {
+        //Keep the tables at most half full.
+        int size = 16;
+        while (size < expected * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * An open addressing hash map from a (non-zero) int date key to a long id.
+     */
+    private static class DateIdMap {
+        private int[] mKeys;
+        private long[] mValues;
+        private int mSize;
+
+        DateIdMap(int expected) {
+            int capacity = tableSizeFor(expected);
+            mKeys = new int[capacity];
+            mValues = new long[capacity];
+        }
+
+        long get(int key) {
+            int mask = mKeys.length - 1;
+            int i = mix(key) & mask;
+            while (mKeys[i] != 0) {
+                if (mKeys[i] == key) {
+                    return mValues[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return NO_ID;
+        }
+
+        void put(int key, long value) {
+            if ((mSize + 1) * 2 > mKeys.length) {
+                resize();
+            }
+
+            int mask = mKeys.length - 1;
+            int i = mix(key) & mask;
+            while (mKeys[i] != 0) {
+                if (mKeys[i] == key) {
+                    mValues[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+
+            mKeys[i] = key;
+            mValues[i] = value;
+            mSize++;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        private void resize() {
+            int[] oldKeys = mKeys;
+            long[] oldValues = mValues;
+
+            mKeys = new int[oldKeys.length * 2];
+            mValues = new long[oldKeys.length * 2];
+            mSize = 0;
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * An open addressing hash map from an archive.org identifier to a long id.
+     */
+    private static class IdentifierIdMap {
+        private String[] mKeys;
+        private long[] mValues;
+        private int mSize;
+
+        IdentifierIdMap(int expected) {
+            int capacity = tableSizeFor(expected);
+            mKeys = new String[capacity];
+            mValues = new long[capacity];
+        }
+
+        long get(String key) {
+            if (key == null) {
+                return NO_ID;
+            }
+
+            int mask = mKeys.length - 1;
+            int i = mix(key.hashCode()) & mask;
+            while (mKeys[i] != null) {
+                if (mKeys[i].equals(key)) {
+                    return mValues[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return NO_ID;
+        }
+
+        void put(String key, long value) {
+            if (key == null) {
+                return;
+            }
+
+            if ((mSize + 1) * 2 > mKeys.length) {
+                resize();
+            }
+
+            int mask = mKeys.length - 1;
+            int i = mix(key.hashCode()) & mask;
+            while (mKeys[i] != null) {
+                if (mKeys[i].equals(key)) {
+                    mValues[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+
+            mKeys[i] = key;
+            mValues[i] = value;
+            mSize++;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        private void resize() {
+            String[] oldKeys = mKeys;
+            long[] oldValues = mValues;
+
+            mKeys = new String[oldKeys.length * 2];
+            mValues = new long[oldKeys.length * 2];
+            mSize = 0;
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+    }
+
+    private interface ShowDatesQuery {
+        String[] PROJECTION = {
+                RecordingsContract.Shows._ID,
+                RecordingsContract.Shows.DATE
+        };
+
+        int _ID = 0;
+        int DATE = 1;
+    }
+
+    private interface RecordingIdentifiersQuery {
+        String[] PROJECTION = {
+                RecordingsContract.Recordings._ID,
+                RecordingsContract.Recordings.IDENTIFIER
+        };
+
+        int _ID = 0;
+        int IDENTIFIER = 1;
+    }
+}
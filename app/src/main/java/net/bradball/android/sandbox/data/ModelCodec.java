@@ -0,0 +1,727 @@
+package net.bradball.android.sandbox.data;
+
+import net.bradball.android.sandbox.model.Recording;
+import net.bradball.android.sandbox.model.Review;
+import net.bradball.android.sandbox.model.Show;
+import net.bradball.android.sandbox.model.Track;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A compact binary encoding of {@link Show}, {@link Recording}, {@link Track} and {@link Review},
+ * for anywhere they need to be stored outside of the database (like {@link net.bradball.android.sandbox.util.RecordingDetailsCache}).
+ *
+ * Layout: a magic number, the format version, a string table, then the objects.
+ *
+ * - Every distinct string is written once, in the string table, and fields refer to it by index.
+ *   A recording's tracks all share an identifier, an album, a format and a bitrate or two, so this saves a lot.
+ * - Numbers are varints (zig-zag encoded, so small negative numbers are small too).
+ * - Each field is written with a key (its field number and wire type), and fields with default values
+ *   (0, false, null) aren't written at all. A reader skips fields it doesn't know about, and leaves fields
+ *   that aren't there at their defaults, so fields can be added without changing the format version.
+ *   Don't re-use or re-type a field number once it's been released. The version only changes if the
+ *   layout itself does, and readers refuse versions newer than theirs.
+ *
+ * Nothing here uses Android classes, so it can be tested on the JVM.
+ */
+public final class ModelCodec {
+    public static final int MAGIC = 0x4242434d; //"BBCM"
+    public static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    //Wire types
+    private static final int VARINT = 0;
+    private static final int FIXED32 = 1;
+    private static final int STRING = 2;
+    private static final int OBJECT = 3;
+
+    /** Field number 0 ends an object. */
+    private static final int END = 0;
+
+    //Top level fields
+    private static final int ROOT_SHOW = 1;
+    private static final int ROOT_RECORDING = 2;
+
+    private static final class SHOW_FIELDS {
+        static final int ID = 1;
+        static final int DATE = 2;
+        static final int LOCATION = 3;
+        static final int TITLE = 4;
+        static final int SETLIST = 5;
+        static final int SOUNDBOARD = 6;
+        static final int DOWNLOADS = 7;
+        static final int RECORDING_COUNT = 8;
+        static final int RECORDING = 9;
+    }
+
+    private static final class RECORDING_FIELDS {
+        static final int ID = 1;
+        static final int SHOW_ID = 2;
+        static final int IDENTIFIER = 3;
+        static final int DATE = 4;
+        static final int LOCATION = 5;
+        static final int TITLE = 6;
+        static final int SETLIST = 7;
+        static final int RATING = 8;
+        static final int NUM_REVIEWS = 9;
+        static final int DOWNLOADS = 10;
+        static final int PUBLISHER = 11;
+        static final int SOUNDBOARD = 12;
+        static final int SOURCE = 13;
+        static final int AVAILABLE_OFFLINE = 14;
+        static final int TRACK = 15;
+        static final int REVIEW = 16;
+    }
+
+    private static final class TRACK_FIELDS {
+        static final int ID = 1;
+        static final int RECORDING_ID = 2;
+        static final int RECORDING_IDENTIFIER = 3;
+        static final int FILENAME = 4;
+        static final int TITLE = 5;
+        static final int NUMBER = 6;
+        static final int ALBUM = 7;
+        static final int BITRATE = 8;
+        static final int LENGTH = 9;
+        static final int FORMAT = 10;
+        static final int SIZE = 11;
+        static final int MD5 = 12;
+    }
+
+    private static final class REVIEW_FIELDS {
+        static final int ID = 1;
+        static final int RECORDING_ID = 2;
+        static final int REVIEW_ID = 3;
+        static final int TITLE = 4;
+        static final int DATE = 5;
+        static final int REVIEW = 6;
+        static final int REVIEWER = 7;
+        static final int STARS = 8;
+    }
+
+    private ModelCodec() {
+    }
+
+    public static byte[] encodeShows(List<Show> shows) {
+        Writer writer = new Writer();
+        for (Show show : shows) {
+            writer.beginObject(ROOT_SHOW);
+            writeShow(writer, show);
+            writer.endObject();
+        }
+        return writer.toByteArray();
+    }
+
+    public static List<Show> decodeShows(byte[] bytes) throws IOException {
+        Reader reader = new Reader(bytes);
+        List<Show> shows = new ArrayList<>();
+        int key;
+        while ((key = reader.nextRootKey()) != Reader.EOF) {
+            if (fieldNumber(key) == ROOT_SHOW && wireType(key) == OBJECT) {
+                shows.add(readShow(reader));
+            } else {
+                reader.skip(key);
+            }
+        }
+        return shows;
+    }
+
+    public static byte[] encodeRecordings(List<Recording> recordings) {
+        Writer writer = new Writer();
+        for (Recording recording : recordings) {
+            writer.beginObject(ROOT_RECORDING);
+            writeRecording(writer, recording);
+            writer.endObject();
+        }
+        return writer.toByteArray();
+    }
+
+    public static List<Recording> decodeRecordings(byte[] bytes) throws IOException {
+        Reader reader = new Reader(bytes);
+        List<Recording> recordings = new ArrayList<>();
+        int key;
+        while ((key = reader.nextRootKey()) != Reader.EOF) {
+            if (fieldNumber(key) == ROOT_RECORDING && wireType(key) == OBJECT) {
+                recordings.add(readRecording(reader));
+            } else {
+                reader.skip(key);
+            }
+        }
+        return recordings;
+    }
+
+    /** Encode a single recording, with its tracks and reviews. */
+    public static byte[] encode(Recording recording) {
+        List<Recording> recordings = new ArrayList<>(1);
+        recordings.add(recording);
+        return encodeRecordings(recordings);
+    }
+
+    /**
+     * Decode a single recording.
+     *
+     * @throws IOException if the bytes aren't a recording encoded by {@link #encode(Recording)}.
+     */
+    public static Recording decodeRecording(byte[] bytes) throws IOException {
+        List<Recording> recordings = decodeRecordings(bytes);
+        if (recordings.size() != 1) {
+            throw new IOException("Expected 1 recording, found " + recordings.size());
+        }
+        return recordings.get(0);
+    }
+
+    //region Models
+
+    private static void writeShow(Writer writer, Show show) {
+        writer.writeLong(SHOW_FIELDS.ID, show.getID());
+        writer.writeLocalDate(SHOW_FIELDS.DATE, show.getDate());
+        writer.writeString(SHOW_FIELDS.LOCATION, show.getLocation());
+        writer.writeString(SHOW_FIELDS.TITLE, show.getTitle());
+        writer.writeString(SHOW_FIELDS.SETLIST, show.getSetlist());
+        writer.writeBoolean(SHOW_FIELDS.SOUNDBOARD, show.isSoundboard());
+        writer.writeLong(SHOW_FIELDS.DOWNLOADS, show.getDownloads());
+        writer.writeLong(SHOW_FIELDS.RECORDING_COUNT, show.getRecordingsCount());
+        for (Recording recording : show.getRecordings()) {
+            writer.beginObject(SHOW_FIELDS.RECORDING);
+            writeRecording(writer, recording);
+            writer.endObject();
+        }
+    }
+
+    private static Show readShow(Reader reader) throws IOException {
+        Show show = new Show();
+        int recordingCount = 0;
+        int key;
+        while ((key = reader.nextKey()) != END) {
+            switch (fieldNumber(key)) {
+                case SHOW_FIELDS.ID:
+                    show.setID(reader.readLong(key));
+                    break;
+                case SHOW_FIELDS.DATE:
+                    show.setDate(reader.readLocalDate(key));
+                    break;
+                case SHOW_FIELDS.LOCATION:
+                    show.setLocation(reader.readString(key));
+                    break;
+                case SHOW_FIELDS.TITLE:
+                    show.setTitle(reader.readString(key));
+                    break;
+                case SHOW_FIELDS.SETLIST:
+                    show.setSetlist(reader.readString(key));
+                    break;
+                case SHOW_FIELDS.SOUNDBOARD:
+                    show.setSoundboard(reader.readBoolean(key));
+                    break;
+                case SHOW_FIELDS.DOWNLOADS:
+                    show.setDownloads((int) reader.readLong(key));
+                    break;
+                case SHOW_FIELDS.RECORDING_COUNT:
+                    recordingCount = (int) reader.readLong(key);
+                    break;
+                case SHOW_FIELDS.RECORDING:
+                    reader.checkObject(key);
+                    show.addRecording(readRecording(reader));
+                    break;
+                default:
+                    reader.skip(key);
+            }
+        }
+
+        //Only kept when the show's recordings aren't included (see Show.setRecordingsCount()).
+        show.setRecordingsCount(recordingCount);
+        return show;
+    }
+
+    private static void writeRecording(Writer writer, Recording recording) {
+        writer.writeLong(RECORDING_FIELDS.ID, recording.getID());
+        writer.writeLong(RECORDING_FIELDS.SHOW_ID, recording.getShowID());
+        writer.writeString(RECORDING_FIELDS.IDENTIFIER, recording.getIdentifier());
+        writer.writeLocalDate(RECORDING_FIELDS.DATE, recording.getDate());
+        writer.writeString(RECORDING_FIELDS.LOCATION, recording.getLocation());
+        writer.writeString(RECORDING_FIELDS.TITLE, recording.getTitle());
+        writer.writeString(RECORDING_FIELDS.SETLIST, recording.getSetlist());
+        writer.writeFloat(RECORDING_FIELDS.RATING, recording.getRating());
+        writer.writeLong(RECORDING_FIELDS.NUM_REVIEWS, recording.getNumReviews());
+        writer.writeLong(RECORDING_FIELDS.DOWNLOADS, recording.getDownloads());
+        writer.writeString(RECORDING_FIELDS.PUBLISHER, recording.getPublisher());
+        writer.writeBoolean(RECORDING_FIELDS.SOUNDBOARD, recording.isSoundboard());
+        writer.writeString(RECORDING_FIELDS.SOURCE, recording.getSource());
+        writer.writeBoolean(RECORDING_FIELDS.AVAILABLE_OFFLINE, recording.isAvailableOffline());
+
+        for (Track track : recording.getTracks()) {
+            writer.beginObject(RECORDING_FIELDS.TRACK);
+            writeTrack(writer, track);
+            writer.endObject();
+        }
+
+        for (Review review : recording.getReviews()) {
+            writer.beginObject(RECORDING_FIELDS.REVIEW);
+            writeReview(writer, review);
+            writer.endObject();
+        }
+    }
+
+    private static Recording readRecording(Reader reader) throws IOException {
+        Recording recording = new Recording();
+        int key;
+        while ((key = reader.nextKey()) != END) {
+            switch (fieldNumber(key)) {
+                case RECORDING_FIELDS.ID:
+                    recording.setID(reader.readLong(key));
+                    break;
+                case RECORDING_FIELDS.SHOW_ID:
+                    recording.setShowID(reader.readLong(key));
+                    break;
+                case RECORDING_FIELDS.IDENTIFIER:
+                    recording.setIdentifier(reader.readString(key));
+                    break;
+                case RECORDING_FIELDS.DATE:
+                    recording.setDate(reader.readLocalDate(key));
+                    break;
+                case RECORDING_FIELDS.LOCATION:
+                    recording.setLocation(reader.readString(key));
+                    break;
+                case RECORDING_FIELDS.TITLE:
+                    recording.setTitle(reader.readString(key));
+                    break;
+                case RECORDING_FIELDS.SETLIST:
+                    recording.setSetlist(reader.readString(key));
+                    break;
+                case RECORDING_FIELDS.RATING:
+                    recording.setRating(reader.readFloat(key));
+                    break;
+                case RECORDING_FIELDS.NUM_REVIEWS:
+                    recording.setNumReviews((int) reader.readLong(key));
+                    break;
+                case RECORDING_FIELDS.DOWNLOADS:
+                    recording.setDownloads((int) reader.readLong(key));
+                    break;
+                case RECORDING_FIELDS.PUBLISHER:
+                    recording.setPublisher(reader.readString(key));
+                    break;
+                case RECORDING_FIELDS.SOUNDBOARD:
+                    recording.setSoundboard(reader.readBoolean(key));
+                    break;
+                case RECORDING_FIELDS.SOURCE:
+                    recording.setSource(reader.readString(key));
+                    break;
+                case RECORDING_FIELDS.AVAILABLE_OFFLINE:
+                    recording.setAvailableOffline(reader.readBoolean(key));
+                    break;
+                case RECORDING_FIELDS.TRACK:
+                    reader.checkObject(key);
+                    recording.addTrack(readTrack(reader));
+                    break;
+                case RECORDING_FIELDS.REVIEW:
+                    reader.checkObject(key);
+                    recording.addReview(readReview(reader));
+                    break;
+                default:
+                    reader.skip(key);
+            }
+        }
+        return recording;
+    }
+
+    private static void writeTrack(Writer writer, Track track) {
+        writer.writeLong(TRACK_FIELDS.ID, track.getID());
+        writer.writeLong(TRACK_FIELDS.RECORDING_ID, track.getRecordingID());
+        writer.writeString(TRACK_FIELDS.RECORDING_IDENTIFIER, track.getRecordingIdentifier());
+        writer.writeString(TRACK_FIELDS.FILENAME, track.getFilename());
+        writer.writeString(TRACK_FIELDS.TITLE, track.getTitle());
+        writer.writeLong(TRACK_FIELDS.NUMBER, track.getNumber());
+        writer.writeString(TRACK_FIELDS.ALBUM, track.getAlbum());
+        writer.writeString(TRACK_FIELDS.BITRATE, track.getBitRate());
+        writer.writeString(TRACK_FIELDS.LENGTH, track.getLength());
+        writer.writeString(TRACK_FIELDS.FORMAT, track.getFormat());
+        writer.writeLong(TRACK_FIELDS.SIZE, track.getSize());
+        writer.writeString(TRACK_FIELDS.MD5, track.getMd5());
+    }
+
+    private static Track readTrack(Reader reader) throws IOException {
+        Track track = new Track();
+        int key;
+        while ((key = reader.nextKey()) != END) {
+            switch (fieldNumber(key)) {
+                case TRACK_FIELDS.ID:
+                    track.setID(reader.readLong(key));
+                    break;
+                case TRACK_FIELDS.RECORDING_ID:
+                    track.setRecordingID(reader.readLong(key));
+                    break;
+                case TRACK_FIELDS.RECORDING_IDENTIFIER:
+                    track.setRecordingIdentifier(reader.readString(key));
+                    break;
+                case TRACK_FIELDS.FILENAME:
+                    track.setFilename(reader.readString(key));
+                    break;
+                case TRACK_FIELDS.TITLE:
+                    track.setTitle(reader.readString(key));
+                    break;
+                case TRACK_FIELDS.NUMBER:
+                    track.setNumber((int) reader.readLong(key));
+                    break;
+                case TRACK_FIELDS.ALBUM:
+                    track.setAlbum(reader.readString(key));
+                    break;
+                case TRACK_FIELDS.BITRATE:
+                    track.setBitRate(reader.readString(key));
+                    break;
+                case TRACK_FIELDS.LENGTH:
+                    track.setLength(reader.readString(key));
+                    break;
+                case TRACK_FIELDS.FORMAT:
+                    track.setFormat(reader.readString(key));
+                    break;
+                case TRACK_FIELDS.SIZE:
+                    track.setSize(reader.readLong(key));
+                    break;
+                case TRACK_FIELDS.MD5:
+                    track.setMd5(reader.readString(key));
+                    break;
+                default:
+                    reader.skip(key);
+            }
+        }
+        return track;
+    }
+
+    private static void writeReview(Writer writer, Review review) {
+        writer.writeLong(REVIEW_FIELDS.ID, review.getID());
+        writer.writeLong(REVIEW_FIELDS.RECORDING_ID, review.getRecordingID());
+        writer.writeLong(REVIEW_FIELDS.REVIEW_ID, review.getReviewID());
+        writer.writeString(REVIEW_FIELDS.TITLE, review.getTitle());
+        writer.writeLocalDateTime(REVIEW_FIELDS.DATE, review.getDate());
+        writer.writeString(REVIEW_FIELDS.REVIEW, review.getReview());
+        writer.writeString(REVIEW_FIELDS.REVIEWER, review.getReviewer());
+        writer.writeLong(REVIEW_FIELDS.STARS, review.getStars());
+    }
+
+    private static Review readReview(Reader reader) throws IOException {
+        Review review = new Review(0);
+        int key;
+        while ((key = reader.nextKey()) != END) {
+            switch (fieldNumber(key)) {
+                case REVIEW_FIELDS.ID:
+                    review.setID(reader.readLong(key));
+                    break;
+                case REVIEW_FIELDS.RECORDING_ID:
+                    review.setRecordingID(reader.readLong(key));
+                    break;
+                case REVIEW_FIELDS.REVIEW_ID:
+                    review.setReviewID(reader.readLong(key));
+                    break;
+                case REVIEW_FIELDS.TITLE:
+                    review.setTitle(reader.readString(key));
+                    break;
+                case REVIEW_FIELDS.DATE:
+                    review.setDate(reader.readLocalDateTime(key));
+                    break;
+                case REVIEW_FIELDS.REVIEW:
+                    review.setReview(reader.readString(key));
+                    break;
+                case REVIEW_FIELDS.REVIEWER:
+                    review.setReviewer(reader.readString(key));
+                    break;
+                case REVIEW_FIELDS.STARS:
+                    review.setStars((int) reader.readLong(key));
+                    break;
+                default:
+                    reader.skip(key);
+            }
+        }
+        return review;
+    }
+
+    //endregion
+
+    private static int makeKey(int fieldNumber, int wireType) {
+        return (fieldNumber << 2) | wireType;
+    }
+
+    private static int fieldNumber(int key) {
+        return key >>> 2;
+    }
+
+    private static int wireType(int key) {
+        return key & 0x3;
+    }
+
+    /**
+     * Writes the objects into a buffer, collecting the string table as it goes.
+     * The header and string table are put in front of them by {@link #toByteArray()}.
+     */
+    static final class Writer {
+        private final Buffer mBody = new Buffer(1024);
+        private final HashMap<String, Integer> mStringIndexes = new HashMap<>();
+        private final List<String> mStrings = new ArrayList<>();
+
+        void beginObject(int fieldNumber) {
+            mBody.writeVarint(makeKey(fieldNumber, OBJECT));
+        }
+
+        void endObject() {
+            mBody.writeVarint(END);
+        }
+
+        void writeLong(int fieldNumber, long value) {
+            if (value != 0) {
+                mBody.writeVarint(makeKey(fieldNumber, VARINT));
+                mBody.writeVarint(zigZag(value));
+            }
+        }
+
+        void writeBoolean(int fieldNumber, boolean value) {
+            writeLong(fieldNumber, value ? 1 : 0);
+        }
+
+        void writeFloat(int fieldNumber, float value) {
+            if (value != 0) {
+                mBody.writeVarint(makeKey(fieldNumber, FIXED32));
+                mBody.writeFixed32(Float.floatToIntBits(value));
+            }
+        }
+
+        void writeString(int fieldNumber, String value) {
+            if (value == null) {
+                return;
+            }
+
+            Integer index = mStringIndexes.get(value);
+            if (index == null) {
+                index = mStrings.size();
+                mStringIndexes.put(value, index);
+                mStrings.add(value);
+            }
+
+            mBody.writeVarint(makeKey(fieldNumber, STRING));
+            mBody.writeVarint(index);
+        }
+
+        /** Dates are days since 1970-01-01. */
+        void writeLocalDate(int fieldNumber, LocalDate date) {
+            if (date != null) {
+                mBody.writeVarint(makeKey(fieldNumber, VARINT));
+                mBody.writeVarint(zigZag(date.toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis() / DAY_MILLIS));
+            }
+        }
+
+        /** Date times are milliseconds since 1970-01-01T00:00. */
+        void writeLocalDateTime(int fieldNumber, LocalDateTime dateTime) {
+            if (dateTime != null) {
+                mBody.writeVarint(makeKey(fieldNumber, VARINT));
+                mBody.writeVarint(zigZag(dateTime.toDateTime(DateTimeZone.UTC).getMillis()));
+            }
+        }
+
+        byte[] toByteArray() {
+            Buffer out = new Buffer(mBody.size() + mStrings.size() * 16 + 16);
+            out.writeFixed32(MAGIC);
+            out.writeVarint(VERSION);
+
+            out.writeVarint(mStrings.size());
+            for (String string : mStrings) {
+                byte[] bytes = string.getBytes(UTF_8);
+                out.writeVarint(bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+
+            out.write(mBody.buffer(), 0, mBody.size());
+            return out.toByteArray();
+        }
+    }
+
+    static final class Reader {
+        static final int EOF = -1;
+
+        private final byte[] mBytes;
+        private int mPosition;
+        private final String[] mStrings;
+
+        Reader(byte[] bytes) throws IOException {
+            mBytes = bytes;
+
+            if (readFixed32() != MAGIC) {
+                throw new IOException("Not encoded by ModelCodec");
+            }
+
+            int version = (int) readVarint();
+            if (version > VERSION) {
+                throw new IOException("Unsupported ModelCodec version " + version);
+            }
+
+            int count = readCount();
+            mStrings = new String[count];
+            for (int i = 0; i < count; i++) {
+                int length = readCount();
+                if (length > mBytes.length - mPosition) {
+                    throw new IOException("Truncated string table");
+                }
+                mStrings[i] = new String(mBytes, mPosition, length, UTF_8);
+                mPosition += length;
+            }
+        }
+
+        /** The key of the next top level object, or {@link #EOF}. */
+        int nextRootKey() throws IOException {
+            return (mPosition < mBytes.length) ? nextKey() : EOF;
+        }
+
+        /** The key of the next field in the current object, or {@link #END}. */
+        int nextKey() throws IOException {
+            long key = readVarint();
+            if (key < 0 || key > Integer.MAX_VALUE) {
+                throw new IOException("Bad field key " + key);
+            }
+            return (int) key;
+        }
+
+        long readLong(int key) throws IOException {
+            checkType(key, VARINT);
+            return unZigZag(readVarint());
+        }
+
+        boolean readBoolean(int key) throws IOException {
+            return readLong(key) != 0;
+        }
+
+        float readFloat(int key) throws IOException {
+            checkType(key, FIXED32);
+            return Float.intBitsToFloat(readFixed32());
+        }
+
+        String readString(int key) throws IOException {
+            checkType(key, STRING);
+            int index = readCount();
+            if (index >= mStrings.length) {
+                throw new IOException("Bad string index " + index);
+            }
+            return mStrings[index];
+        }
+
+        LocalDate readLocalDate(int key) throws IOException {
+            return new LocalDate(readLong(key) * DAY_MILLIS, DateTimeZone.UTC);
+        }
+
+        LocalDateTime readLocalDateTime(int key) throws IOException {
+            return new LocalDateTime(readLong(key), DateTimeZone.UTC);
+        }
+
+        void checkObject(int key) throws IOException {
+            checkType(key, OBJECT);
+        }
+
+        /** Skip a field that this version doesn't know about (including all of an object's fields). */
+        void skip(int key) throws IOException {
+            switch (wireType(key)) {
+                case VARINT:
+                case STRING:
+                    readVarint();
+                    break;
+                case FIXED32:
+                    readFixed32();
+                    break;
+                case OBJECT:
+                    int fieldKey;
+                    while ((fieldKey = nextKey()) != END) {
+                        skip(fieldKey);
+                    }
+                    break;
+            }
+        }
+
+        private void checkType(int key, int wireType) throws IOException {
+            if (wireType(key) != wireType) {
+                throw new IOException("Field " + fieldNumber(key) + " has wire type " + wireType(key) + ", expected " + wireType);
+            }
+        }
+
+        private int readCount() throws IOException {
+            long value = readVarint();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException("Bad count " + value);
+            }
+            return (int) value;
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (mPosition >= mBytes.length) {
+                    throw new IOException("Truncated varint");
+                }
+                byte b = mBytes[mPosition++];
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        private int readFixed32() throws IOException {
+            if (mBytes.length - mPosition < 4) {
+                throw new IOException("Truncated data");
+            }
+            int value = (mBytes[mPosition] & 0xff)
+                    | (mBytes[mPosition + 1] & 0xff) << 8
+                    | (mBytes[mPosition + 2] & 0xff) << 16
+                    | (mBytes[mPosition + 3] & 0xff) << 24;
+            mPosition += 4;
+            return value;
+        }
+    }
+
+    /** A ByteArrayOutputStream with varint writes, that doesn't synchronize every write. */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                writeByte((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        void writeFixed32(int value) {
+            writeByte(value);
+            writeByte(value >>> 8);
+            writeByte(value >>> 16);
+            writeByte(value >>> 24);
+        }
+
+        private void writeByte(int b) {
+            if (count == buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(16, buf.length * 2));
+            }
+            buf[count++] = (byte) b;
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
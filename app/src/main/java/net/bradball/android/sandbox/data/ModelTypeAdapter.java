@@ -0,0 +1,133 @@
+package net.bradball.android.sandbox.data;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Base class for the TypeAdapters that read archive.org's json into our models.
+ *
+ * Each adapter reads its fields straight off of a {@link JsonReader}, without building a tree of
+ * JsonElements or going through Gson's reflection for each field. Archive.org isn't consistent about
+ * types (numbers often come back as strings, single values sometimes come back as arrays), so
+ * the helpers here read any scalar as a string and parse it, falling back to a default.
+ *
+ * Writing goes the other way, using archive.org's field names, so anything written can be read back in.
+ * Use {@link JSONParser#getGson()} to get a Gson that has them all registered.
+ */
+public abstract class ModelTypeAdapter<T> extends TypeAdapter<T> {
+
+    @Override
+    public void write(JsonWriter out, T value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        writeFields(out, value);
+        out.endObject();
+    }
+
+    /**
+     * Write the model's fields, inside the object that {@link #write(JsonWriter, Object)} has already begun.
+     */
+    protected abstract void writeFields(JsonWriter out, T value) throws IOException;
+
+    /**
+     * Read a scalar value as a string. Anything that isn't a scalar (an array or object)
+     * is skipped, and the default value is returned instead.
+     */
+    protected static String readString(JsonReader reader, String defaultValue) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return Boolean.toString(reader.nextBoolean());
+            case NULL:
+                reader.nextNull();
+                return defaultValue;
+            default:
+                reader.skipValue();
+                return defaultValue;
+        }
+    }
+
+    /**
+     * Some fields (publisher, collection) come back as a single string when there is only
+     * one value, and as an array when there are several. Handle both.
+     */
+    protected static void readStringArray(JsonReader reader, ArrayList<String> values) throws IOException {
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String value = readString(reader, null);
+                if (value != null) {
+                    values.add(value);
+                }
+            }
+            reader.endArray();
+        } else {
+            String value = readString(reader, null);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+    }
+
+    protected static int readInt(JsonReader reader, int defaultValue) throws IOException {
+        String value = readString(reader, null);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    protected static long readLong(JsonReader reader, long defaultValue) throws IOException {
+        String value = readString(reader, null);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    protected static float readFloat(JsonReader reader, float defaultValue) throws IOException {
+        String value = readString(reader, null);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * If the next value isn't an object, skip it and return false.
+     */
+    protected static boolean beginObject(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return false;
+        }
+        reader.beginObject();
+        return true;
+    }
+}
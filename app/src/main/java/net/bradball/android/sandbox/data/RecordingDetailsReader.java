@@ -0,0 +1,128 @@
+package net.bradball.android.sandbox.data;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import net.bradball.android.sandbox.data.jsonModel.RecordingDetailsJson;
+import net.bradball.android.sandbox.model.Review;
+import net.bradball.android.sandbox.model.Track;
+import net.bradball.android.sandbox.network.ArchiveAPI;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Reads a recording's details directly off of the http response stream, keeping only its mp3 tracks and its reviews.
+ *
+ * The "files" in the details are an object keyed by each file's path, and most of them aren't mp3s
+ * (flac, shn, xml, txt, md5 and so on, hundreds of them for some recordings). Each key is checked as it's read,
+ * and anything that isn't an mp3 is skipped at the token level, without ever being read into an object.
+ * Everything else in the details (metadata, server info, etc) is skipped too.
+ *
+ * Tracks are returned sorted by track number. Tracks with the same number stay in the order they were listed.
+ */
+public class RecordingDetailsReader implements ArchiveAPI.ResponseReader<RecordingDetailsJson> {
+
+    private static final String FIELD_FILES = "files";
+    private static final String MP3_EXTENSION = ".mp3";
+
+    private static final TrackTypeAdapter TRACK_ADAPTER = new TrackTypeAdapter();
+    private static final ReviewTypeAdapter REVIEW_ADAPTER = new ReviewTypeAdapter();
+
+    private final long mRecordingID;
+    private final String mRecordingIdentifier;
+
+    public RecordingDetailsReader(long recordingID, String recordingIdentifier) {
+        mRecordingID = recordingID;
+        mRecordingIdentifier = recordingIdentifier;
+    }
+
+    @Override
+    public RecordingDetailsJson read(InputStream in) throws IOException {
+        RecordingDetailsJson details = new RecordingDetailsJson();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (FIELD_FILES.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    readFiles(reader, details);
+                } else if (ArchiveAPI.RECORDING_DETAIL_FIELDS.REVIEWS.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    readReviews(reader, details);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+
+        if (details.tracks != null) {
+            Collections.sort(details.tracks);
+        }
+        return details;
+    }
+
+    private void readFiles(JsonReader reader, RecordingDetailsJson details) throws IOException {
+        details.tracks = new ArrayList<Track>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String filename = reader.nextName();
+
+            if (!isMp3(filename)) {
+                reader.skipValue();
+                continue;
+            }
+
+            Track track = TRACK_ADAPTER.read(reader);
+            if (track != null) {
+                track.setFilename(filename);
+                track.setRecordingID(mRecordingID);
+                track.setRecordingIdentifier(mRecordingIdentifier);
+                details.tracks.add(track);
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * The reviews are a list inside of the details' "reviews" object, alongside some info about them we don't use.
+     */
+    private void readReviews(JsonReader reader, RecordingDetailsJson details) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (!ArchiveAPI.RECORDING_DETAIL_FIELDS.REVIEWS.equals(name) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Review review = REVIEW_ADAPTER.read(reader);
+                if (review != null) {
+                    review.setRecordingID(mRecordingID);
+                    details.reviews.add(review);
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Checks the extension in place, without making a lower case copy of the file name.
+     */
+    static boolean isMp3(String filename) {
+        int start = filename.length() - MP3_EXTENSION.length();
+        return start > 0 && filename.regionMatches(true, start, MP3_EXTENSION, 0, MP3_EXTENSION.length());
+    }
+}
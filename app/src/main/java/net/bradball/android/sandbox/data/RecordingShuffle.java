@@ -0,0 +1,103 @@
+package net.bradball.android.sandbox.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.BaseColumns;
+
+import net.bradball.android.sandbox.provider.RecordingsContract;
+import net.bradball.android.sandbox.util.LogHelper;
+
+import java.util.Random;
+
+/**
+ * A shuffled sequence of recording ids that never repeats, for things like a "random show radio" queue.
+ *
+ * The ids of every matching recording are loaded once into a plain long[], and shuffled a step at a time
+ * as they're taken (a Fisher-Yates shuffle, run lazily), so each {@link #next()} is constant time
+ * and nothing is shuffled that's never played. The same ids and seed always give the same sequence,
+ * so a queue can be re-created by loading it again with the same seed and skipping ahead.
+ *
+ * The ids are a snapshot. Load a new shuffle to pick up recordings added by a sync.
+ *
+ * This class is <em>not</em> thread safe.
+ */
+public class RecordingShuffle {
+    private static final String TAG = LogHelper.makeLogTag(RecordingShuffle.class);
+
+    private final long[] mIds;
+    private final Random mRandom;
+    private int mRemaining;
+
+    public RecordingShuffle(long[] ids, long seed) {
+        mIds = ids;
+        mRandom = new Random(seed);
+        mRemaining = ids.length;
+    }
+
+    /**
+     * Load a shuffle of the recordings currently in the database.
+     *
+     * @param soundboardOnly - only include soundboard recordings.
+     * @param minRating - only include recordings with at least this rating (0 for any rating).
+     * @param seed - the seed for the shuffle.
+     */
+    public static RecordingShuffle load(ContentResolver contentResolver, boolean soundboardOnly, float minRating, long seed) {
+        long start = System.currentTimeMillis();
+        long[] ids = new long[0];
+
+        //Ordered by _id, so the same seed gives the same sequence.
+        Cursor cursor = contentResolver.query(
+                RecordingsContract.Recordings.withFilters(RecordingsContract.Recordings.CONTENT_URI, soundboardOnly, minRating),
+                new String[] { BaseColumns._ID }, null, null, BaseColumns._ID);
+
+        if (cursor != null) {
+            try {
+                ids = new long[cursor.getCount()];
+                int i = 0;
+                while (cursor.moveToNext() && i < ids.length) {
+                    ids[i++] = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        LogHelper.d(TAG, "Loaded shuffle of ", ids.length, " recordings in ", System.currentTimeMillis() - start, "ms");
+        return new RecordingShuffle(ids, seed);
+    }
+
+    public boolean hasNext() {
+        return mRemaining > 0;
+    }
+
+    /**
+     * Returns the next recording id in the sequence, or {@link IdentifierIndex#NO_ID} once every
+     * recording has been returned.
+     */
+    public long next() {
+        if (mRemaining == 0) {
+            return IdentifierIndex.NO_ID;
+        }
+
+        //Swap a random id from the ones that haven't been returned yet
+        //into the last unreturned slot, and return it.
+        int pick = mRandom.nextInt(mRemaining);
+        mRemaining--;
+
+        long id = mIds[pick];
+        mIds[pick] = mIds[mRemaining];
+        mIds[mRemaining] = id;
+
+        return id;
+    }
+
+    /** How many recordings haven't been returned yet. */
+    public int getRemaining() {
+        return mRemaining;
+    }
+
+    /** How many recordings are in the whole sequence. */
+    public int size() {
+        return mIds.length;
+    }
+}
@@ -0,0 +1,145 @@
+package net.bradball.android.sandbox.data;
+
+import android.text.TextUtils;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import net.bradball.android.sandbox.model.Recording;
+import net.bradball.android.sandbox.network.ArchiveAPI;
+import net.bradball.android.sandbox.provider.RecordingsContract;
+import net.bradball.android.sandbox.util.LogHelper;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Reads one of the items in a page of scrape api results into a {@link Recording}.
+ * Returns null for anything that isn't an object.
+ */
+public class RecordingTypeAdapter extends ModelTypeAdapter<Recording> {
+    private static final String TAG = LogHelper.makeLogTag(RecordingTypeAdapter.class);
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormat.forPattern(ArchiveAPI.DATE_FORMAT);
+
+    @Override
+    public Recording read(JsonReader reader) throws IOException {
+        if (!beginObject(reader)) {
+            return null;
+        }
+
+        String identifier = "";
+        ArrayList<String> publishers = new ArrayList<>();
+        ArrayList<String> collections = new ArrayList<>();
+        LocalDate date = null;
+        String location = "";
+        String title = "";
+        String setlist = "";
+        float rating = 0.0f;
+        int reviews = 0;
+        int downloads = 0;
+        String source = "";
+
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            switch (name) {
+                case ArchiveAPI.RECORDING_FIELDS.IDENTIFIER:
+                    identifier = readString(reader, identifier);
+                    break;
+                case ArchiveAPI.RECORDING_FIELDS.PUBLISHER:
+                    readStringArray(reader, publishers);
+                    break;
+                case ArchiveAPI.RECORDING_FIELDS.COLLECTION:
+                    readStringArray(reader, collections);
+                    break;
+                case ArchiveAPI.RECORDING_FIELDS.DATE:
+                    date = parseDate(readString(reader, null));
+                    break;
+                case ArchiveAPI.RECORDING_FIELDS.COVERAGE:
+                    location = readString(reader, location);
+                    break;
+                case ArchiveAPI.RECORDING_FIELDS.TITLE:
+                    title = readString(reader, title);
+                    break;
+                case ArchiveAPI.RECORDING_FIELDS.DESCRIPTION:
+                    setlist = readString(reader, setlist);
+                    break;
+                case ArchiveAPI.RECORDING_FIELDS.RATING:
+                    rating = readFloat(reader, rating);
+                    break;
+                case ArchiveAPI.RECORDING_FIELDS.REVIEWS:
+                    reviews = readInt(reader, reviews);
+                    break;
+                case ArchiveAPI.RECORDING_FIELDS.DOWNLOADS:
+                    downloads = readInt(reader, downloads);
+                    break;
+                case ArchiveAPI.RECORDING_FIELDS.SOURCE:
+                    source = readString(reader, source);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        title = title.replace("Grateful Dead Live at", "").replace("on " + RecordingsContract.formatRecordingDate(date, RecordingsContract.DateFormat.FULL_DATE), "").trim();
+
+        Recording recording = new Recording(identifier);
+        recording.setDate(date);
+        recording.setLocation(location);
+        recording.setTitle(title);
+        recording.setSetlist(setlist);
+        recording.setRating(rating);
+        recording.setNumReviews(reviews);
+        recording.setDownloads(downloads);
+        recording.setPublisher(TextUtils.join(", ", publishers));
+        recording.setSoundboard(collections.contains(ArchiveAPI.SOUNDBOARD_COLLECTION));
+        recording.setSource(source);
+
+        return recording;
+    }
+
+    /**
+     * The title is written as it was stored, without the "Grateful Dead Live at" that read() takes off.
+     */
+    @Override
+    protected void writeFields(JsonWriter out, Recording recording) throws IOException {
+        out.name(ArchiveAPI.RECORDING_FIELDS.IDENTIFIER).value(recording.getIdentifier());
+        out.name(ArchiveAPI.RECORDING_FIELDS.PUBLISHER).value(recording.getPublisher());
+        out.name(ArchiveAPI.RECORDING_FIELDS.COLLECTION).beginArray();
+        if (recording.isSoundboard()) {
+            out.value(ArchiveAPI.SOUNDBOARD_COLLECTION);
+        }
+        out.endArray();
+        if (recording.getDate() != null) {
+            //The date is written as midnight UTC, the way archive.org has them.
+            out.name(ArchiveAPI.RECORDING_FIELDS.DATE).value(DATE_FORMATTER.print(recording.getDate().toDateTimeAtStartOfDay(DateTimeZone.UTC)));
+        }
+        out.name(ArchiveAPI.RECORDING_FIELDS.COVERAGE).value(recording.getLocation());
+        out.name(ArchiveAPI.RECORDING_FIELDS.TITLE).value(recording.getTitle());
+        out.name(ArchiveAPI.RECORDING_FIELDS.DESCRIPTION).value(recording.getSetlist());
+        out.name(ArchiveAPI.RECORDING_FIELDS.RATING).value(Float.valueOf(recording.getRating()));
+        out.name(ArchiveAPI.RECORDING_FIELDS.REVIEWS).value(recording.getNumReviews());
+        out.name(ArchiveAPI.RECORDING_FIELDS.DOWNLOADS).value(recording.getDownloads());
+        out.name(ArchiveAPI.RECORDING_FIELDS.SOURCE).value(recording.getSource());
+    }
+
+    private static LocalDate parseDate(String dateStr) {
+        if (dateStr == null) {
+            return null;
+        }
+
+        try {
+            return DATE_FORMATTER.parseLocalDate(dateStr);
+        } catch (IllegalArgumentException ex) {
+            LogHelper.e(TAG, "Could not parse string (" + dateStr + ") into valid LocalDate object");
+            return null;
+        }
+    }
+}
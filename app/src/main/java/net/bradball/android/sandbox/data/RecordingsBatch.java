@@ -0,0 +1,199 @@
+package net.bradball.android.sandbox.data;
+
+import android.os.Bundle;
+
+import java.util.Arrays;
+
+/**
+ * A page of shows and recordings, ready to be written to the database in bulk.
+ *
+ * Rather than a ContentValues map per row, each column is held in its own array,
+ * so a page of a couple thousand recordings is a couple dozen arrays of primitives
+ * and strings. The batch can be passed to the provider as a Bundle (see
+ * {@link net.bradball.android.sandbox.provider.RecordingsContract#METHOD_WRITE_RECORDINGS}),
+ * which writes it with pre-compiled statements.
+ *
+ * Recordings are grouped by show, in the same order as the shows, and
+ * {@link #recordingShows} holds the index of each recording's show in the show arrays.
+ * A show's downloads and soundboard flag aren't part of the batch, the database works
+ * those out from the show's recordings.
+ *
+ * Show and recording ids are {@link IdentifierIndex#NO_ID} for rows that need to be inserted.
+ * Once the batch has been written, the provider returns the ids of every row.
+ */
+public class RecordingsBatch {
+    private static final String EXTRA_SHOW_IDS = "show_ids";
+    private static final String EXTRA_SHOW_YEARS = "show_years";
+    private static final String EXTRA_SHOW_DATES = "show_dates";
+    private static final String EXTRA_SHOW_LOCATIONS = "show_locations";
+    private static final String EXTRA_SHOW_TITLES = "show_titles";
+    private static final String EXTRA_SHOW_SETLISTS = "show_setlists";
+
+    private static final String EXTRA_RECORDING_SHOWS = "recording_shows";
+    private static final String EXTRA_RECORDING_IDS = "recording_ids";
+    private static final String EXTRA_RECORDING_IDENTIFIERS = "recording_identifiers";
+    private static final String EXTRA_RECORDING_DATES = "recording_dates";
+    private static final String EXTRA_RECORDING_LOCATIONS = "recording_locations";
+    private static final String EXTRA_RECORDING_TITLES = "recording_titles";
+    private static final String EXTRA_RECORDING_SETLISTS = "recording_setlists";
+    private static final String EXTRA_RECORDING_PUBLISHERS = "recording_publishers";
+    private static final String EXTRA_RECORDING_SOURCES = "recording_sources";
+    private static final String EXTRA_RECORDING_SOUNDBOARDS = "recording_soundboards";
+    private static final String EXTRA_RECORDING_RATINGS = "recording_ratings";
+    private static final String EXTRA_RECORDING_NUM_REVIEWS = "recording_num_reviews";
+    private static final String EXTRA_RECORDING_DOWNLOADS = "recording_downloads";
+
+    public final int showCount;
+    public final long[] showIds;
+    public final String[] showYears;
+    public final String[] showDates;
+    public final String[] showLocations;
+    public final String[] showTitles;
+    public final String[] showSetlists;
+
+    public final int recordingCount;
+    public final int[] recordingShows;
+    public final long[] recordingIds;
+    public final String[] recordingIdentifiers;
+    public final String[] recordingDates;
+    public final String[] recordingLocations;
+    public final String[] recordingTitles;
+    public final String[] recordingSetlists;
+    public final String[] recordingPublishers;
+    public final String[] recordingSources;
+    public final boolean[] recordingSoundboards;
+    public final float[] recordingRatings;
+    public final int[] recordingNumReviews;
+    public final int[] recordingDownloads;
+
+    public RecordingsBatch(int showCount, int recordingCount) {
+        this.showCount = showCount;
+        showIds = new long[showCount];
+        showYears = new String[showCount];
+        showDates = new String[showCount];
+        showLocations = new String[showCount];
+        showTitles = new String[showCount];
+        showSetlists = new String[showCount];
+
+        this.recordingCount = recordingCount;
+        recordingShows = new int[recordingCount];
+        recordingIds = new long[recordingCount];
+        recordingIdentifiers = new String[recordingCount];
+        recordingDates = new String[recordingCount];
+        recordingLocations = new String[recordingCount];
+        recordingTitles = new String[recordingCount];
+        recordingSetlists = new String[recordingCount];
+        recordingPublishers = new String[recordingCount];
+        recordingSources = new String[recordingCount];
+        recordingSoundboards = new boolean[recordingCount];
+        recordingRatings = new float[recordingCount];
+        recordingNumReviews = new int[recordingCount];
+        recordingDownloads = new int[recordingCount];
+
+        Arrays.fill(showIds, IdentifierIndex.NO_ID);
+        Arrays.fill(recordingIds, IdentifierIndex.NO_ID);
+    }
+
+    private RecordingsBatch(Bundle bundle) {
+        showIds = bundle.getLongArray(EXTRA_SHOW_IDS);
+        showYears = bundle.getStringArray(EXTRA_SHOW_YEARS);
+        showDates = bundle.getStringArray(EXTRA_SHOW_DATES);
+        showLocations = bundle.getStringArray(EXTRA_SHOW_LOCATIONS);
+        showTitles = bundle.getStringArray(EXTRA_SHOW_TITLES);
+        showSetlists = bundle.getStringArray(EXTRA_SHOW_SETLISTS);
+        showCount = showIds.length;
+
+        recordingShows = bundle.getIntArray(EXTRA_RECORDING_SHOWS);
+        recordingIds = bundle.getLongArray(EXTRA_RECORDING_IDS);
+        recordingIdentifiers = bundle.getStringArray(EXTRA_RECORDING_IDENTIFIERS);
+        recordingDates = bundle.getStringArray(EXTRA_RECORDING_DATES);
+        recordingLocations = bundle.getStringArray(EXTRA_RECORDING_LOCATIONS);
+        recordingTitles = bundle.getStringArray(EXTRA_RECORDING_TITLES);
+        recordingSetlists = bundle.getStringArray(EXTRA_RECORDING_SETLISTS);
+        recordingPublishers = bundle.getStringArray(EXTRA_RECORDING_PUBLISHERS);
+        recordingSources = bundle.getStringArray(EXTRA_RECORDING_SOURCES);
+        recordingSoundboards = bundle.getBooleanArray(EXTRA_RECORDING_SOUNDBOARDS);
+        recordingRatings = bundle.getFloatArray(EXTRA_RECORDING_RATINGS);
+        recordingNumReviews = bundle.getIntArray(EXTRA_RECORDING_NUM_REVIEWS);
+        recordingDownloads = bundle.getIntArray(EXTRA_RECORDING_DOWNLOADS);
+        recordingCount = recordingIds.length;
+    }
+
+    public static RecordingsBatch fromBundle(Bundle bundle) {
+        if (bundle == null || !bundle.containsKey(EXTRA_SHOW_IDS) || !bundle.containsKey(EXTRA_RECORDING_IDS)) {
+            throw new IllegalArgumentException("Bundle does not contain a batch of recordings");
+        }
+        return new RecordingsBatch(bundle);
+    }
+
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putLongArray(EXTRA_SHOW_IDS, showIds);
+        bundle.putStringArray(EXTRA_SHOW_YEARS, showYears);
+        bundle.putStringArray(EXTRA_SHOW_DATES, showDates);
+        bundle.putStringArray(EXTRA_SHOW_LOCATIONS, showLocations);
+        bundle.putStringArray(EXTRA_SHOW_TITLES, showTitles);
+        bundle.putStringArray(EXTRA_SHOW_SETLISTS, showSetlists);
+
+        bundle.putIntArray(EXTRA_RECORDING_SHOWS, recordingShows);
+        bundle.putLongArray(EXTRA_RECORDING_IDS, recordingIds);
+        bundle.putStringArray(EXTRA_RECORDING_IDENTIFIERS, recordingIdentifiers);
+        bundle.putStringArray(EXTRA_RECORDING_DATES, recordingDates);
+        bundle.putStringArray(EXTRA_RECORDING_LOCATIONS, recordingLocations);
+        bundle.putStringArray(EXTRA_RECORDING_TITLES, recordingTitles);
+        bundle.putStringArray(EXTRA_RECORDING_SETLISTS, recordingSetlists);
+        bundle.putStringArray(EXTRA_RECORDING_PUBLISHERS, recordingPublishers);
+        bundle.putStringArray(EXTRA_RECORDING_SOURCES, recordingSources);
+        bundle.putBooleanArray(EXTRA_RECORDING_SOUNDBOARDS, recordingSoundboards);
+        bundle.putFloatArray(EXTRA_RECORDING_RATINGS, recordingRatings);
+        bundle.putIntArray(EXTRA_RECORDING_NUM_REVIEWS, recordingNumReviews);
+        bundle.putIntArray(EXTRA_RECORDING_DOWNLOADS, recordingDownloads);
+        return bundle;
+    }
+
+    /**
+     * Build a bundle of the ids of every show and recording in the batch.
+     * This is what the provider returns once the batch has been written.
+     */
+    public Bundle getIdsBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putLongArray(EXTRA_SHOW_IDS, showIds);
+        bundle.putLongArray(EXTRA_RECORDING_IDS, recordingIds);
+        return bundle;
+    }
+
+    /**
+     * Look up the ids of the shows and recordings that are already in the database.
+     */
+    public void resolveIds(IdentifierIndex index) {
+        for (int i = 0; i < showCount; i++) {
+            showIds[i] = index.getShowId(showDates[i]);
+        }
+
+        for (int i = 0; i < recordingCount; i++) {
+            recordingIds[i] = index.getRecordingId(recordingIdentifiers[i]);
+        }
+    }
+
+    /**
+     * Copy the ids returned by the provider into the batch, and add them to the index.
+     */
+    public void updateIds(Bundle ids, IdentifierIndex index) {
+        long[] writtenShowIds = ids.getLongArray(EXTRA_SHOW_IDS);
+        long[] writtenRecordingIds = ids.getLongArray(EXTRA_RECORDING_IDS);
+
+        for (int i = 0; i < showCount; i++) {
+            showIds[i] = writtenShowIds[i];
+            if (showIds[i] != IdentifierIndex.NO_ID) {
+                index.putShow(showDates[i], showIds[i]);
+            }
+        }
+
+        for (int i = 0; i < recordingCount; i++) {
+            recordingIds[i] = writtenRecordingIds[i];
+            if (recordingIds[i] != IdentifierIndex.NO_ID) {
+                index.putRecording(recordingIdentifiers[i], recordingIds[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package net.bradball.android.sandbox.data;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import net.bradball.android.sandbox.data.jsonModel.RecordingsListJson;
+import net.bradball.android.sandbox.model.Recording;
+import net.bradball.android.sandbox.network.ArchiveAPI;
+import net.bradball.android.sandbox.util.LogHelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Reads a page of results from the scrape api directly off of the http response stream.
+ *
+ * Rather than loading the whole page into a String, and then into a tree of JsonElements,
+ * each item in the page is read into a {@link Recording} and handed off to an
+ * {@link OnRecordingReadListener} as soon as it has been read. So the most we ever hold
+ * in memory is a single row of json.
+ *
+ * The page envelope (count, cursor, total) is returned once the whole page has been read.
+ */
+public class RecordingsListReader implements ArchiveAPI.ResponseReader<RecordingsListJson> {
+    private static final String TAG = LogHelper.makeLogTag(RecordingsListReader.class);
+
+    private static final String FIELD_ITEMS = "items";
+    private static final String FIELD_COUNT = "count";
+    private static final String FIELD_CURSOR = "cursor";
+    private static final String FIELD_TOTAL = "total";
+
+    private static final RecordingTypeAdapter RECORDING_ADAPTER = new RecordingTypeAdapter();
+
+    public interface OnRecordingReadListener {
+        void onRecordingRead(Recording recording);
+    }
+
+    private final OnRecordingReadListener mListener;
+
+    public RecordingsListReader(OnRecordingReadListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public RecordingsListJson read(InputStream in) throws IOException {
+        RecordingsListJson page = new RecordingsListJson();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (FIELD_ITEMS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Recording recording = RECORDING_ADAPTER.read(reader);
+                        if (recording != null) {
+                            mListener.onRecordingRead(recording);
+                        }
+                    }
+                    reader.endArray();
+                } else if (FIELD_COUNT.equals(name)) {
+                    page.count = ModelTypeAdapter.readInt(reader, 0);
+                } else if (FIELD_TOTAL.equals(name)) {
+                    page.total = ModelTypeAdapter.readInt(reader, 0);
+                } else if (FIELD_CURSOR.equals(name)) {
+                    page.cursor = ModelTypeAdapter.readString(reader, null);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+
+        return page;
+    }
+}
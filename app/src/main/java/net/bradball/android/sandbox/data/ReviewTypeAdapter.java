@@ -0,0 +1,98 @@
+package net.bradball.android.sandbox.data;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import net.bradball.android.sandbox.model.Review;
+import net.bradball.android.sandbox.network.ArchiveAPI;
+import net.bradball.android.sandbox.util.LogHelper;
+
+import org.joda.time.LocalDateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.IOException;
+
+/**
+ * Reads one of the reviews in a recording's details into a {@link Review}.
+ * Returns null for anything that isn't an object.
+ */
+public class ReviewTypeAdapter extends ModelTypeAdapter<Review> {
+    private static final String TAG = LogHelper.makeLogTag(ReviewTypeAdapter.class);
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormat.forPattern(ArchiveAPI.REVIEW_DATE_FORMAT);
+
+    @Override
+    public Review read(JsonReader reader) throws IOException {
+        if (!beginObject(reader)) {
+            return null;
+        }
+
+        long reviewID = 0L;
+        String title = "";
+        String body = "";
+        String reviewer = "";
+        int stars = 0;
+        String date = "";
+
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            switch (name) {
+                case ArchiveAPI.RECORDING_DETAIL_FIELDS.REVIEW_FIELDS.ID:
+                    reviewID = readLong(reader, reviewID);
+                    break;
+                case ArchiveAPI.RECORDING_DETAIL_FIELDS.REVIEW_FIELDS.TITLE:
+                    title = readString(reader, title);
+                    break;
+                case ArchiveAPI.RECORDING_DETAIL_FIELDS.REVIEW_FIELDS.BODY:
+                    body = readString(reader, body);
+                    break;
+                case ArchiveAPI.RECORDING_DETAIL_FIELDS.REVIEW_FIELDS.REVIEWER:
+                    reviewer = readString(reader, reviewer);
+                    break;
+                case ArchiveAPI.RECORDING_DETAIL_FIELDS.REVIEW_FIELDS.STARS:
+                    stars = readInt(reader, stars);
+                    break;
+                case ArchiveAPI.RECORDING_DETAIL_FIELDS.REVIEW_FIELDS.DATE:
+                    date = readString(reader, date);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        Review review = new Review(reviewID);
+        review.setTitle(title);
+        review.setReview(body);
+        review.setReviewer(reviewer);
+        review.setStars(stars);
+        review.setDate(parseDate(date));
+
+        return review;
+    }
+
+    @Override
+    protected void writeFields(JsonWriter out, Review review) throws IOException {
+        out.name(ArchiveAPI.RECORDING_DETAIL_FIELDS.REVIEW_FIELDS.ID).value(review.getReviewID());
+        out.name(ArchiveAPI.RECORDING_DETAIL_FIELDS.REVIEW_FIELDS.TITLE).value(review.getTitle());
+        out.name(ArchiveAPI.RECORDING_DETAIL_FIELDS.REVIEW_FIELDS.BODY).value(review.getReview());
+        out.name(ArchiveAPI.RECORDING_DETAIL_FIELDS.REVIEW_FIELDS.REVIEWER).value(review.getReviewer());
+        out.name(ArchiveAPI.RECORDING_DETAIL_FIELDS.REVIEW_FIELDS.STARS).value(review.getStars());
+        if (review.getDate() != null) {
+            out.name(ArchiveAPI.RECORDING_DETAIL_FIELDS.REVIEW_FIELDS.DATE).value(DATE_FORMATTER.print(review.getDate()));
+        }
+    }
+
+    /**
+     * Reviews are sorted by date, so every review needs one. If it can't be parsed, it's sorted last.
+     */
+    private static LocalDateTime parseDate(String date) {
+        try {
+            return DATE_FORMATTER.parseLocalDateTime(date);
+        } catch (IllegalArgumentException ex) {
+            LogHelper.w(TAG, "Could not parse review date: ", date);
+            return new LocalDateTime(0);
+        }
+    }
+}
@@ -1,23 +1,18 @@
 package net.bradball.android.sandbox.data;
 
 import android.content.ContentProviderOperation;
+import android.content.ContentValues;
 
 import net.bradball.android.sandbox.model.Track;
-import net.bradball.android.sandbox.network.ArchiveAPI;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
+import net.bradball.android.sandbox.provider.RecordingsContract;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
 
-import java.lang.reflect.Type;
 import java.util.ArrayList;
 
 /**
  * Created by bradb on 2/4/16.
  */
-public class TrackParser extends JSONParser implements JsonDeserializer<Track> {
+public class TrackParser extends JSONParser {
     private Track mTrack;
     private final String mFilename;
     private final long mRecordingID;
@@ -33,49 +28,40 @@ public class TrackParser extends JSONParser implements JsonDeserializer<Track> {
         mRecordingIdentifier = recordingIdentifier;
     }
 
-    public Track deserialize(JsonElement json, Type typeOfSrc, JsonDeserializationContext context) throws JsonParseException {
-        final Track track;
-
-        setDeserializationContext(context, json.getAsJsonObject());
-
-        String album = getValue(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.ALBUM, "");
-        String bitrate = getValue(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.BITRATE, "unknown");
-        String format = getValue(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.FORMAT, "mp3");
-        String length = getValue(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.LENGTH, "00:00");
-        String md5 = getValue(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.MD5, "");
-        int number = getStringInt(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.NUMBER, 0);
-        long size = getStringLong(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.SIZE, 0L);
-        String title = getValue(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.TITLE, "");
-
-        track = new Track();
-
-        track.setAlbum(album);
-        track.setBitRate(bitrate);
-        track.setFormat(format);
-        track.setLength(length);
-        track.setMd5(md5);
-        track.setNumber(number);
-        track.setSize(size);
-        track.setTitle(title);
-
-        return track;
-    }
-
     @Override
     public void processJson(JsonElement element) {
-        GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.registerTypeAdapter(Track.class, this);
-        Gson gson = gsonBuilder.create();
-
-        mTrack = gson.fromJson(element, Track.class);
+        mTrack = getGson().fromJson(element, Track.class);
+        if (mTrack == null) {
+            return;
+        }
         mTrack.setFilename(mFilename);
         mTrack.setRecordingID(mRecordingID);
         mTrack.setRecordingIdentifier(mRecordingIdentifier);
     }
 
+    /**
+     * Add an insert of the parsed track into its recording's tracks.
+     * The recording's existing tracks should be deleted earlier in the same batch (see MusicLoader).
+     */
     @Override
     public void getContentProviderInserts(ArrayList<ContentProviderOperation> list) {
-        //Nothing to do here ... yet.
-        //This will likely be useful when it comes time to add "Make available offline" features.
+        list.add(ContentProviderOperation.newInsert(RecordingsContract.Tracks.buildRecordingTracksUri(mRecordingID))
+                .withValues(getTrackContentValues(mTrack))
+                .build());
+    }
+
+    public static ContentValues getTrackContentValues(Track track) {
+        ContentValues values = new ContentValues();
+        values.put(RecordingsContract.Tracks.RECORDING_ID, track.getRecordingID());
+        values.put(RecordingsContract.Tracks.FILENAME, track.getFilename());
+        values.put(RecordingsContract.Tracks.TITLE, track.getTitle());
+        values.put(RecordingsContract.Tracks.NUMBER, track.getNumber());
+        values.put(RecordingsContract.Tracks.ALBUM, track.getAlbum());
+        values.put(RecordingsContract.Tracks.BITRATE, track.getBitRate());
+        values.put(RecordingsContract.Tracks.LENGTH, track.getLength());
+        values.put(RecordingsContract.Tracks.FORMAT, track.getFormat());
+        values.put(RecordingsContract.Tracks.SIZE, track.getSize());
+        values.put(RecordingsContract.Tracks.MD5, track.getMd5());
+        return values;
     }
 }
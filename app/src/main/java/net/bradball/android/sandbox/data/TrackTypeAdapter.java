@@ -0,0 +1,82 @@
+package net.bradball.android.sandbox.data;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import net.bradball.android.sandbox.model.Track;
+import net.bradball.android.sandbox.network.ArchiveAPI;
+
+import java.io.IOException;
+
+/**
+ * Reads one of the files in a recording's details into a {@link Track}.
+ *
+ * The file's name is its key in the details, not one of its fields, so it (along with the
+ * recording the track belongs to) has to be set by the caller. Returns null for anything that isn't an object.
+ * For the same reason, the file name isn't written.
+ */
+public class TrackTypeAdapter extends ModelTypeAdapter<Track> {
+
+    @Override
+    public Track read(JsonReader reader) throws IOException {
+        if (!beginObject(reader)) {
+            return null;
+        }
+
+        Track track = new Track();
+        track.setAlbum("");
+        track.setBitRate("unknown");
+        track.setFormat("mp3");
+        track.setLength("00:00");
+        track.setMd5("");
+        track.setTitle("");
+
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            switch (name) {
+                case ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.ALBUM:
+                    track.setAlbum(readString(reader, track.getAlbum()));
+                    break;
+                case ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.BITRATE:
+                    track.setBitRate(readString(reader, track.getBitRate()));
+                    break;
+                case ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.FORMAT:
+                    track.setFormat(readString(reader, track.getFormat()));
+                    break;
+                case ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.LENGTH:
+                    track.setLength(readString(reader, track.getLength()));
+                    break;
+                case ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.MD5:
+                    track.setMd5(readString(reader, track.getMd5()));
+                    break;
+                case ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.NUMBER:
+                    track.setNumber(readInt(reader, 0));
+                    break;
+                case ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.SIZE:
+                    track.setSize(readLong(reader, 0L));
+                    break;
+                case ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.TITLE:
+                    track.setTitle(readString(reader, track.getTitle()));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return track;
+    }
+
+    @Override
+    protected void writeFields(JsonWriter out, Track track) throws IOException {
+        out.name(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.ALBUM).value(track.getAlbum());
+        out.name(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.BITRATE).value(track.getBitRate());
+        out.name(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.FORMAT).value(track.getFormat());
+        out.name(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.LENGTH).value(track.getLength());
+        out.name(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.MD5).value(track.getMd5());
+        out.name(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.NUMBER).value(track.getNumber());
+        out.name(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.SIZE).value(track.getSize());
+        out.name(ArchiveAPI.RECORDING_DETAIL_FIELDS.FILE_FILEDS.TITLE).value(track.getTitle());
+    }
+}
@@ -1,10 +1,17 @@
 package net.bradball.android.sandbox.data.jsonModel;
 
-import com.google.gson.JsonObject;
+import net.bradball.android.sandbox.model.Review;
+import net.bradball.android.sandbox.model.Track;
 
+import java.util.ArrayList;
+
+/**
+ * The parts of a recording's details that we use, as read by {@link net.bradball.android.sandbox.data.RecordingDetailsReader}.
+ * If the details didn't have any "files" at all (like when the identifier isn't found), tracks is null.
+ */
 public class RecordingDetailsJson {
 
-    public JsonObject reviews;
-    public JsonObject files;
+    public ArrayList<Track> tracks;
+    public ArrayList<Review> reviews = new ArrayList<Review>();
 
 }
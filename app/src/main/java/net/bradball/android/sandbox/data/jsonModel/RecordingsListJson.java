@@ -1,13 +1,12 @@
 package net.bradball.android.sandbox.data.jsonModel;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-
+/**
+ * The envelope of a page of scrape results. The "items" in the page are not kept here,
+ * they are streamed out one at a time by {@link net.bradball.android.sandbox.data.RecordingsListReader}.
+ */
 public class RecordingsListJson {
-    public JsonArray items;
     public int count;
     public String cursor;
-    public JsonElement cursor_obj;
     public int total;
 
 }
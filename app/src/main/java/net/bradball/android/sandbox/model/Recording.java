@@ -19,6 +19,9 @@ public class Recording {
     private static final String TAG = LogHelper.makeLogTag(Recording.class);
     private static final String DATE_DISPLAY_FORMAT = "MM-dd-yyyy";
 
+    /** Rough size of a LocalDate (its millis and chronology). */
+    private static final int LOCAL_DATE_SIZE = 32;
+
     private long mID;
 
     private long mShowID;
@@ -72,6 +75,10 @@ public class Recording {
         return mIdentifier;
     }
 
+    public void setIdentifier(String identifier) {
+        mIdentifier = identifier;
+    }
+
     public LocalDate getDate() {
         return mDate;
     }
@@ -168,6 +175,10 @@ public class Recording {
         return mReviews;
     }
 
+    public void setReviews(ArrayList<Review> reviews) {
+        mReviews = reviews;
+    }
+
     public ArrayList<Track> getTracks() {
 
         if (mTracks.size() > 1) {
@@ -250,4 +261,40 @@ public class Recording {
         return mTracks.size();
     }
 
-}
\ No newline at end of file
+
+    /**
+     * A rough estimate of how much memory this recording (and its tracks and reviews) is using,
+     * for sizing the recording cache.
+     */
+    public int estimateSize() {
+        //Header, 2 longs, a float, 2 ints, 2 booleans and 9 references.
+        int size = SizeEstimate.OBJECT_OVERHEAD + 48 + 9 * SizeEstimate.REFERENCE_SIZE;
+
+        size += SizeEstimate.of(mIdentifier);
+        size += SizeEstimate.of(mLocation);
+        size += SizeEstimate.of(mTitle);
+        size += SizeEstimate.of(mSetlist);
+        size += SizeEstimate.of(mPublisher);
+        size += SizeEstimate.of(mSource);
+        if (mDate != null) {
+            size += LOCAL_DATE_SIZE;
+        }
+
+        size += estimateListSize(mTracks);
+        for (int i = 0; i < mTracks.size(); i++) {
+            size += mTracks.get(i).estimateSize();
+        }
+
+        size += estimateListSize(mReviews);
+        for (int i = 0; i < mReviews.size(); i++) {
+            size += mReviews.get(i).estimateSize();
+        }
+
+        return size;
+    }
+
+    private static int estimateListSize(ArrayList<?> list) {
+        //The ArrayList and its backing array (which is usually a bit bigger than the list).
+        return SizeEstimate.OBJECT_OVERHEAD * 3 + list.size() * SizeEstimate.REFERENCE_SIZE;
+    }
+}
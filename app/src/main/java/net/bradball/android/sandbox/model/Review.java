@@ -109,4 +109,16 @@ public class Review implements Comparable<Review> {
 
         return 0;
     }
+
+    /**
+     * A rough estimate of how much memory this review is using (see {@link Recording#estimateSize()}).
+     */
+    public int estimateSize() {
+        //Header, 3 longs, an int and 5 references, plus the date (its millis, chronology and the object itself).
+        return SizeEstimate.OBJECT_OVERHEAD + 28 + 5 * SizeEstimate.REFERENCE_SIZE
+                + ((mDate != null) ? 32 : 0)
+                + SizeEstimate.of(mTitle)
+                + SizeEstimate.of(mReview)
+                + SizeEstimate.of(mReviewer);
+    }
 }
@@ -0,0 +1,25 @@
+package net.bradball.android.sandbox.model;
+
+/**
+ * Rough sizes, in bytes, for estimating how much memory the models are using (see {@link Recording#estimateSize()}).
+ */
+public final class SizeEstimate {
+
+    /** Rough size of an object's header, plus padding. */
+    public static final int OBJECT_OVERHEAD = 16;
+
+    /** Rough size of a reference field. */
+    public static final int REFERENCE_SIZE = 4;
+
+    private SizeEstimate() { }
+
+    /**
+     * Estimated size of a String (the String object and its characters), or 0 for null.
+     */
+    public static int of(String value) {
+        if (value == null) {
+            return 0;
+        }
+        return OBJECT_OVERHEAD * 2 + value.length() * 2;
+    }
+}
@@ -1,6 +1,7 @@
 package net.bradball.android.sandbox.model;
 
 import android.content.res.Resources;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.media.MediaMetadataCompat;
@@ -152,6 +153,29 @@ public class Track implements Comparable<Track> {
 
     }
 
+    /**
+     * Create a track from a row of the tracks table. The recording's identifier isn't in the tracks table,
+     * so {@code recordingIdentifier} is the identifier of the recording that was queried.
+     */
+    public static Track getFromCursor(Cursor c, String recordingIdentifier) {
+        Track track = new Track();
+
+        track.setID(c.getLong(c.getColumnIndex(RecordingsContract.Tracks._ID)));
+        track.setRecordingID(c.getLong(c.getColumnIndex(RecordingsContract.Tracks.RECORDING_ID)));
+        track.setRecordingIdentifier(recordingIdentifier);
+        track.setFilename(c.getString(c.getColumnIndex(RecordingsContract.Tracks.FILENAME)));
+        track.setTitle(c.getString(c.getColumnIndex(RecordingsContract.Tracks.TITLE)));
+        track.setNumber(c.getInt(c.getColumnIndex(RecordingsContract.Tracks.NUMBER)));
+        track.setAlbum(c.getString(c.getColumnIndex(RecordingsContract.Tracks.ALBUM)));
+        track.setBitRate(c.getString(c.getColumnIndex(RecordingsContract.Tracks.BITRATE)));
+        track.setLength(c.getString(c.getColumnIndex(RecordingsContract.Tracks.LENGTH)));
+        track.setFormat(c.getString(c.getColumnIndex(RecordingsContract.Tracks.FORMAT)));
+        track.setSize(c.getLong(c.getColumnIndex(RecordingsContract.Tracks.SIZE)));
+        track.setMd5(c.getString(c.getColumnIndex(RecordingsContract.Tracks.MD5)));
+
+        return track;
+    }
+
     public Uri getUri() {
         return RecordingsContract.Track.buildUri(getRecordingIdentifier(), getFilename());
     }
@@ -201,4 +225,20 @@ public class Track implements Comparable<Track> {
 
         return 0;
     }
+
+    /**
+     * A rough estimate of how much memory this track is using (see {@link Recording#estimateSize()}).
+     */
+    public int estimateSize() {
+        //Header, 3 longs, an int and 9 references.
+        return SizeEstimate.OBJECT_OVERHEAD + 28 + 9 * SizeEstimate.REFERENCE_SIZE
+                + SizeEstimate.of(mRecordingIdentifier)
+                + SizeEstimate.of(mFilename)
+                + SizeEstimate.of(mTitle)
+                + SizeEstimate.of(mAlbum)
+                + SizeEstimate.of(mBitRate)
+                + SizeEstimate.of(mLength)
+                + SizeEstimate.of(mFormat)
+                + SizeEstimate.of(mMd5);
+    }
 }
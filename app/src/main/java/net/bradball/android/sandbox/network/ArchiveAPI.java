@@ -5,16 +5,19 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import net.bradball.android.sandbox.util.LogHelper;
+import net.bradball.android.sandbox.util.SingleFlight;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 
 public class ArchiveAPI {
     private final static String TAG = LogHelper.makeLogTag(ArchiveAPI.class);
@@ -37,8 +40,12 @@ public class ArchiveAPI {
     public final static String SOUNDBOARD_COLLECTION = "stream_only";
     public final static int FETCH_ROWS = 2000;
     public final static String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+    public final static String REVIEW_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
 
     public static final class RECORDING_DETAIL_FIELDS {
+        /** The list of reviews, inside the details' "reviews" object. */
+        public final static String REVIEWS = "reviews";
+
         public static final class FILE_FILEDS {
             public final static String TITLE = "title";
             public final static String NUMBER = "track";
@@ -96,6 +103,21 @@ public class ArchiveAPI {
         }
     }
 
+    final static String HEADER_ETAG = "ETag";
+    final static String HEADER_LAST_MODIFIED = "Last-Modified";
+    private final static String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private final static String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final HttpTransport mTransport;
+
+    public ArchiveAPI() {
+        this(UrlConnectionTransport.getInstance());
+    }
+
+    public ArchiveAPI(HttpTransport transport) {
+        mTransport = transport;
+    }
+
     public static String getTrackUrl(String recordingIdentifier, String filename) {
         if (!filename.startsWith("/")) {
             filename = "/" + filename;
@@ -103,63 +125,217 @@ public class ArchiveAPI {
         return BASE_TRACK_URL + recordingIdentifier + filename;
     }
 
-    public byte[] getUrlBytes(String urlSpec) throws IOException {
-        LogHelper.d(TAG, "Fetching URL: ", urlSpec);
-        URL url = new URL(urlSpec);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-
-        try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            InputStream in = connection.getInputStream();
-
-            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK)
-                throw new IOException(connection.getResponseMessage() + ": with " + urlSpec);
+    /**
+     * Reads the body of an http response straight off of the connection's {@link InputStream}.
+     * Implementations should consume the stream as they go, rather than buffering it, so that
+     * large responses (like a page of scrape results) never need to be held in memory all at once.
+     */
+    public interface ResponseReader<T> {
+        T read(InputStream in) throws IOException;
+    }
 
-            int bytesRead = 0;
-            byte[] buffer = new byte[1024];
-            while ((bytesRead = in.read(buffer)) > 0)
-                out.write(buffer, 0, bytesRead);
+    public <T> T readUrl(String urlSpec, ResponseReader<T> reader) throws IOException {
+        HttpResponse response = mTransport.get(urlSpec, null, HttpTransport.DEFAULT_TIMEOUT);
 
-            out.close();
-            return out.toByteArray();
+        try {
+            if (response.getCode() != HttpURLConnection.HTTP_OK)
+                throw new IOException(response.getMessage() + ": with " + urlSpec);
 
+            return reader.read(response.getBody());
         } finally {
-            connection.disconnect();
+            response.close();
         }
+    }
 
+    public byte[] getUrlBytes(String urlSpec) throws IOException {
+        return readUrl(urlSpec, new ResponseReader<byte[]>() {
+            @Override
+            public byte[] read(InputStream in) throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(BufferPool.BUFFER_SIZE);
+                byte[] buffer = BufferPool.acquire();
+
+                try {
+                    int bytesRead;
+                    while ((bytesRead = in.read(buffer)) > 0)
+                        out.write(buffer, 0, bytesRead);
+                } finally {
+                    BufferPool.release(buffer);
+                }
+
+                return out.toByteArray();
+            }
+        });
     }
 
     public String getUrlString(String urlSpec) throws IOException {
-        return new String(getUrlBytes(urlSpec));
+        return new String(getUrlBytes(urlSpec), "UTF-8");
     }
 
 
-    public String fetchAllShows(String cursor) {
-        return fetchShows(null, cursor);
+    public <T> T fetchAllShows(String cursor, ResponseReader<T> reader) {
+        return fetchShows(null, cursor, reader);
     }
 
-    public String fetchShows(Date lastUpdate, String cursor) {
+    /**
+     * Fetch a page of shows from the scrape api, handing the response stream to the
+     * given {@code reader} as it arrives.
+     *
+     * @return whatever the reader produced, or null if the page could not be fetched.
+     */
+    public <T> T fetchShows(Date lastUpdate, String cursor, ResponseReader<T> reader) {
         String url = buildShowsUrl(lastUpdate, cursor);
-        String json = null;
+        T result = null;
         try {
-            json = getUrlString(url);
+            result = readUrl(url, reader);
         } catch (IOException ex) {
             LogHelper.e(TAG, "Failed to fetch shows from URL: " + url, ex);
         }
 
-        return json;
+        return result;
+    }
+
+    /**
+     * The result of a conditional GET (see {@link #fetchRecordingDetails(String, String, String, ResponseReader)}).
+     */
+    public static class ConditionalResult<T> {
+        /** True if the server said the cached copy is still good. There's no body then. */
+        public final boolean notModified;
+        public final T body;
+        /** The validators to send next time. Either can be null, if the server didn't send it. */
+        public final String etag;
+        public final String lastModified;
+
+        ConditionalResult(boolean notModified, T body, String etag, String lastModified) {
+            this.notModified = notModified;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Fetch a recording's details, handing the response stream to the given {@code reader} as it arrives.
+     *
+     * @return whatever the reader produced, or null if the details could not be fetched.
+     */
+    public <T> T fetchRecordingDetails(String recordingIdentifier, ResponseReader<T> reader) {
+        ConditionalResult<T> result = fetchRecordingDetails(recordingIdentifier, null, null, reader);
+        return (result == null) ? null : result.body;
     }
 
-    public String fetchRecordingDetails(String recordingIdentifier) {
+    /**
+     * Fetch a recording's details if they've changed since they were last fetched. The validators
+     * (from the last {@link ConditionalResult}) are sent as If-None-Match and If-Modified-Since,
+     * and if the server answers 304 Not Modified, the reader isn't called at all.
+     *
+     * @param etag the ETag the details were last fetched with, or null.
+     * @param lastModified the Last-Modified date the details were last fetched with, or null.
+     * @return the result, or null if the details could not be fetched.
+     */
+    public <T> ConditionalResult<T> fetchRecordingDetails(String recordingIdentifier, String etag, String lastModified, ResponseReader<T> reader) {
         String url = buildDetailUrl(recordingIdentifier);
-        String json = null;
+
         try {
-            json = getUrlString(url);
+            HttpResponse response = mTransport.get(url, buildConditionalHeaders(etag, lastModified), HttpTransport.DEFAULT_TIMEOUT);
+            try {
+                if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    return notModified(response, etag, lastModified);
+                }
+
+                if (response.getCode() != HttpURLConnection.HTTP_OK)
+                    throw new IOException(response.getMessage() + ": with " + url);
+
+                T body = reader.read(response.getBody());
+                return new ConditionalResult<T>(false, body, response.getHeader(HEADER_ETAG), response.getHeader(HEADER_LAST_MODIFIED));
+            } finally {
+                response.close();
+            }
         } catch (IOException ex) {
-            LogHelper.e(TAG, "Failed to fetch shows from URL: " + url, ex);
+            LogHelper.e(TAG, "Failed to fetch recording details from URL: " + url, ex);
         }
 
-        return json;
+        return null;
+    }
+
+    /**
+     * Fetch the details of several recordings at once, with at most {@code maxConcurrent} requests running at a time.
+     * Results are handed to the {@code listener} as each one finishes (on the batch's threads).
+     *
+     * @param timeoutMillis how long each request has to finish.
+     * @return the batch, which can be cancelled.
+     */
+    public <T> BatchFetch<T> fetchRecordingDetails(Collection<String> recordingIdentifiers, int maxConcurrent, int timeoutMillis,
+                                                   BatchFetch.ReaderFactory<T> readers, BatchFetch.Listener<T> listener) {
+        return fetchRecordingDetails(recordingIdentifiers, maxConcurrent, timeoutMillis, null, readers, listener);
+    }
+
+    /**
+     * Fetch the details of several recordings at once, sharing the requests with other loads through {@code flights}
+     * (see {@link BatchFetch}).
+     *
+     * @param flights the loads of recordings' details that are in flight, by identifier, or null.
+     */
+    public <T> BatchFetch<T> fetchRecordingDetails(Collection<String> recordingIdentifiers, int maxConcurrent, int timeoutMillis,
+                                                   SingleFlight<String, ConditionalResult<T>> flights,
+                                                   BatchFetch.ReaderFactory<T> readers, BatchFetch.Listener<T> listener) {
+        return fetchRecordingDetails(recordingIdentifiers, maxConcurrent, timeoutMillis, flights, null, readers, listener);
+    }
+
+    /**
+     * Fetch the details of several recordings at once, like {@link #fetchRecordingDetails(Collection, int, int, SingleFlight, BatchFetch.ReaderFactory, BatchFetch.Listener)},
+     * with conditional requests for the recordings that have {@code validators} (from their cached details).
+     * Those that haven't changed come back as a {@link ConditionalResult} that's {@link ConditionalResult#notModified}.
+     *
+     * @param validators each recording's validators, by identifier, or null. Recordings without any get a plain request.
+     */
+    public <T> BatchFetch<T> fetchRecordingDetails(Collection<String> recordingIdentifiers, int maxConcurrent, int timeoutMillis,
+                                                   SingleFlight<String, ConditionalResult<T>> flights, Map<String, BatchFetch.Validators> validators,
+                                                   BatchFetch.ReaderFactory<T> readers, BatchFetch.Listener<T> listener) {
+        BatchFetch<T> batch = new BatchFetch<>(this, recordingIdentifiers, maxConcurrent, timeoutMillis, flights, validators, readers, listener);
+        batch.start();
+        return batch;
+    }
+
+    /**
+     * Open the response for a recording's details, for {@link BatchFetch}. If there are validators,
+     * the request is conditional, and the response may be a 304 Not Modified (without a body).
+     */
+    HttpResponse openRecordingDetails(String recordingIdentifier, String etag, String lastModified, int timeoutMillis) throws IOException {
+        String url = buildDetailUrl(recordingIdentifier);
+        HttpResponse response = mTransport.get(url, buildConditionalHeaders(etag, lastModified), timeoutMillis);
+
+        if (response.getCode() != HttpURLConnection.HTTP_OK && response.getCode() != HttpURLConnection.HTTP_NOT_MODIFIED) {
+            String message = response.getMessage();
+            response.close();
+            throw new IOException(message + ": with " + url);
+        }
+
+        return response;
+    }
+
+    private static HashMap<String, String> buildConditionalHeaders(String etag, String lastModified) {
+        HashMap<String, String> headers = new HashMap<>();
+        if (!TextUtils.isEmpty(etag)) {
+            headers.put(HEADER_IF_NONE_MATCH, etag);
+        }
+        if (!TextUtils.isEmpty(lastModified)) {
+            headers.put(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+        return headers;
+    }
+
+    /**
+     * The result of a 304 Not Modified response to a request with the given validators.
+     */
+    static <T> ConditionalResult<T> notModified(HttpResponse response, String etag, String lastModified) {
+        //The server should send the validators again, but if it doesn't, keep the ones we have.
+        return new ConditionalResult<T>(true, null,
+                firstNonEmpty(response.getHeader(HEADER_ETAG), etag),
+                firstNonEmpty(response.getHeader(HEADER_LAST_MODIFIED), lastModified));
+    }
+
+    private static String firstNonEmpty(String value, String fallback) {
+        return TextUtils.isEmpty(value) ? fallback : value;
     }
 
     private String buildDetailUrl(String identifier) {
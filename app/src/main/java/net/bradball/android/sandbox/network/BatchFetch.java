@@ -0,0 +1,327 @@
+package net.bradball.android.sandbox.network;
+
+import net.bradball.android.sandbox.util.LogHelper;
+import net.bradball.android.sandbox.util.SingleFlight;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the details of several recordings at once (see {@link ArchiveAPI#fetchRecordingDetails(Collection, int, int, ReaderFactory, Listener)}).
+ *
+ * At most {@code maxConcurrent} requests run at a time, each on its own thread from the batch's pool, and results
+ * are handed to the {@link Listener} as each request finishes, so a slow recording doesn't hold up the rest.
+ * Each request has to finish within its timeout, or it fails with a {@link SocketTimeoutException}.
+ *
+ * {@link #cancel()} stops the batch. Requests that haven't started are dropped, the ones that are running
+ * have their connections aborted, and the listener isn't told about any more results.
+ *
+ * A batch can share its requests through a {@link SingleFlight}, keyed by identifier. Then a recording that's
+ * already being fetched (through the same SingleFlight) is skipped, and a load of a recording the batch is
+ * fetching waits for the batch's result, instead of making the same request again. If the batch is cancelled
+ * first, the load gets a {@link CancellationException}.
+ *
+ * Recordings that have {@link Validators} (from their cached details) get a conditional request, and if they
+ * haven't changed, their result is {@link ArchiveAPI.ConditionalResult#notModified}, without a body.
+ */
+public class BatchFetch<T> {
+    private static final String TAG = LogHelper.makeLogTag(BatchFetch.class);
+
+    /**
+     * Makes a reader for each recording's response.
+     */
+    public interface ReaderFactory<T> {
+        ArchiveAPI.ResponseReader<T> newReader(String identifier);
+    }
+
+    /**
+     * A recording's ETag and Last-Modified, from the last time its details were fetched. Either can be null.
+     */
+    public static class Validators {
+        public final String etag;
+        public final String lastModified;
+
+        public Validators(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Results are delivered on the batch's threads, so post them somewhere else if they need to be on a particular thread.
+     */
+    public interface Listener<T> {
+        /**
+         * @param result what the reader produced, with the response's validators (for a conditional request next time).
+         */
+        void onResult(String identifier, ArchiveAPI.ConditionalResult<T> result);
+
+        void onError(String identifier, IOException error);
+
+        /**
+         * Called once, when every request has finished or the batch was cancelled.
+         */
+        void onComplete(boolean cancelled);
+    }
+
+    private static final AtomicInteger sBatchCount = new AtomicInteger();
+
+    private final ArchiveAPI mArchiveAPI;
+    private final ArrayList<String> mIdentifiers;
+    private final int mMaxConcurrent;
+    private final int mTimeoutMillis;
+    private final ReaderFactory<T> mReaderFactory;
+    private final Listener<T> mListener;
+    private final SingleFlight<String, ArchiveAPI.ConditionalResult<T>> mFlights;
+    private final Map<String, Validators> mValidators;
+
+    private final AtomicBoolean mCancelled = new AtomicBoolean();
+    private final AtomicBoolean mCompleted = new AtomicBoolean();
+    private final AtomicInteger mRemaining;
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private volatile ExecutorService mExecutor;
+
+    /** Responses that are being read, so cancel() can abort them. Guarded by itself. */
+    private final LinkedHashSet<HttpResponse> mInFlight = new LinkedHashSet<>();
+
+    BatchFetch(ArchiveAPI archiveAPI, Collection<String> identifiers, int maxConcurrent, int timeoutMillis,
+               SingleFlight<String, ArchiveAPI.ConditionalResult<T>> flights, Map<String, Validators> validators,
+               ReaderFactory<T> readerFactory, Listener<T> listener) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be at least 1: " + maxConcurrent);
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeoutMillis must be positive: " + timeoutMillis);
+        }
+
+        mArchiveAPI = archiveAPI;
+        //Duplicates would only be fetched twice.
+        mIdentifiers = new ArrayList<>(new LinkedHashSet<>(identifiers));
+        mMaxConcurrent = maxConcurrent;
+        mTimeoutMillis = timeoutMillis;
+        mReaderFactory = readerFactory;
+        mListener = listener;
+        mFlights = flights;
+        mValidators = validators;
+        mRemaining = new AtomicInteger(mIdentifiers.size());
+    }
+
+    void start() {
+        if (mIdentifiers.isEmpty()) {
+            complete();
+            return;
+        }
+
+        final int batch = sBatchCount.incrementAndGet();
+        mExecutor = Executors.newFixedThreadPool(Math.min(mMaxConcurrent, mIdentifiers.size()), new ThreadFactory() {
+            private final AtomicInteger mThreadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "BatchFetch-" + batch + "-" + mThreadCount.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+
+        for (final String identifier : mIdentifiers) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        fetch(identifier);
+                    } finally {
+                        if (mRemaining.decrementAndGet() == 0) {
+                            complete();
+                        }
+                    }
+                }
+            });
+        }
+
+        //The pool's threads go away once the last request is done.
+        mExecutor.shutdown();
+    }
+
+    private void fetch(String identifier) {
+        if (mCancelled.get()) {
+            return;
+        }
+
+        SingleFlight.Flight<ArchiveAPI.ConditionalResult<T>> flight = null;
+        if (mFlights != null) {
+            flight = mFlights.begin(identifier);
+            if (flight == null) {
+                LogHelper.d(TAG, "Already fetching details for ", identifier, ", skipping them");
+                return;
+            }
+        }
+
+        ArchiveAPI.ConditionalResult<T> result = null;
+        try {
+            result = request(identifier);
+            if (result != null && !mCancelled.get()) {
+                mListener.onResult(identifier, result);
+            }
+        } finally {
+            if (flight != null) {
+                if (result == null && mCancelled.get()) {
+                    //Whoever was waiting for it will have to fetch it themselves.
+                    flight.fail(new CancellationException("Batch cancelled"));
+                } else {
+                    flight.finish(result);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the result, or null if the request failed (the listener has been told) or the batch was cancelled.
+     */
+    private ArchiveAPI.ConditionalResult<T> request(String identifier) {
+        long deadline = System.currentTimeMillis() + mTimeoutMillis;
+        Validators validators = (mValidators == null) ? null : mValidators.get(identifier);
+        String etag = (validators == null) ? null : validators.etag;
+        String lastModified = (validators == null) ? null : validators.lastModified;
+
+        HttpResponse response = null;
+        try {
+            response = mArchiveAPI.openRecordingDetails(identifier, etag, lastModified, mTimeoutMillis);
+            synchronized (mInFlight) {
+                mInFlight.add(response);
+            }
+            //cancel() may have run before it was added.
+            if (mCancelled.get()) {
+                return null;
+            }
+
+            if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return ArchiveAPI.notModified(response, etag, lastModified);
+            }
+
+            T body = mReaderFactory.newReader(identifier).read(new DeadlineInputStream(response.getBody(), deadline));
+            return new ArchiveAPI.ConditionalResult<T>(false, body,
+                    response.getHeader(ArchiveAPI.HEADER_ETAG), response.getHeader(ArchiveAPI.HEADER_LAST_MODIFIED));
+        } catch (IOException ex) {
+            onError(identifier, ex);
+            return null;
+        } catch (RuntimeException ex) {
+            //Like a JsonReader that didn't find what it expected.
+            onError(identifier, new IOException(ex));
+            return null;
+        } finally {
+            if (response != null) {
+                synchronized (mInFlight) {
+                    mInFlight.remove(response);
+                }
+                if (mCancelled.get()) {
+                    response.abort();
+                } else {
+                    response.close();
+                }
+            }
+        }
+    }
+
+    private void onError(String identifier, IOException error) {
+        if (!mCancelled.get()) {
+            LogHelper.w(TAG, "Could not fetch details for ", identifier, ": ", error.getMessage());
+            mListener.onError(identifier, error);
+        }
+    }
+
+    /**
+     * Stop the batch. Safe to call from any thread, and more than once.
+     */
+    public void cancel() {
+        if (!mCancelled.compareAndSet(false, true)) {
+            return;
+        }
+
+        LogHelper.d(TAG, "Cancelling batch of ", mIdentifiers.size(), " with ", mRemaining.get(), " left");
+        if (mExecutor != null) {
+            //Drops the requests that haven't started.
+            mExecutor.shutdownNow();
+        }
+
+        ArrayList<HttpResponse> inFlight;
+        synchronized (mInFlight) {
+            inFlight = new ArrayList<>(mInFlight);
+        }
+        for (HttpResponse response : inFlight) {
+            response.abort();
+        }
+
+        complete();
+    }
+
+    public boolean isCancelled() {
+        return mCancelled.get();
+    }
+
+    /**
+     * Wait for the batch to finish (or be cancelled).
+     *
+     * @return true if it finished, false if the wait timed out.
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return mDone.await(timeout, unit);
+    }
+
+    private void complete() {
+        if (mCompleted.compareAndSet(false, true)) {
+            mListener.onComplete(mCancelled.get());
+            mDone.countDown();
+        }
+    }
+
+    /**
+     * Fails any read after the deadline. Along with the transport's read timeout, this keeps a response
+     * that's trickling in from going on much past the request's timeout.
+     */
+    private static class DeadlineInputStream extends FilterInputStream {
+        private final long mDeadline;
+
+        DeadlineInputStream(InputStream in, long deadline) {
+            super(in);
+            mDeadline = deadline;
+        }
+
+        private void checkDeadline() throws IOException {
+            if (System.currentTimeMillis() > mDeadline) {
+                throw new SocketTimeoutException("Request took too long");
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Cancelled");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkDeadline();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            checkDeadline();
+            return super.read(buffer, offset, count);
+        }
+    }
+}
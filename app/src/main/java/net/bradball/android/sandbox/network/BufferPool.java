@@ -0,0 +1,41 @@
+package net.bradball.android.sandbox.network;
+
+import java.util.ArrayDeque;
+
+/**
+ * A small pool of byte buffers for copying and draining response bodies, so every
+ * request doesn't allocate (and then throw away) its own.
+ */
+public final class BufferPool {
+    public static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_POOLED = 4;
+
+    private static final ArrayDeque<byte[]> sBuffers = new ArrayDeque<>(MAX_POOLED);
+
+    private BufferPool() { }
+
+    /**
+     * Get a buffer of {@link #BUFFER_SIZE} bytes. Hand it back with {@link #release(byte[])} when you're done with it.
+     */
+    public static byte[] acquire() {
+        synchronized (sBuffers) {
+            byte[] buffer = sBuffers.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    public static void release(byte[] buffer) {
+        if (buffer == null || buffer.length != BUFFER_SIZE) {
+            return;
+        }
+
+        synchronized (sBuffers) {
+            if (sBuffers.size() < MAX_POOLED) {
+                sBuffers.push(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package net.bradball.android.sandbox.network;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A response from an {@link HttpTransport}.
+ *
+ * The body is already decoded (un-gzipped), so it can be read straight into a parser.
+ * Always close the response, even if the body isn't read, so its connection can be re-used.
+ */
+public abstract class HttpResponse implements Closeable {
+
+    public abstract int getCode();
+
+    public abstract String getMessage();
+
+    /**
+     * @return the value of a response header, or null if there isn't one.
+     */
+    public abstract String getHeader(String name);
+
+    public abstract InputStream getBody() throws IOException;
+
+    public boolean isSuccessful() {
+        return getCode() >= 200 && getCode() < 300;
+    }
+
+    @Override
+    public abstract void close();
+
+    /**
+     * Drop the response's connection without reading the rest of the body (to cancel it).
+     * A read that's blocked on the body fails. It's safe to call from another thread.
+     */
+    public abstract void abort();
+}
@@ -0,0 +1,23 @@
+package net.bradball.android.sandbox.network;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * How {@link ArchiveAPI} makes its http requests. The default is {@link UrlConnectionTransport},
+ * but anything that can do a GET (a different http client, or canned responses in a test) can be plugged in.
+ */
+public interface HttpTransport {
+
+    /** Pass as the timeout to use the transport's own. */
+    int DEFAULT_TIMEOUT = 0;
+
+    /**
+     * Make a GET request.
+     *
+     * @param headers extra request headers, or null.
+     * @param timeoutMillis how long to wait to connect, and for each read, or {@link #DEFAULT_TIMEOUT}.
+     * @return the response, whatever its status code. The caller has to close it.
+     */
+    HttpResponse get(String url, Map<String, String> headers, int timeoutMillis) throws IOException;
+}
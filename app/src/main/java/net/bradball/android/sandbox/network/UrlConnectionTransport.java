@@ -0,0 +1,154 @@
+package net.bradball.android.sandbox.network;
+
+import net.bradball.android.sandbox.util.LogHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An {@link HttpTransport} on top of HttpURLConnection.
+ *
+ * HttpURLConnection already keeps a pool of keep-alive connections, but a connection only goes back into
+ * the pool once its response has been read to the end and closed. Calling disconnect() closes the socket instead,
+ * so this never does. When a response is closed, whatever's left of its body is drained (up to {@link #MAX_DRAIN_BYTES}),
+ * so sync pages, detail fetches and prefetches to archive.org can all share warm connections.
+ *
+ * Requests ask for gzip, and gzipped bodies are decoded as they're read. Once Accept-Encoding has been set
+ * by hand, HttpURLConnection leaves decoding to us.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+    private static final String TAG = LogHelper.makeLogTag(UrlConnectionTransport.class);
+
+    private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(15);
+    private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+
+    /** More than this left in a body isn't worth reading just to save a connection. */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static final String GZIP = "gzip";
+
+    private static UrlConnectionTransport sInstance;
+
+    public static synchronized UrlConnectionTransport getInstance() {
+        if (sInstance == null) {
+            sInstance = new UrlConnectionTransport();
+        }
+        return sInstance;
+    }
+
+    @Override
+    public HttpResponse get(String urlSpec, Map<String, String> headers, int timeoutMillis) throws IOException {
+        LogHelper.d(TAG, "Fetching URL: ", urlSpec);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(urlSpec).openConnection();
+        connection.setConnectTimeout((timeoutMillis > 0) ? timeoutMillis : CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout((timeoutMillis > 0) ? timeoutMillis : READ_TIMEOUT_MILLIS);
+        connection.setRequestProperty("Accept-Encoding", GZIP);
+        connection.setRequestProperty("Connection", "keep-alive");
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+
+        try {
+            return new Response(connection, connection.getResponseCode());
+        } catch (IOException ex) {
+            //Nothing to re-use if the request itself failed.
+            connection.disconnect();
+            throw ex;
+        }
+    }
+
+    private static class Response extends HttpResponse {
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private InputStream mRawBody;
+        private InputStream mBody;
+
+        Response(HttpURLConnection connection, int code) {
+            mConnection = connection;
+            mCode = code;
+        }
+
+        @Override
+        public int getCode() {
+            return mCode;
+        }
+
+        @Override
+        public String getMessage() {
+            try {
+                return mConnection.getResponseMessage();
+            } catch (IOException ex) {
+                return null;
+            }
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                //Not buffered here, the readers (JsonReader, or getUrlBytes' pooled buffer) do their own.
+                //Readers close what they're given when they're done (JsonReader does), but the
+                //raw stream has to stay open until close() has drained it.
+                mRawBody = openRawBody();
+                InputStream body = new FilterInputStream(mRawBody) {
+                    @Override
+                    public void close() { }
+                };
+                mBody = GZIP.equalsIgnoreCase(mConnection.getContentEncoding()) ? new GZIPInputStream(body, BufferPool.BUFFER_SIZE) : body;
+            }
+            return mBody;
+        }
+
+        /**
+         * Drain and close the body, so the connection goes back in the pool.
+         */
+        @Override
+        public void close() {
+            byte[] buffer = BufferPool.acquire();
+            try {
+                InputStream raw = (mRawBody != null) ? mRawBody : openRawBody();
+                int drained = 0;
+                int read;
+                while (drained <= MAX_DRAIN_BYTES && (read = raw.read(buffer)) != -1) {
+                    drained += read;
+                }
+                if (drained > MAX_DRAIN_BYTES) {
+                    mConnection.disconnect();
+                }
+                raw.close();
+            } catch (IOException ex) {
+                LogHelper.d(TAG, "Could not drain response, dropping its connection: ", ex.getMessage());
+                mConnection.disconnect();
+            } finally {
+                BufferPool.release(buffer);
+            }
+        }
+
+        @Override
+        public void abort() {
+            mConnection.disconnect();
+        }
+
+        /**
+         * Error responses have their body in the error stream. Some responses (like a 304) have no body at all.
+         */
+        private InputStream openRawBody() throws IOException {
+            InputStream raw = (mCode >= HttpURLConnection.HTTP_BAD_REQUEST) ? mConnection.getErrorStream() : mConnection.getInputStream();
+            return (raw != null) ? raw : new ByteArrayInputStream(new byte[0]);
+        }
+    }
+}
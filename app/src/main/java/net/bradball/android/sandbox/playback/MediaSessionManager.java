@@ -13,6 +13,7 @@ import android.util.Log;
 
 import net.bradball.android.sandbox.model.Recording;
 import net.bradball.android.sandbox.util.LogHelper;
+import net.bradball.android.sandbox.util.MediaHelper;
 import net.bradball.android.sandbox.util.MediaNotificationHelper;
 
 import java.util.List;
@@ -171,6 +172,17 @@ public class MediaSessionManager extends MediaSessionCompat.Callback
 
     }
 
+    @Override
+    public void onPlayFromSearch(String query, Bundle extras) {
+        //Searches are just another media id, the MusicService will play the best match.
+        //Without a query ("play some music"), play something random.
+        if (TextUtils.isEmpty(query)) {
+            onPlayFromMediaId(MediaHelper.getRandomMediaId(), extras);
+        } else {
+            onPlayFromMediaId(MediaHelper.getSearchMediaId(query), extras);
+        }
+    }
+
     // PLAYBACK EVENTS LISTENER IMPLEMENTATION
     // =======================================
 
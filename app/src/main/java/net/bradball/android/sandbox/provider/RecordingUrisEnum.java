@@ -23,6 +23,8 @@ public enum RecordingUrisEnum {
     RECORDING_BY_ARCHIVE(   201, RecordingsContract.PATH_RECORDINGS + "/" + RecordingsContract.PATH_ARCHIVE_ID + "/*",  RecordingsContract.Recordings.CONTENT_TYPE_ID, true,    null),
     RECORDING_BY_ID(        202, RecordingsContract.PATH_RECORDINGS + "/#",                                             RecordingsContract.Recordings.CONTENT_TYPE_ID, true,    DatabaseSchema.RecordingsTable.NAME),
     RECORDING_RANDOM(       203, RecordingsContract.PATH_RECORDINGS + "/random",                                        RecordingsContract.Recordings.CONTENT_TYPE_ID, true,    null),
+    RECORDING_SEARCH(       204, RecordingsContract.PATH_RECORDINGS + "/" + RecordingsContract.PATH_SEARCH + "/*",      RecordingsContract.Recordings.CONTENT_TYPE_ID, false,   null),
+    RECORDING_TRACKS(       205, RecordingsContract.PATH_RECORDINGS + "/#/" + RecordingsContract.PATH_TRACKS,          RecordingsContract.Tracks.CONTENT_TYPE_ID,     false,   DatabaseSchema.TracksTable.NAME),
 
     TRACK(                  301, RecordingsContract.PATH_TRACK_DOWNLOAD + "/*/*",                                                                   RecordingsContract.Recordings.CONTENT_TYPE_ID, true,    null);
 
@@ -0,0 +1,374 @@
+package net.bradball.android.sandbox.provider;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.util.SparseArray;
+
+import net.bradball.android.sandbox.data.DatabaseSchema.RecordingsTable;
+import net.bradball.android.sandbox.data.DatabaseSchema.ShowsTable;
+import net.bradball.android.sandbox.data.IdentifierIndex;
+import net.bradball.android.sandbox.data.RecordingsBatch;
+
+import java.util.Set;
+
+/**
+ * Writes a {@link RecordingsBatch} straight to the database with pre-compiled statements.
+ *
+ * Each statement is compiled once for the whole batch (the updates, once for each set of changed columns), and each row just binds its values
+ * and executes, so there's no ContentValues map, Uri matching, or SQL building per row.
+ * Existing rows are updated in place (and only the columns that changed), so they keep their _id.
+ * Rows the batch already has an id for are checked by primary key first, and only written if they've changed.
+ * Recordings get their show id from the batch, so a new show's recordings just use the
+ * row id its insert returned, rather than a back reference.
+ *
+ * The caller is responsible for the transaction. The writer will yield it, at the start
+ * of a show, every {@link #STATEMENTS_PER_YIELD} statements or so, and tell its {@link YieldListener}
+ * when it has (everything written before that is committed).
+ */
+class RecordingsBulkWriter {
+
+    private static final int STATEMENTS_PER_YIELD = 250;
+
+    /** What the CHECK_* statements return when the row isn't there. */
+    private static final long ROW_MISSING = -1;
+
+    /*
+        The columns the batch writes, in the order of their parameters (?1, ?2, ...) in every statement.
+        A show's downloads, soundboard flag and recording count are kept up to date
+        by triggers on the recordings table, so they aren't written here.
+    */
+    private static final String[] SHOW_COLUMNS = {
+            ShowsTable.COLUMNS.YEAR,
+            ShowsTable.COLUMNS.DATE,
+            ShowsTable.COLUMNS.LOCATION,
+            ShowsTable.COLUMNS.TITLE,
+            ShowsTable.COLUMNS.SETLIST
+    };
+
+    private static final String[] RECORDING_COLUMNS = {
+            RecordingsTable.COLUMNS.SHOW_ID,
+            RecordingsTable.COLUMNS.IDENTIFIER,
+            RecordingsTable.COLUMNS.DATE,
+            RecordingsTable.COLUMNS.LOCATION,
+            RecordingsTable.COLUMNS.TITLE,
+            RecordingsTable.COLUMNS.SETLIST,
+            RecordingsTable.COLUMNS.PUBLISHER,
+            RecordingsTable.COLUMNS.SOURCE,
+            RecordingsTable.COLUMNS.SOUNDBOARD,
+            RecordingsTable.COLUMNS.RATING,
+            RecordingsTable.COLUMNS.NUM_REVIEWS,
+            RecordingsTable.COLUMNS.DOWNLOADS
+    };
+
+    /** The parameter the row's _id is bound to, after the columns. */
+    private static final int SHOW_ID_PARAM = SHOW_COLUMNS.length + 1;
+    private static final int RECORDING_ID_PARAM = RECORDING_COLUMNS.length + 1;
+
+    private static final String INSERT_SHOW = buildInsert(ShowsTable.NAME, SHOW_COLUMNS);
+    private static final String INSERT_RECORDING = buildInsert(RecordingsTable.NAME, RECORDING_COLUMNS);
+
+    /*
+        Returns a mask of the columns that are different from the batch's values (bit 0 for ?1, and so on),
+        or no row if the row with the given id isn't there (or belongs to another show or recording).
+        It's a single lookup by primary key, so most rows in a sync, which haven't changed, are checked
+        without writing anything. Rows that have changed are updated with only the columns that changed,
+        so the triggers on the other columns (show aggregates, year summaries, search) don't fire.
+    */
+    private static final String CHECK_SHOW = "SELECT " + buildChangedMask(SHOW_COLUMNS) + " FROM " + ShowsTable.NAME +
+            " WHERE " + BaseColumns._ID + " = ?" + SHOW_ID_PARAM + " AND " + ShowsTable.COLUMNS.DATE + " = ?2";
+
+    private static final String CHECK_RECORDING = "SELECT " + buildChangedMask(RECORDING_COLUMNS) + " FROM " + RecordingsTable.NAME +
+            " WHERE " + BaseColumns._ID + " = ?" + RECORDING_ID_PARAM + " AND " + RecordingsTable.COLUMNS.IDENTIFIER + " = ?2";
+
+    private static final String FIND_SHOW = "SELECT " + BaseColumns._ID + " FROM " + ShowsTable.NAME +
+            " WHERE " + ShowsTable.COLUMNS.DATE + " = ?";
+
+    private static final String FIND_RECORDING = "SELECT " + BaseColumns._ID + " FROM " + RecordingsTable.NAME +
+            " WHERE " + RecordingsTable.COLUMNS.IDENTIFIER + " = ?";
+
+    /**
+     * Told each time the writer yields the transaction, which commits what's been written so far.
+     */
+    interface YieldListener {
+        void onYield();
+    }
+
+    private final SQLiteDatabase mDb;
+    private final long mYieldDelay;
+    private final YieldListener mYieldListener;
+
+    /** Update statements, compiled as they're needed, keyed by the mask of columns they set. */
+    private final SparseArray<SQLiteStatement> mShowUpdates = new SparseArray<>();
+    private final SparseArray<SQLiteStatement> mRecordingUpdates = new SparseArray<>();
+
+    private int mYields;
+
+    RecordingsBulkWriter(SQLiteDatabase db, long yieldDelay, YieldListener yieldListener) {
+        mDb = db;
+        mYieldDelay = yieldDelay;
+        mYieldListener = yieldListener;
+    }
+
+    /**
+     * Write every show and recording in the batch, filling in the ids of any new rows.
+     * The Uri's that need to be notified once the transaction is committed are added
+     * to {@code notifications}, for just the shows that were written or had recordings written.
+     * The {@link YieldListener} can send and clear them at each yield.
+     */
+    void write(RecordingsBatch batch, Set<Uri> notifications) {
+        SQLiteStatement insertShow = mDb.compileStatement(INSERT_SHOW);
+        SQLiteStatement insertRecording = mDb.compileStatement(INSERT_RECORDING);
+        SQLiteStatement checkShow = mDb.compileStatement(CHECK_SHOW);
+        SQLiteStatement checkRecording = mDb.compileStatement(CHECK_RECORDING);
+        SQLiteStatement findShow = mDb.compileStatement(FIND_SHOW);
+        SQLiteStatement findRecording = mDb.compileStatement(FIND_RECORDING);
+
+        try {
+            int statementsSinceYield = 0;
+            int recording = 0;
+
+            for (int show = 0; show < batch.showCount; show++) {
+                if (statementsSinceYield >= STATEMENTS_PER_YIELD) {
+                    statementsSinceYield = 0;
+                    if (mDb.yieldIfContendedSafely(mYieldDelay)) {
+                        mYields++;
+                        if (mYieldListener != null) {
+                            mYieldListener.onYield();
+                        }
+                    }
+                }
+
+                boolean showWritten = writeShow(batch, show, insertShow, checkShow, findShow);
+                statementsSinceYield++;
+
+                boolean recordingsWritten = false;
+                while (recording < batch.recordingCount && batch.recordingShows[recording] == show) {
+                    if (writeRecording(batch, recording, batch.showIds[show], insertRecording, checkRecording, findRecording)) {
+                        recordingsWritten = true;
+                    }
+                    statementsSinceYield++;
+                    recording++;
+                }
+
+                //A show's recordings are also counted in its row and its year's summary (by the triggers), so the year changes with them.
+                if (showWritten || recordingsWritten) {
+                    notifications.add(RecordingsContract.Shows.buildShowsByDateUri(batch.showYears[show]));
+                }
+                if (recordingsWritten) {
+                    notifications.add(RecordingsContract.Shows.buildShowUri(batch.showIds[show]));
+                }
+            }
+        } finally {
+            insertShow.close();
+            insertRecording.close();
+            checkShow.close();
+            checkRecording.close();
+            findShow.close();
+            findRecording.close();
+            closeAll(mShowUpdates);
+            closeAll(mRecordingUpdates);
+        }
+    }
+
+    /**
+     * How many times the writer has actually yielded the database to another thread.
+     */
+    int getYieldCount() {
+        return mYields;
+    }
+
+    /**
+     * Update the show in place if it's already in the database, or insert it if it isn't.
+     * Either way, the show keeps the same _id it's always had, and it's saved in the batch.
+     *
+     * @return true if the show was inserted or updated, false if it was already up to date.
+     */
+    private boolean writeShow(RecordingsBatch batch, int i, SQLiteStatement insert, SQLiteStatement check, SQLiteStatement find) {
+        long id = batch.showIds[i];
+        long changed = ROW_MISSING;
+
+        if (id != IdentifierIndex.NO_ID) {
+            changed = checkShow(check, batch, i, id);
+        }
+
+        if (changed == ROW_MISSING) {
+            //The row's gone, or has another show's date, so the id is out of date. Look the show up by its date instead.
+            id = findId(find, batch.showDates[i]);
+            if (id == IdentifierIndex.NO_ID) {
+                bindShow(insert, batch, i);
+                batch.showIds[i] = insert.executeInsert();
+                return true;
+            }
+            changed = checkShow(check, batch, i, id);
+        }
+
+        if (changed != 0) {
+            SQLiteStatement update = getUpdate(mShowUpdates, ShowsTable.NAME, SHOW_COLUMNS, (int) changed);
+            bindShow(update, batch, i);
+            update.bindLong(SHOW_ID_PARAM, id);
+            update.executeUpdateDelete();
+        }
+        batch.showIds[i] = id;
+        return changed != 0;
+    }
+
+    private boolean writeRecording(RecordingsBatch batch, int i, long showId, SQLiteStatement insert, SQLiteStatement check, SQLiteStatement find) {
+        long id = batch.recordingIds[i];
+        long changed = ROW_MISSING;
+
+        if (id != IdentifierIndex.NO_ID) {
+            changed = checkRecording(check, batch, i, showId, id);
+        }
+
+        if (changed == ROW_MISSING) {
+            id = findId(find, batch.recordingIdentifiers[i]);
+            if (id == IdentifierIndex.NO_ID) {
+                bindRecording(insert, batch, i, showId);
+                batch.recordingIds[i] = insert.executeInsert();
+                return true;
+            }
+            changed = checkRecording(check, batch, i, showId, id);
+        }
+
+        if (changed != 0) {
+            SQLiteStatement update = getUpdate(mRecordingUpdates, RecordingsTable.NAME, RECORDING_COLUMNS, (int) changed);
+            bindRecording(update, batch, i, showId);
+            update.bindLong(RECORDING_ID_PARAM, id);
+            update.executeUpdateDelete();
+        }
+        batch.recordingIds[i] = id;
+        return changed != 0;
+    }
+
+    private static long checkShow(SQLiteStatement check, RecordingsBatch batch, int i, long id) {
+        bindShow(check, batch, i);
+        check.bindLong(SHOW_ID_PARAM, id);
+        return checkRow(check);
+    }
+
+    private static long checkRecording(SQLiteStatement check, RecordingsBatch batch, int i, long showId, long id) {
+        bindRecording(check, batch, i, showId);
+        check.bindLong(RECORDING_ID_PARAM, id);
+        return checkRow(check);
+    }
+
+    /**
+     * Run one of the CHECK_* statements, which have already been bound.
+     *
+     * @return the mask of changed columns, or {@link #ROW_MISSING}.
+     */
+    private static long checkRow(SQLiteStatement check) {
+        try {
+            return check.simpleQueryForLong();
+        } catch (SQLiteDoneException ex) {
+            return ROW_MISSING;
+        }
+    }
+
+    /**
+     * The statement that updates just the columns in {@code mask}. Its parameters are numbered the same
+     * as the other statements', so it's bound the same way (the parameters it doesn't use are ignored).
+     */
+    private SQLiteStatement getUpdate(SparseArray<SQLiteStatement> updates, String table, String[] columns, int mask) {
+        SQLiteStatement update = updates.get(mask);
+        if (update == null) {
+            StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+            boolean first = true;
+            for (int c = 0; c < columns.length; c++) {
+                if ((mask & (1 << c)) != 0) {
+                    if (!first) {
+                        sql.append(", ");
+                    }
+                    sql.append(columns[c]).append(" = ?").append(c + 1);
+                    first = false;
+                }
+            }
+            sql.append(" WHERE ").append(BaseColumns._ID).append(" = ?").append(columns.length + 1);
+
+            update = mDb.compileStatement(sql.toString());
+            updates.put(mask, update);
+        }
+        return update;
+    }
+
+    private static void closeAll(SparseArray<SQLiteStatement> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            statements.valueAt(i).close();
+        }
+        statements.clear();
+    }
+
+    private static long findId(SQLiteStatement find, String key) {
+        bindString(find, 1, key);
+        try {
+            return find.simpleQueryForLong();
+        } catch (SQLiteDoneException ex) {
+            return IdentifierIndex.NO_ID;
+        }
+    }
+
+    private static void bindShow(SQLiteStatement statement, RecordingsBatch batch, int i) {
+        bindString(statement, 1, batch.showYears[i]);
+        bindString(statement, 2, batch.showDates[i]);
+        bindString(statement, 3, batch.showLocations[i]);
+        bindString(statement, 4, batch.showTitles[i]);
+        bindString(statement, 5, batch.showSetlists[i]);
+    }
+
+    private static void bindRecording(SQLiteStatement statement, RecordingsBatch batch, int i, long showId) {
+        statement.bindLong(1, showId);
+        bindString(statement, 2, batch.recordingIdentifiers[i]);
+        bindString(statement, 3, batch.recordingDates[i]);
+        bindString(statement, 4, batch.recordingLocations[i]);
+        bindString(statement, 5, batch.recordingTitles[i]);
+        bindString(statement, 6, batch.recordingSetlists[i]);
+        bindString(statement, 7, batch.recordingPublishers[i]);
+        bindString(statement, 8, batch.recordingSources[i]);
+        statement.bindLong(9, batch.recordingSoundboards[i] ? 1 : 0);
+        statement.bindDouble(10, batch.recordingRatings[i]);
+        statement.bindLong(11, batch.recordingNumReviews[i]);
+        statement.bindLong(12, batch.recordingDownloads[i]);
+    }
+
+    private static String buildInsert(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder values = new StringBuilder();
+        for (int c = 0; c < columns.length; c++) {
+            if (c > 0) {
+                sql.append(", ");
+                values.append(", ");
+            }
+            sql.append(columns[c]);
+            values.append('?');
+        }
+        return sql.append(") VALUES (").append(values).append(')').toString();
+    }
+
+    /**
+     * (column1 IS NOT ?1) | ((column2 IS NOT ?2) << 1) | ...
+     */
+    private static String buildChangedMask(String[] columns) {
+        StringBuilder mask = new StringBuilder("(");
+        for (int c = 0; c < columns.length; c++) {
+            if (c > 0) {
+                mask.append(" | ");
+            }
+            mask.append("((").append(columns[c]).append(" IS NOT ?").append(c + 1).append(") << ").append(c).append(')');
+        }
+        return mask.append(')').toString();
+    }
+
+    /**
+     * SQLiteStatement.bindString() throws on a null value, so bind those as NULL.
+     */
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
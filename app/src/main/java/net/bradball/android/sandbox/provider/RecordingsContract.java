@@ -11,6 +11,8 @@ import com.google.gson.annotations.SerializedName;
 import net.bradball.android.sandbox.data.DatabaseSchema;
 import net.bradball.android.sandbox.data.DatabaseSchema.RecordingsTable;
 import net.bradball.android.sandbox.data.DatabaseSchema.ShowsTable;
+import net.bradball.android.sandbox.data.DatabaseSchema.TracksTable;
+import net.bradball.android.sandbox.data.DatabaseSchema.YearSummaryTable;
 
 import org.joda.time.LocalDate;
 import org.joda.time.format.DateTimeFormat;
@@ -35,6 +37,60 @@ public class RecordingsContract {
     public static final String PATH_ARCHIVE_ID = "fromArchiveId";
     public static final String PATH_SHOWS_BY_DATE = "by_date";
     public static final String PATH_TRACK_DOWNLOAD = "download";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_TRACKS = "tracks";
+
+    /**
+     * Optional query parameter for the most rows a query should return.
+     * For example: /recordings/search/cornell?limit=50
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Optional query parameter for paging through shows or recordings: only return the rows
+     * that come after this key. The key is the last row's {@link Shows#PAGE_KEY} or
+     * {@link Recordings#PAGE_KEY} from the previous page. See {@link #withPage(Uri, int, String)}.
+     */
+    public static final String QUERY_PARAMETER_AFTER = "after";
+
+    /** Optional query parameter for recordings: only return soundboards (1). */
+    public static final String QUERY_PARAMETER_SOUNDBOARD = "soundboard";
+
+    /** Optional query parameter for recordings: only return recordings rated at least this high. */
+    public static final String QUERY_PARAMETER_MIN_RATING = "min_rating";
+
+    /**
+     * Provider method ({@link android.content.ContentResolver#call}) that writes a
+     * {@link net.bradball.android.sandbox.data.RecordingsBatch} of shows and recordings,
+     * passed as the extras Bundle. Returns a Bundle with the ids of every row in the batch.
+     */
+    public static final String METHOD_WRITE_RECORDINGS = "write_recordings";
+
+    /**
+     * Provider method that stops the database from checkpointing its write-ahead log automatically
+     * as transactions are committed, so a sync's writes aren't slowed down by checkpoints.
+     * The sync runs {@link #METHOD_CHECKPOINT} itself as it goes, and must call
+     * {@link #METHOD_RESUME_AUTO_CHECKPOINT} when it's done.
+     */
+    public static final String METHOD_PAUSE_AUTO_CHECKPOINT = "pause_auto_checkpoint";
+
+    /**
+     * Provider method that checkpoints as much of the write-ahead log as it can, without waiting on
+     * (or blocking) any queries. Returns a Bundle with {@link #EXTRA_WAL_FRAMES} and {@link #EXTRA_CHECKPOINTED_FRAMES}.
+     */
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+
+    /**
+     * Provider method that checkpoints the write-ahead log (like {@link #METHOD_CHECKPOINT}), and then
+     * turns automatic checkpoints back on.
+     */
+    public static final String METHOD_RESUME_AUTO_CHECKPOINT = "resume_auto_checkpoint";
+
+    /** How many frames (pages) are in the write-ahead log, returned by the checkpoint methods. */
+    public static final String EXTRA_WAL_FRAMES = "wal_frames";
+
+    /** How many of the write-ahead log's frames have been checkpointed into the database. */
+    public static final String EXTRA_CHECKPOINTED_FRAMES = "checkpointed_frames";
 
     public static final String APP_CONTENT_TYPE_NAME = "/vnd.com.net.bradball.android.sandbox.";
     public static final String CONTENT_TYPE_ITEM_BASE = ContentResolver.CURSOR_ITEM_BASE_TYPE + APP_CONTENT_TYPE_NAME;
@@ -52,8 +108,6 @@ public class RecordingsContract {
         }
     }
 
-    public static final String JOIN_SHOWS_RECORDINGS = ShowsTable.NAME + " LEFT OUTER JOIN " + RecordingsTable.NAME + " ON " + ShowsTable.NAME + "." + Shows._ID + " = " + RecordingsTable.NAME + "." + Recordings.SHOW_ID;
-
     interface ShowColumns {
 
         /** Year of the show. */
@@ -71,11 +125,14 @@ public class RecordingsContract {
         /** The Recording's title (usually includes date and location). */
         String TITLE = ShowsTable.COLUMNS.TITLE;
 
-        /** Whether or not a soundboard recording exists for this show, or if this recording is a soundboard. */
+        /** Whether or not a soundboard recording exists for this show. Maintained from the recordings table. */
         String SOUNDBOARD = ShowsTable.COLUMNS.SOUNDBOARD;
 
-        /** The total number of downloads for this show **/
+        /** The total number of downloads for this show. Maintained from the recordings table. **/
         String DOWNLOADS = ShowsTable.COLUMNS.DOWNLOADS;
+
+        /** How many recordings there are of this show. Maintained from the recordings table. */
+        String RECORDING_COUNT = ShowsTable.COLUMNS.RECORDING_COUNT;
     }
 
     interface RecordingColumns {
@@ -119,6 +176,38 @@ public class RecordingsContract {
         String SOURCE = RecordingsTable.COLUMNS.SOURCE;
     }
 
+    interface TrackColumns {
+        /** _ID of the recording from the recordings table. */
+        String RECORDING_ID = TracksTable.COLUMNS.RECORDING_ID;
+
+        /** The track's file path within its recording on archive.org. */
+        String FILENAME = TracksTable.COLUMNS.FILENAME;
+
+        /** The song title. */
+        String TITLE = TracksTable.COLUMNS.TITLE;
+
+        /** The track's number within the recording. */
+        String NUMBER = TracksTable.COLUMNS.NUMBER;
+
+        /** The album the track is from (usually the show's date and location). */
+        String ALBUM = TracksTable.COLUMNS.ALBUM;
+
+        /** The file's bitrate. */
+        String BITRATE = TracksTable.COLUMNS.BITRATE;
+
+        /** How long the track is (mm:ss). */
+        String LENGTH = TracksTable.COLUMNS.LENGTH;
+
+        /** The file's format (i.e. VBR MP3). */
+        String FORMAT = TracksTable.COLUMNS.FORMAT;
+
+        /** The size of the file in bytes. */
+        String SIZE = TracksTable.COLUMNS.SIZE;
+
+        /** The file's md5 checksum. */
+        String MD5 = TracksTable.COLUMNS.MD5;
+    }
+
 
     /**
      * A static class that can be used to build valid URI's for show data
@@ -149,6 +238,12 @@ public class RecordingsContract {
 
         public static final String CONTENT_TYPE_ID = "show";
 
+        /**
+         * The column that pages of shows are ordered (newest first) and keyed by.
+         * The next page of shows is the ones after the last show's date.
+         */
+        public static final String PAGE_KEY = DATE;
+
         public static final String[] PROJECTION = {
                 RecordingsContract.Shows._ID,
                 RecordingsContract.Shows.YEAR,
@@ -158,7 +253,7 @@ public class RecordingsContract {
                 RecordingsContract.Shows.SETLIST,
                 RecordingsContract.Shows.SOUNDBOARD,
                 RecordingsContract.Shows.TITLE,
-                "count(" + DatabaseSchema.RecordingsTable.NAME + "." + RecordingsContract.Recordings.SHOW_ID + ") AS " + BaseColumns._COUNT
+                RecordingsContract.Shows._COUNT
         };
 
         /**
@@ -222,6 +317,33 @@ public class RecordingsContract {
 
 
 
+    /**
+     * Columns for the list of show years (Path: /by_date).
+     * Each row is a summary of one year, kept up to date as shows are written.
+     */
+    public static class ShowYears implements BaseColumns {
+        public static final Uri CONTENT_URI = Shows.SHOW_YEARS_URI;
+
+        /** The year. */
+        public static final String YEAR = YearSummaryTable.COLUMNS.YEAR;
+
+        /** How many shows there are in the year. Also available as _count. */
+        public static final String SHOW_COUNT = YearSummaryTable.COLUMNS.SHOW_COUNT;
+
+        /** How many recordings there are of all the shows in the year. */
+        public static final String RECORDING_COUNT = YearSummaryTable.COLUMNS.RECORDING_COUNT;
+
+        /** How many shows in the year have a soundboard recording. */
+        public static final String SOUNDBOARD_COUNT = YearSummaryTable.COLUMNS.SOUNDBOARD_COUNT;
+
+        public static final String[] PROJECTION = {
+                YEAR,
+                SHOW_COUNT,
+                RECORDING_COUNT,
+                SOUNDBOARD_COUNT
+        };
+    }
+
     public static class Track {
         public static final Uri CONTENT_URI = Uri.parse("http://" + TRACK_AUTHORITY);
 
@@ -235,6 +357,41 @@ public class RecordingsContract {
         }
     }
 
+    /**
+     * The tracks of recordings that have been opened (they're saved when they're fetched from archive.org).
+     *
+     * Path: /recordings/ID/tracks
+     * Returns: A directory of the tracks for the recording who's _id field matches the given ID, in track order.
+     *          Tracks are inserted here too.
+     */
+    public static class Tracks implements TrackColumns, BaseColumns {
+        public static final String CONTENT_TYPE_ID = "track";
+
+        public static final String DEFAULT_SORT = NUMBER + ", " + FILENAME;
+
+        public static final String[] PROJECTION = {
+                RecordingsContract.Tracks._ID,
+                RecordingsContract.Tracks.RECORDING_ID,
+                RecordingsContract.Tracks.FILENAME,
+                RecordingsContract.Tracks.TITLE,
+                RecordingsContract.Tracks.NUMBER,
+                RecordingsContract.Tracks.ALBUM,
+                RecordingsContract.Tracks.BITRATE,
+                RecordingsContract.Tracks.LENGTH,
+                RecordingsContract.Tracks.FORMAT,
+                RecordingsContract.Tracks.SIZE,
+                RecordingsContract.Tracks.MD5
+        };
+
+        public static Uri buildRecordingTracksUri(long recordingID) {
+            return Recordings.buildRecordingUri(recordingID).buildUpon().appendPath(PATH_TRACKS).build();
+        }
+
+        public static String getRecordingID(Uri uri) {
+            return Recordings.getRecordingID(uri);
+        }
+    }
+
     /**
      * A static class that can be used to build valid URI's for recording data.
      * The returned URI's can be used to make queries to the RecordingsProvider
@@ -243,7 +400,7 @@ public class RecordingsContract {
      * Possible URI Paths:
      *
      * Path: /recordings
-     * Returns: A directory of all recordings  (THIS WILL BE BIG!)
+     * Returns: A directory of all recordings  (THIS WILL BE BIG! Use {@link RecordingsContract#withPage} to page through it)
      **
      * Path: /recordings/IDENTIFIER
      * Returns: A recording item for the given archive.org identifier
@@ -251,11 +408,25 @@ public class RecordingsContract {
      * Path: /recordings/ID
      * Returns: An item with data for the recording who's _id field matches the given ID
      *
+     * Path: /recordings/random
+     * Returns: A random recording. Like /recordings, it can be filtered with the
+     *          soundboard and min_rating query parameters (see {@link #withFilters}).
+     *
+     * Path: /recordings/search/QUERY
+     * Returns: A directory of recordings whose title, location, setlist, source or date
+     *          contain every word in the query (words can be partial, "scar fire 77" works).
+     *
      */
     public static class Recordings implements RecordingColumns, BaseColumns {
         public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_RECORDINGS).build();
         public static final String CONTENT_TYPE_ID = "recording";
 
+        /**
+         * The column that pages of recordings are ordered and keyed by.
+         * The next page of recordings is the ones after the last recording's _id.
+         */
+        public static final String PAGE_KEY = _ID;
+
         public static final String[] PROJECTION = {
                 RecordingsContract.Recordings._ID,
                 RecordingsContract.Recordings.IDENTIFIER,
@@ -287,6 +458,41 @@ public class RecordingsContract {
             return CONTENT_URI.buildUpon().appendPath("random").build();
         }
 
+        public static Uri buildRandomRecordingUri(boolean soundboardOnly, float minRating) {
+            return withFilters(buildRandomRecordingUri(), soundboardOnly, minRating);
+        }
+
+        /**
+         * Add filters to a /recordings or /recordings/random uri.
+         *
+         * @param soundboardOnly - only include soundboard recordings.
+         * @param minRating - only include recordings with at least this rating (0 for any rating).
+         */
+        public static Uri withFilters(Uri uri, boolean soundboardOnly, float minRating) {
+            Uri.Builder builder = uri.buildUpon();
+            if (soundboardOnly) {
+                builder.appendQueryParameter(QUERY_PARAMETER_SOUNDBOARD, "1");
+            }
+            if (minRating > 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MIN_RATING, Float.toString(minRating));
+            }
+            return builder.build();
+        }
+
+        /** Build a Uri to search recordings for the given text. */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).appendPath(query).build();
+        }
+
+        /** Get the search text from a search uri. */
+        public static String getSearchQuery(Uri uri) {
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() > 2)
+                return segments.get(2);
+            else
+                return null;
+        }
+
 
         public static String getRecordingArchiveID(Uri uri) {
             List<String> segments = uri.getPathSegments();
@@ -305,6 +511,26 @@ public class RecordingsContract {
         }
     }
 
+    /**
+     * Get a page of a directory of shows (/shows, /by_date/YEAR, /shows/ID/recordings) or recordings (/recordings).
+     *
+     * Paged queries are always in the page key's order (see {@link Shows#PAGE_KEY} and {@link Recordings#PAGE_KEY}),
+     * and are found with an index seek to the key, rather than by skipping over the rows on the pages before it,
+     * so every page costs the same no matter how far into the list it is. Pass a null sort order when querying
+     * a page (or the page key's own order). Any other order throws an IllegalArgumentException.
+     *
+     * @param limit - the most rows to return.
+     * @param afterKey - the page key of the last row on the previous page, or null for the first page.
+     */
+    public static Uri withPage(Uri uri, int limit, String afterKey) {
+        Uri.Builder builder = uri.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit));
+        if (afterKey != null) {
+            builder.appendQueryParameter(QUERY_PARAMETER_AFTER, afterKey);
+        }
+        return builder.build();
+    }
+
     public static String makeContentType(String id, boolean isItem) {
         if (id == null)
             return null;
@@ -7,20 +7,65 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import net.bradball.android.sandbox.data.DatabaseHelper;
 import net.bradball.android.sandbox.data.DatabaseSchema;
+import net.bradball.android.sandbox.data.RecordingsBatch;
 import net.bradball.android.sandbox.util.LogHelper;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
 
 public class RecordingsProvider extends ContentProvider {
     private static final String TAG = LogHelper.makeLogTag(RecordingsProvider.class);
+
+    /**
+     * The most operations we'll apply in a batch without a chance to yield the database to other threads.
+     */
+    private static final int MAX_OPERATIONS_PER_YIELD_POINT = 1000;
+
+    /**
+     * How long (ms) the sync's bulk writes wait after yielding the database, so a thread that's waiting
+     * to write (like saving a recording's tracks) can get its transaction in before the next page's.
+     */
+    private static final long BULK_WRITE_YIELD_DELAY = 5;
+
+    /**
+     * While a batch is being applied on a thread, this holds the set of Uri's that need to be
+     * notified once the batch is done. Outside of a batch it's null, and changes are notified right away.
+     */
+    private final ThreadLocal<Set<Uri>> mBatchNotifications = new ThreadLocal<>();
+
+    /**
+     * While a batch is being applied on a thread, the statements its inserts compile (keyed by their SQL),
+     * so each one is only compiled once for the whole batch, like {@link RecordingsBulkWriter} does.
+     * Outside of a batch it's null, and statements are closed as soon as they've been run.
+     */
+    private final ThreadLocal<HashMap<String, SQLiteStatement>> mBatchStatements = new ThreadLocal<>();
+
+    private final Random mRandom = new Random();
+
+    /**
+     * How often (in pages) the database checkpoints its write-ahead log on its own,
+     * restored when the sync is done. SQLite's default is 1000.
+     */
+    private long mAutoCheckpointPages = 1000;
+
     private DatabaseHelper mDatabaseHelper;
     private RecordingUriMatcher mRecordingUriMatcher;
     private Context mContext;
@@ -33,44 +78,320 @@ public class RecordingsProvider extends ContentProvider {
         return true;
     }
 
+    /**
+     * Only used by tests, so each test gets its own database connections.
+     */
+    @Override
+    public void shutdown() {
+        mDatabaseHelper.close();
+        super.shutdown();
+    }
+
     @Nullable
     @Override
     public Cursor query(Uri uri, String[] columns, String where, String[] whereArgs, String sortOrder) {
         final SQLiteDatabase db = mDatabaseHelper.getReadableDatabase();
+        Cursor cursor;
 
-        final SelectionBuilder builder = createBaseQuery(uri);
+        final RecordingUrisEnum uriEnum = mRecordingUriMatcher.matchUri(uri);
 
-        if (where != null) {
-            builder.where(where, whereArgs);
-        }
+        if (uriEnum == RecordingUrisEnum.RECORDING_RANDOM) {
+            cursor = queryRandomRecording(db, uri, columns, where, whereArgs);
+        } else {
+            final SelectionBuilder builder = createBaseQuery(uri);
+
+            if (where != null) {
+                builder.where(where, whereArgs);
+            }
 
-        Cursor cursor = builder.query(db, false, columns, sortOrder, null);
+            String limit = uri.getQueryParameter(RecordingsContract.QUERY_PARAMETER_LIMIT);
+            String orderBy = (limit == null) ? sortOrder : applyPage(builder, uriEnum, uri, sortOrder);
+
+            cursor = builder.query(db, false, columns, orderBy, limit);
+        }
         cursor.setNotificationUri(mContext.getContentResolver(), uri);
 
         return cursor;
     }
 
+    /**
+     * Keyset pagination (see {@link RecordingsContract#withPage}). A page of shows is ordered by date, newest
+     * first, and starts after the date in the "after" parameter. The shows_year_date index (or the unique date
+     * index, for all shows) has them in that order already. A page of recordings is ordered by _id, and starts
+     * after the _id in the "after" parameter, so it's a primary key seek (or for a show's recordings, a handful of rows).
+     *
+     * @return the order the page needs to be in. Other uris aren't keyed, so they keep {@code sortOrder}.
+     * @throws IllegalArgumentException if a keyed page is asked for in some other order.
+     */
+    private static String applyPage(SelectionBuilder builder, RecordingUrisEnum uriEnum, Uri uri, String sortOrder) {
+        String after = uri.getQueryParameter(RecordingsContract.QUERY_PARAMETER_AFTER);
+        String pageOrder;
+
+        switch (uriEnum) {
+            case SHOWS:
+            case SHOWS_BY_YEAR:
+            case SHOWS_BY_DATE:
+                if (after != null) {
+                    builder.where(RecordingsContract.Shows.PAGE_KEY + " < ?", after);
+                }
+                pageOrder = RecordingsContract.Shows.PAGE_KEY + " DESC";
+                break;
+
+            case SHOW_RECORDINGS:
+            case RECORDINGS:
+                if (after != null) {
+                    builder.where(RecordingsContract.Recordings.PAGE_KEY + " > ?", after);
+                }
+                pageOrder = RecordingsContract.Recordings.PAGE_KEY;
+                break;
+
+            default:
+                return sortOrder;
+        }
+
+        if (sortOrder != null && !sortOrder.trim().equalsIgnoreCase(pageOrder)) {
+            throw new IllegalArgumentException("Pages of " + uri.getPath() + " are always ordered by " + pageOrder + ", not " + sortOrder);
+        }
+        return pageOrder;
+    }
+
+    /**
+     * Pick a random recording without sorting (or even reading) the whole table. Pick a random _id
+     * between the lowest and highest, then seek to the first matching recording at or after it
+     * (or if there isn't one, the closest one before it). Every step is a primary key lookup.
+     *
+     * Recordings right after a gap in the _ids are a little more likely to be picked, which is fine for shuffling.
+     * With a filter that very few recordings match, the seek may have to step over a lot of rows,
+     * but that's still a lot less than ORDER BY RANDOM(), which reads and sorts the entire table.
+     */
+    private Cursor queryRandomRecording(SQLiteDatabase db, Uri uri, String[] columns, String where, String[] whereArgs) {
+        //Two separate queries, SQLite only uses the primary key for min() or max() when it's on its own.
+        long minId = DatabaseUtils.longForQuery(db, "SELECT min(" + BaseColumns._ID + ") FROM " + DatabaseSchema.RecordingsTable.NAME, null);
+        long maxId = DatabaseUtils.longForQuery(db, "SELECT max(" + BaseColumns._ID + ") FROM " + DatabaseSchema.RecordingsTable.NAME, null);
+        String pivot = Long.toString(minId + (long) (mRandom.nextDouble() * (maxId - minId + 1)));
+
+        Cursor cursor = createBaseQuery(uri)
+                .where(where, whereArgs)
+                .where(BaseColumns._ID + " >= ?", pivot)
+                .query(db, false, columns, BaseColumns._ID, "1");
+
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            cursor = createBaseQuery(uri)
+                    .where(where, whereArgs)
+                    .where(BaseColumns._ID + " < ?", pivot)
+                    .query(db, false, columns, BaseColumns._ID + " DESC", "1");
+        }
+
+        return cursor;
+    }
+
+    /**
+     * Apply the soundboard and min_rating filters from a recordings uri, if there are any.
+     */
+    private static void addRecordingFilters(SelectionBuilder builder, Uri uri) {
+        if ("1".equals(uri.getQueryParameter(RecordingsContract.QUERY_PARAMETER_SOUNDBOARD))) {
+            builder.where(RecordingsContract.Recordings.SOUNDBOARD + " = 1");
+        }
+
+        String minRating = uri.getQueryParameter(RecordingsContract.QUERY_PARAMETER_MIN_RATING);
+        if (minRating != null) {
+            builder.where(RecordingsContract.Recordings.RATING + " >= ?", minRating);
+        }
+    }
+
+    /**
+     * Apply a batch of operations inside a single transaction, so that a page of sync results
+     * costs one journal commit rather than one per row.
+     *
+     * Operations built with {@link ContentProviderOperation.Builder#withYieldAllowed(boolean)} mark
+     * the points where the batch may be split up. At each one, if another thread is waiting on
+     * the database (a browse query, for example), we commit what we have so far and let it in
+     * before carrying on in a new transaction. If an operation fails, everything since the
+     * last yield point is rolled back.
+     *
+     * Change notifications are held until the changes are committed (at a yield, or the end of the batch),
+     * and then sent once for each distinct show year / show that was touched, rather than once for every row.
+     * Changes that are rolled back aren't notified.
+     */
     @NonNull
     @Override
     public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
             throws OperationApplicationException {
 
         final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
-        //db.beginTransaction();
+        final Set<Uri> notifications = new HashSet<>();
+        final HashMap<String, SQLiteStatement> statements = new HashMap<>();
+        mBatchNotifications.set(notifications);
+        mBatchStatements.set(statements);
+        boolean successful = false;
+        db.beginTransaction();
         try {
             final int numOperations = operations.size();
             final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+            int opsSinceYield = 0;
+            int yields = 0;
             for (int i = 0; i < numOperations; i++) {
                 ContentProviderOperation operation = operations.get(i);
+
+                if (i > 0 && operation.isYieldAllowed()) {
+                    opsSinceYield = 0;
+                    //Just long enough to let a waiting thread in. The batch picks up as soon as it's done.
+                    if (db.yieldIfContendedSafely()) {
+                        yields++;
+                        //Everything before the yield point has been committed.
+                        sendNotifications(notifications);
+                    }
+                }
+
+                if (++opsSinceYield > MAX_OPERATIONS_PER_YIELD_POINT) {
+                    throw new OperationApplicationException(
+                            "Too many content provider operations between yield points. "
+                                    + "The maximum number of operations per yield point is "
+                                    + MAX_OPERATIONS_PER_YIELD_POINT, i);
+                }
+
                 results[i] = operation.apply(this, results, i);
             }
-            //db.setTransactionSuccessful();
+            db.setTransactionSuccessful();
+            successful = true;
+            LogHelper.d(TAG, "Applied batch of ", numOperations, " operations, yielded ", yields, " times");
             return results;
         } finally {
-            //db.endTransaction();
+            db.endTransaction();
+            mBatchNotifications.remove();
+            mBatchStatements.remove();
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+
+            //If the batch failed, what's left was rolled back (what was committed at a yield has already been notified).
+            if (successful) {
+                sendNotifications(notifications);
+            }
+        }
+    }
+
+    /**
+     * Handles the provider methods used by the sync:
+     * {@link RecordingsContract#METHOD_WRITE_RECORDINGS}, and the write-ahead log checkpoint methods.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        switch (method) {
+            case RecordingsContract.METHOD_WRITE_RECORDINGS:
+                return writeRecordings(extras);
+            case RecordingsContract.METHOD_PAUSE_AUTO_CHECKPOINT:
+                pauseAutoCheckpoint();
+                return null;
+            case RecordingsContract.METHOD_CHECKPOINT:
+                return checkpoint();
+            case RecordingsContract.METHOD_RESUME_AUTO_CHECKPOINT:
+                Bundle result = checkpoint();
+                resumeAutoCheckpoint();
+                return result;
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /**
+     * The bulk write path used by the sync.
+     *
+     * The whole batch is written in one transaction with pre-compiled statements (see {@link RecordingsBulkWriter}),
+     * yielding to other threads between shows. Observers are notified of each part of the batch once it's
+     * committed (at a yield, or the end of the batch), and not at all of a part that's rolled back.
+     */
+    private Bundle writeRecordings(Bundle extras) {
+        final RecordingsBatch batch = RecordingsBatch.fromBundle(extras);
+        final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        final Set<Uri> notifications = new HashSet<>();
+        final RecordingsBulkWriter writer = new RecordingsBulkWriter(db, BULK_WRITE_YIELD_DELAY, new RecordingsBulkWriter.YieldListener() {
+            @Override
+            public void onYield() {
+                sendNotifications(notifications);
+            }
+        });
+
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            writer.write(batch, notifications);
+            db.setTransactionSuccessful();
+            successful = true;
+            LogHelper.d(TAG, "Wrote batch of ", batch.showCount, " shows and ", batch.recordingCount,
+                    " recordings, yielded ", writer.getYieldCount(), " times");
+        } finally {
+            db.endTransaction();
+
+            if (successful) {
+                sendNotifications(notifications);
+            }
+        }
+
+        return batch.getIdsBundle();
+    }
+
+    /*
+        The automatic checkpoint setting belongs to a database connection, and it's the connection that
+        commits a transaction that runs the checkpoint, so it has to be set on the primary (writing) connection.
+        A PRAGMA on its own could be handed any connection in the pool, but a thread that's in a transaction
+        holds the primary connection until it ends, so the PRAGMAs are run inside one.
+    */
+    private synchronized void pauseAutoCheckpoint() {
+        final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            long pages = DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint", null);
+            if (pages > 0) {
+                mAutoCheckpointPages = pages;
+            }
+            DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint = 0", null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
+        LogHelper.d(TAG, "Paused automatic checkpoints (was every ", mAutoCheckpointPages, " pages)");
     }
 
+    private synchronized void resumeAutoCheckpoint() {
+        final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint = " + mAutoCheckpointPages, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        LogHelper.d(TAG, "Resumed automatic checkpoints every ", mAutoCheckpointPages, " pages");
+    }
+
+    /**
+     * A PASSIVE checkpoint copies whatever it can from the log into the database without waiting for
+     * queries that are still reading older pages, so it never blocks browsing. The rest of the
+     * log is picked up by the next checkpoint.
+     */
+    private Bundle checkpoint() {
+        final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        final Bundle result = new Bundle();
+        long start = SystemClock.elapsedRealtime();
+
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            //Columns are: busy, log frames, checkpointed frames.
+            if (cursor.moveToFirst()) {
+                result.putInt(RecordingsContract.EXTRA_WAL_FRAMES, cursor.getInt(1));
+                result.putInt(RecordingsContract.EXTRA_CHECKPOINTED_FRAMES, cursor.getInt(2));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        LogHelper.d(TAG, "Checkpointed ", result.getInt(RecordingsContract.EXTRA_CHECKPOINTED_FRAMES), " of ",
+                result.getInt(RecordingsContract.EXTRA_WAL_FRAMES), " frames in ", SystemClock.elapsedRealtime() - start, "ms");
+        return result;
+    }
 
     @Nullable
     @Override
@@ -84,10 +405,10 @@ public class RecordingsProvider extends ContentProvider {
             throw new IllegalArgumentException("Given uri does not support insert: " + uri);
         }
 
-        rowId = db.insertOrThrow(uriEnum.table, null, values);
+        rowId = upsert(db, uriEnum.table, values);
 
         if (rowId > 0) {
-            notifyChange(uri);
+            notifyChange(uri, uriEnum, values);
         }
 
         switch (uriEnum) {
@@ -96,6 +417,8 @@ public class RecordingsProvider extends ContentProvider {
                 return RecordingsContract.Shows.buildShowUri(rowId);
             case RECORDINGS:
                 return RecordingsContract.Recordings.buildRecordingUri(rowId);
+            case RECORDING_TRACKS:
+                return uri;
             default: {
                 throw new IllegalArgumentException("Unknown insert uri: " + uri);
             }
@@ -131,7 +454,7 @@ public class RecordingsProvider extends ContentProvider {
 
         int rowsChanged = builder.update(db, values);
         if (rowsChanged > 0)
-            notifyChange(uri);
+            notifyChange(uri, uriEnum, values);
         return rowsChanged;
 
     }
@@ -143,7 +466,7 @@ public class RecordingsProvider extends ContentProvider {
 
         int rowsDeleted = builder.where(selection, selectionArgs).delete(db);
         if (rowsDeleted > 0)
-            notifyChange(uri);
+            notifyChange(uri, mRecordingUriMatcher.matchUri(uri), null);
         return rowsDeleted;
     }
 
@@ -155,6 +478,193 @@ public class RecordingsProvider extends ContentProvider {
         return matchingUriEnum.contentType;
     }
 
+    /**
+     * Insert a row, or if there's already a row with the same unique key (a show's date, or a
+     * recording's identifier), update that row in place. The existing row keeps its _id, and
+     * anything that isn't in {@code values} (like available_offline) is left alone.
+     *
+     * @return the _id of the inserted or updated row.
+     */
+    private long upsert(SQLiteDatabase db, String table, ContentValues values) {
+        String keyColumn = getKeyColumn(table);
+        String key = (keyColumn == null) ? null : values.getAsString(keyColumn);
+
+        if (key != null) {
+            long rowId = findRowId(db, table, keyColumn, key);
+            if (rowId > 0) {
+                updateChangedColumns(db, table, rowId, values);
+                return rowId;
+            }
+        }
+
+        return db.insertOrThrow(table, null, values);
+    }
+
+    private static String getKeyColumn(String table) {
+        switch (table) {
+            case DatabaseSchema.ShowsTable.NAME:
+                return DatabaseSchema.ShowsTable.COLUMNS.DATE;
+            case DatabaseSchema.RecordingsTable.NAME:
+                return DatabaseSchema.RecordingsTable.COLUMNS.IDENTIFIER;
+            default:
+                return null;
+        }
+    }
+
+    private long findRowId(SQLiteDatabase db, String table, String keyColumn, String key) {
+        SQLiteStatement statement = acquireStatement(db, "SELECT " + BaseColumns._ID + " FROM " + table + " WHERE " + keyColumn + " = ?");
+        try {
+            statement.bindString(1, key);
+            return statement.simpleQueryForLong();
+        } catch (SQLiteDoneException ex) {
+            return -1;
+        } finally {
+            releaseStatement(statement);
+        }
+    }
+
+    /**
+     * Update a row with {@code values}, but only the columns that are different from what's already
+     * in the row. So re-syncing an unchanged row doesn't write anything, and a change to one column
+     * doesn't fire the update triggers on the others.
+     *
+     * @return the number of rows changed (0 or 1).
+     */
+    private int updateChangedColumns(SQLiteDatabase db, String table, long rowId, ContentValues values) {
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        String[] columns = values.keySet().toArray(new String[values.size()]);
+
+        //A mask of the columns that changed: (column1 IS NOT ?) | ((column2 IS NOT ?) << 1) | ...
+        StringBuilder mask = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                mask.append(" | ");
+            }
+            mask.append("((").append(columns[i]).append(" IS NOT ?) << ").append(i).append(')');
+        }
+
+        long changed;
+        SQLiteStatement check = acquireStatement(db, "SELECT " + mask + " FROM " + table + " WHERE " + BaseColumns._ID + " = ?");
+        try {
+            for (int i = 0; i < columns.length; i++) {
+                DatabaseUtils.bindObjectToProgram(check, i + 1, values.get(columns[i]));
+            }
+            check.bindLong(columns.length + 1, rowId);
+            changed = check.simpleQueryForLong();
+        } catch (SQLiteDoneException ex) {
+            return 0;
+        } finally {
+            releaseStatement(check);
+        }
+
+        if (changed == 0) {
+            return 0;
+        }
+
+        StringBuilder set = new StringBuilder();
+        ArrayList<Object> args = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            if ((changed & (1L << i)) != 0) {
+                if (!args.isEmpty()) {
+                    set.append(", ");
+                }
+                set.append(columns[i]).append(" = ?");
+                args.add(values.get(columns[i]));
+            }
+        }
+        args.add(rowId);
+
+        SQLiteStatement update = acquireStatement(db, "UPDATE " + table + " SET " + set + " WHERE " + BaseColumns._ID + " = ?");
+        try {
+            for (int i = 0; i < args.size(); i++) {
+                DatabaseUtils.bindObjectToProgram(update, i + 1, args.get(i));
+            }
+            return update.executeUpdateDelete();
+        } finally {
+            releaseStatement(update);
+        }
+    }
+
+    /**
+     * Get a compiled statement for {@code sql}, from the batch's statements if a batch is being
+     * applied on this thread. Every statement has to be handed back with {@link #releaseStatement(SQLiteStatement)}.
+     */
+    private SQLiteStatement acquireStatement(SQLiteDatabase db, String sql) {
+        HashMap<String, SQLiteStatement> statements = mBatchStatements.get();
+        if (statements == null) {
+            return db.compileStatement(sql);
+        }
+
+        SQLiteStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Close a statement from {@link #acquireStatement(SQLiteDatabase, String)}, unless it belongs to a batch,
+     * in which case it's closed when the batch is done.
+     */
+    private void releaseStatement(SQLiteStatement statement) {
+        if (mBatchStatements.get() == null) {
+            statement.close();
+        }
+    }
+
+    /**
+     * Notify observers of a change to {@code uri}. If a batch is being applied on this thread,
+     * the notification is deferred until the batch is done. In that case, the Uri that gets
+     * notified is the one observers actually care about (the show year for a show, or the show
+     * for a recording), so that a batch of thousands of rows only sends a handful of notifications.
+     */
+    private void notifyChange(Uri uri, RecordingUrisEnum uriEnum, ContentValues values) {
+        Set<Uri> batchNotifications = mBatchNotifications.get();
+        if (batchNotifications == null) {
+            notifyChange(uri);
+            return;
+        }
+
+        Uri notifyUri = uri;
+        if (values != null) {
+            switch (uriEnum) {
+                case SHOWS:
+                case SHOWS_BY_ID:
+                    if (values.containsKey(RecordingsContract.Shows.YEAR)) {
+                        notifyUri = RecordingsContract.Shows.buildShowsByDateUri(values.getAsString(RecordingsContract.Shows.YEAR));
+                    } else {
+                        notifyUri = RecordingsContract.Shows.CONTENT_URI;
+                    }
+                    break;
+                case RECORDINGS:
+                case RECORDING_BY_ID:
+                case RECORDING_BY_ARCHIVE:
+                    if (values.containsKey(RecordingsContract.Recordings.SHOW_ID)) {
+                        notifyUri = RecordingsContract.Shows.buildShowUri(values.getAsLong(RecordingsContract.Recordings.SHOW_ID));
+                    } else {
+                        notifyUri = RecordingsContract.Recordings.CONTENT_URI;
+                    }
+                    break;
+            }
+        }
+
+        batchNotifications.add(notifyUri);
+    }
+
+    /**
+     * Notify observers of the changes a batch has committed, and clear them so they aren't notified again.
+     */
+    private void sendNotifications(Set<Uri> notifications) {
+        for (Uri uri : notifications) {
+            notifyChange(uri);
+        }
+        notifications.clear();
+    }
+
     private void notifyChange(Uri uri) {
         mContext.getContentResolver().notifyChange(uri, null, false);
 
@@ -165,6 +675,31 @@ public class RecordingsProvider extends ContentProvider {
 
 
 
+    /**
+     * Turn what the user typed into an FTS MATCH expression: every word has to be found,
+     * and each one can be the start of a word ("scarlet > fire 1977" becomes "scarlet* fire* 1977*").
+     * Anything that isn't a letter or digit is dropped, so the user can't type FTS syntax by accident.
+     *
+     * @return the MATCH expression, or null if there aren't any words to search for.
+     */
+    private static String buildMatchQuery(String query) {
+        if (query == null) {
+            return null;
+        }
+
+        StringBuilder match = new StringBuilder();
+        for (String word : query.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() > 0) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(word).append('*');
+            }
+        }
+
+        return (match.length() > 0) ? match.toString() : null;
+    }
+
     private SelectionBuilder createBaseQuery(Uri uri) {
         RecordingUrisEnum uriEnum = mRecordingUriMatcher.matchUri(uri);
         SelectionBuilder builder = new SelectionBuilder();
@@ -173,11 +708,13 @@ public class RecordingsProvider extends ContentProvider {
 
         switch(uriEnum) {
             case SHOWS:
-                builder.table(DatabaseSchema.ShowsTable.NAME);
+                builder.table(DatabaseSchema.ShowsTable.NAME)
+                        .map(RecordingsContract.Shows._COUNT, RecordingsContract.Shows.RECORDING_COUNT);
                 break;
 
             case SHOWS_BY_ID:
                 builder.table(DatabaseSchema.ShowsTable.NAME)
+                        .map(RecordingsContract.Shows._COUNT, RecordingsContract.Shows.RECORDING_COUNT)
                         .where(RecordingsContract.Shows._ID + "=?", RecordingsContract.Shows.getShowIdentifier(uri));
                 break;
 
@@ -187,29 +724,25 @@ public class RecordingsProvider extends ContentProvider {
                 break;
 
             case SHOW_YEARS:
-                builder.table(DatabaseSchema.ShowsTable.NAME)
-                        .map(RecordingsContract.Shows._COUNT, "count(" + RecordingsContract.Shows._ID + ")")
-                        .groupBy(RecordingsContract.Shows.YEAR);
+                //One row per year, kept up to date by triggers on the shows table.
+                builder.table(DatabaseSchema.YearSummaryTable.NAME)
+                        .map(RecordingsContract.ShowYears._ID, "rowid")
+                        .map(RecordingsContract.ShowYears._COUNT, RecordingsContract.ShowYears.SHOW_COUNT);
                 break;
 
             case SHOWS_BY_YEAR:
             case SHOWS_BY_DATE:
-
-                builder.table(RecordingsContract.JOIN_SHOWS_RECORDINGS)
-                        .mapToTable(RecordingsContract.Shows.DATE, DatabaseSchema.ShowsTable.NAME)
-                        .mapToTable(RecordingsContract.Shows.DOWNLOADS, DatabaseSchema.ShowsTable.NAME)
-                        .mapToTable(RecordingsContract.Shows.LOCATION, DatabaseSchema.ShowsTable.NAME)
-                        .mapToTable(RecordingsContract.Shows.SETLIST, DatabaseSchema.ShowsTable.NAME)
-                        .mapToTable(RecordingsContract.Shows.SOUNDBOARD, DatabaseSchema.ShowsTable.NAME)
-                        .mapToTable(RecordingsContract.Shows.TITLE, DatabaseSchema.ShowsTable.NAME)
-                        .mapToTable(RecordingsContract.Shows._ID, DatabaseSchema.ShowsTable.NAME)
-                        .groupBy(DatabaseSchema.ShowsTable.NAME + "." + RecordingsContract.Shows._ID);
+                //The recording count, downloads and soundboard flag are kept up to date on
+                //the shows table by triggers, so there's no need to join the recordings.
+                builder.table(DatabaseSchema.ShowsTable.NAME)
+                        .map(RecordingsContract.Shows._COUNT, RecordingsContract.Shows.RECORDING_COUNT);
                 break;
 
 
             case RECORDINGS:
             case RECORDING_RANDOM:
                 builder.table(DatabaseSchema.RecordingsTable.NAME);
+                addRecordingFilters(builder, uri);
                 break;
 
             case RECORDING_BY_ARCHIVE:
@@ -222,6 +755,26 @@ public class RecordingsProvider extends ContentProvider {
                         .where(RecordingsContract.Recordings._ID + "=?", RecordingsContract.Recordings.getRecordingID(uri));
                 break;
 
+            case RECORDING_SEARCH:
+                //The full text index finds the matching docids (recording _ids), then it's
+                //just a primary key lookup for each one.
+                String match = buildMatchQuery(RecordingsContract.Recordings.getSearchQuery(uri));
+                if (match == null) {
+                    builder.table(DatabaseSchema.RecordingsTable.NAME).where("0");
+                } else {
+                    builder.table(DatabaseSchema.RecordingsTable.NAME)
+                            .where(RecordingsContract.Recordings._ID + " IN (SELECT " + DatabaseSchema.RecordingsSearchTable.DOCID +
+                                    " FROM " + DatabaseSchema.RecordingsSearchTable.NAME +
+                                    " WHERE " + DatabaseSchema.RecordingsSearchTable.NAME + " MATCH ?)", match);
+                }
+                break;
+
+            case RECORDING_TRACKS:
+                //Uses the tracks table's (recording_id, filename) unique index.
+                builder.table(DatabaseSchema.TracksTable.NAME)
+                        .where(RecordingsContract.Tracks.RECORDING_ID + "=?", RecordingsContract.Tracks.getRecordingID(uri));
+                break;
+
         }
 
         return builder;
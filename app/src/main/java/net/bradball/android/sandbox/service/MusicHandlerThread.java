@@ -5,6 +5,8 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.database.ContentObserver;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
@@ -34,10 +36,14 @@ public class MusicHandlerThread extends HandlerThread {
     private static final int MESSAGE_LOAD_RECORDING = 4;
     private static final int MESSAGE_CLEAR_CACHE = 5;
 
+    /** Page size for browsers that ask for a page, but not how big it should be. */
+    private static final int DEFAULT_PAGE_SIZE = 50;
+
     private final Context mContext;
     private final MusicLoader mMusicLoader;
     private final Resources mResources;
     private final MusicContentObserver mMusicContentObserver;
+    private final ShuffleObserver mShuffleObserver;
     private final ArrayList<String> mObservedMediaIds;
 
     private Handler mHandler;
@@ -61,6 +67,11 @@ public class MusicHandlerThread extends HandlerThread {
         mResponseHandler = responseHandler;
         mResources = context.getResources();
         mObservedMediaIds = new ArrayList<>();
+
+        //A sync notifies the shows and recordings it wrote, so random picks start a new shuffle that includes them.
+        mShuffleObserver = new ShuffleObserver();
+        mContext.getContentResolver().registerContentObserver(RecordingsContract.Shows.CONTENT_URI, true, mShuffleObserver);
+        mContext.getContentResolver().registerContentObserver(RecordingsContract.Recordings.CONTENT_URI, true, mShuffleObserver);
     }
 
     public void setMediaLoadedCallback(MediaLoadedCallback mediaLoadedCallback) {
@@ -68,12 +79,26 @@ public class MusicHandlerThread extends HandlerThread {
     }
 
     public void loadChildren(MediaBrowserServiceCompat.Result<List<MediaBrowserCompat.MediaItem>> result, String parentMediaID) {
+        loadChildren(result, parentMediaID, null);
+    }
+
+    /**
+     * Load the children of a media item.
+     *
+     * @param options - the browser's options. If it has {@link MediaBrowserCompat#EXTRA_PAGE} and
+     *                {@link MediaBrowserCompat#EXTRA_PAGE_SIZE}, only that page of children is loaded.
+     */
+    public void loadChildren(MediaBrowserServiceCompat.Result<List<MediaBrowserCompat.MediaItem>> result, String parentMediaID, Bundle options) {
 
         if (parentMediaID == null) {
             mBrowserRequestsMap.remove(result);
         } else {
             mBrowserRequestsMap.put(result, parentMediaID);
-            mHandler.obtainMessage(MESSAGE_LOAD_CHILDREN, result).sendToTarget();
+            Message message = mHandler.obtainMessage(MESSAGE_LOAD_CHILDREN, result);
+            if (options != null) {
+                message.setData(options);
+            }
+            message.sendToTarget();
         }
     }
 
@@ -99,6 +124,15 @@ public class MusicHandlerThread extends HandlerThread {
         mContext.getContentResolver().unregisterContentObserver(mMusicContentObserver);
     }
 
+    @Override
+    public boolean quit() {
+        //How well the recording cache did while the service was running.
+        mMusicLoader.logCacheStats();
+        MusicLoader.cancelPrefetch();
+        mContext.getContentResolver().unregisterContentObserver(mShuffleObserver);
+        return super.quit();
+    }
+
 
     private void returnChildren(final MediaBrowserServiceCompat.Result<List<MediaBrowserCompat.MediaItem>> result, final String parentMediaId, final List<MediaBrowserCompat.MediaItem> list) {
         mResponseHandler.post(new Runnable() {
@@ -126,6 +160,31 @@ public class MusicHandlerThread extends HandlerThread {
         }
     }
 
+    /**
+     * Pick a random recording, and then load and return it like any other. Picking may have to load
+     * a new shuffle (every recording's id), so it's done off of this thread, and browsing doesn't wait on it.
+     */
+    private void loadRandomRecording(final String mediaId, final int action) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Recording random = mMusicLoader.getRandomRecording(Uri.parse(mediaId));
+                if (random == null) {
+                    LogHelper.w(TAG, "No recordings found for: ", mediaId);
+                    return;
+                }
+
+                final Uri recordingUri = RecordingsContract.Recordings.buildRecordingUri(random.getIdentifier());
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        returnRecording(mMusicLoader.getRecordingWithTracks(recordingUri), mediaId, action);
+                    }
+                });
+            }
+        });
+    }
+
     private void returnRecording(final Recording recording, final String mediaId, final int action) {
         mResponseHandler.post(new Runnable() {
             @Override
@@ -151,7 +210,15 @@ public class MusicHandlerThread extends HandlerThread {
                         result = (MediaBrowserServiceCompat.Result<List<MediaBrowserCompat.MediaItem>>) msg.obj;
                         mediaId = mBrowserRequestsMap.get(result);
 
-                        music = mMusicLoader.getChildren(mediaId, mResources);
+                        Bundle options = msg.peekData();
+                        if (options != null && options.containsKey(MediaBrowserCompat.EXTRA_PAGE)) {
+                            music = mMusicLoader.getChildren(mediaId,
+                                    options.getInt(MediaBrowserCompat.EXTRA_PAGE),
+                                    options.getInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, DEFAULT_PAGE_SIZE),
+                                    mResources);
+                        } else {
+                            music = mMusicLoader.getChildren(mediaId, mResources);
+                        }
 
                         returnChildren(result, mediaId, music);
                         break;
@@ -177,6 +244,17 @@ public class MusicHandlerThread extends HandlerThread {
 
                         if (mediaType == RecordingUrisEnum.TRACK) {
                            recordingUri = RecordingsContract.Recordings.buildRecordingUri(MediaHelper.extractRecordingIdentifier(Uri.parse(mediaId)));
+                        } else if (mediaType == RecordingUrisEnum.RECORDING_SEARCH) {
+                            //Play the best match.
+                            List<Recording> results = mMusicLoader.searchRecordings(Uri.parse(mediaId));
+                            if (results.isEmpty()) {
+                                LogHelper.w(TAG, "No recordings found for search: ", mediaId);
+                                break;
+                            }
+                            recordingUri = RecordingsContract.Recordings.buildRecordingUri(results.get(0).getIdentifier());
+                        } else if (mediaType == RecordingUrisEnum.RECORDING_RANDOM) {
+                            loadRandomRecording(mediaId, action);
+                            break;
                         } else {
                             recordingUri = Uri.parse(mediaId);
                         }
@@ -203,6 +281,18 @@ public class MusicHandlerThread extends HandlerThread {
         }
     }
 
+    private class ShuffleObserver extends ContentObserver {
+        public ShuffleObserver() {
+            //No handler, there's nothing to do but mark the shuffle stale, and that's safe on any thread.
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mMusicLoader.invalidateShuffle();
+        }
+    }
+
 
 
 
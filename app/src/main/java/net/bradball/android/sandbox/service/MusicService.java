@@ -125,6 +125,23 @@ public class MusicService extends MediaBrowserServiceCompat
 
     }
 
+    /**
+     * Browsers can ask for a page of children at a time (with {@link MediaBrowserCompat#EXTRA_PAGE} and
+     * {@link MediaBrowserCompat#EXTRA_PAGE_SIZE}), so a year with hundreds of shows doesn't all have to be
+     * loaded, and sent across in one go. Only that page is loaded from the database.
+     */
+    @Override
+    public void onLoadChildren(@NonNull String parentId, @NonNull Result<List<MediaBrowserCompat.MediaItem>> result, @NonNull Bundle options) {
+        LogHelper.d(TAG, "Request for children of: ", parentId, ", page ", options.getInt(MediaBrowserCompat.EXTRA_PAGE, -1));
+        if (!MediaHelper.isBrowsable(parentId)) {
+            result.sendResult(new ArrayList<MediaBrowserCompat.MediaItem>());
+            return;
+        }
+
+        result.detach();
+        mMusicHandlerThread.loadChildren(result, parentId, options);
+    }
+
     @Override
     public void onChildrenLoaded(Result<List<MediaBrowserCompat.MediaItem>> result, List<MediaBrowserCompat.MediaItem> list, String parentMediaId) {
         result.sendResult(list);
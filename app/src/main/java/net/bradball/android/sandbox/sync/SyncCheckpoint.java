@@ -0,0 +1,105 @@
+package net.bradball.android.sandbox.sync;
+
+import java.util.Date;
+
+/**
+ * How far a sync has gotten, saved after each page is committed (see {@link SyncHelper#setCheckpoint}),
+ * so a sync that dies part way can pick up from the last committed page instead of starting over.
+ *
+ * A scrape api cursor only makes sense for the query it came from, so the checkpoint also keeps the query's
+ * watermark (the "changed since" date), and the time the sync started, which becomes the next
+ * watermark once the sync finishes.
+ */
+public class SyncCheckpoint {
+    /**
+     * Scrape api cursors don't last forever, so an older checkpoint is thrown away, and the sync starts over.
+     */
+    static final long MAX_AGE_MILLIS = 6 * 60 * 60 * 1000L;
+
+    /**
+     * If resuming from the same checkpoint keeps failing (maybe its cursor isn't any good anymore), start over.
+     */
+    static final int MAX_ATTEMPTS = 3;
+
+    /** The cursor to fetch the next page with. Empty if there aren't any more pages. */
+    public final String cursor;
+    /** The sync is fetching recordings that changed since this. */
+    public final Date watermark;
+    /** When the sync first started. */
+    public final Date started;
+    /** How many items the api said were left after the last committed page. */
+    public final int itemsLeft;
+    /** How many pages have been committed. */
+    public final int pages;
+    /** How many times the sync has been resumed from this checkpoint without getting any further. */
+    public final int attempts;
+    public final long savedAt;
+
+    public SyncCheckpoint(String cursor, Date watermark, Date started, int itemsLeft, int pages, int attempts, long savedAt) {
+        this.cursor = cursor;
+        this.watermark = watermark;
+        this.started = started;
+        this.itemsLeft = itemsLeft;
+        this.pages = pages;
+        this.attempts = attempts;
+        this.savedAt = savedAt;
+    }
+
+    /**
+     * A checkpoint for a sync that hasn't fetched anything yet.
+     */
+    public static SyncCheckpoint start(Date watermark) {
+        return new SyncCheckpoint(null, watermark, new Date(), -1, 0, 0, 0);
+    }
+
+    /**
+     * The checkpoint after another page has been committed.
+     */
+    public SyncCheckpoint next(String nextCursor, int itemsLeft) {
+        return new SyncCheckpoint(nextCursor, watermark, started, itemsLeft, pages + 1, 0, System.currentTimeMillis());
+    }
+
+    /**
+     * The same checkpoint, counting another attempt to resume from it.
+     */
+    public SyncCheckpoint retry() {
+        return new SyncCheckpoint(cursor, watermark, started, itemsLeft, pages, attempts + 1, savedAt);
+    }
+
+    /**
+     * Whether any pages have been committed, so there's something to resume.
+     */
+    public boolean isResumable() {
+        return pages > 0;
+    }
+
+    /**
+     * Whether a sync should pick up from this checkpoint: it has pages to resume after, it isn't too old
+     * for its cursor to still be good (or from the future, if the clock changed), and resuming
+     * from it hasn't already failed too many times.
+     */
+    public boolean canResume() {
+        return canResume(System.currentTimeMillis());
+    }
+
+    boolean canResume(long now) {
+        long age = now - savedAt;
+        return isResumable() && age >= 0 && age <= MAX_AGE_MILLIS && attempts < MAX_ATTEMPTS;
+    }
+
+    /**
+     * Whether the last page has been committed (but the sync didn't get to record that it was done).
+     */
+    public boolean isFinished() {
+        return pages > 0 && (cursor == null || cursor.isEmpty() || itemsLeft <= 0);
+    }
+
+    public long getAge() {
+        return System.currentTimeMillis() - savedAt;
+    }
+
+    @Override
+    public String toString() {
+        return pages + " pages, " + itemsLeft + " items left, since " + watermark;
+    }
+}
@@ -4,6 +4,7 @@ import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.util.Log;
@@ -60,6 +61,74 @@ public class SyncHelper {
         PreferenceManager.getDefaultSharedPreferences(context).edit().putLong(PREF_DATA_LOADED, lastUpdate.getTime()).apply();
     }
 
+    /*
+        The checkpoint of a sync that's in progress (or died part way), see SyncCheckpoint.
+     */
+    private static final String PREF_CHECKPOINT_CURSOR = "sync_checkpoint_cursor";
+    private static final String PREF_CHECKPOINT_WATERMARK = "sync_checkpoint_watermark";
+    private static final String PREF_CHECKPOINT_STARTED = "sync_checkpoint_started";
+    private static final String PREF_CHECKPOINT_ITEMS_LEFT = "sync_checkpoint_items_left";
+    private static final String PREF_CHECKPOINT_PAGES = "sync_checkpoint_pages";
+    private static final String PREF_CHECKPOINT_ATTEMPTS = "sync_checkpoint_attempts";
+    private static final String PREF_CHECKPOINT_SAVED_AT = "sync_checkpoint_saved_at";
+
+    /**
+     * Get the checkpoint to resume a sync from.
+     *
+     * @return the checkpoint, or null if there isn't one (or it can't be resumed, see {@link SyncCheckpoint#canResume()}).
+     */
+    public static SyncCheckpoint getCheckpoint(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (!prefs.contains(PREF_CHECKPOINT_PAGES)) {
+            return null;
+        }
+
+        SyncCheckpoint checkpoint = new SyncCheckpoint(
+                prefs.getString(PREF_CHECKPOINT_CURSOR, null),
+                new Date(prefs.getLong(PREF_CHECKPOINT_WATERMARK, 0)),
+                new Date(prefs.getLong(PREF_CHECKPOINT_STARTED, 0)),
+                prefs.getInt(PREF_CHECKPOINT_ITEMS_LEFT, -1),
+                prefs.getInt(PREF_CHECKPOINT_PAGES, 0),
+                prefs.getInt(PREF_CHECKPOINT_ATTEMPTS, 0),
+                prefs.getLong(PREF_CHECKPOINT_SAVED_AT, 0));
+
+        if (!checkpoint.canResume()) {
+            LogHelper.i(TAG, "Not resuming sync from checkpoint (", checkpoint, "), ", checkpoint.attempts, " attempts");
+            clearCheckpoint(context);
+            return null;
+        }
+
+        return checkpoint;
+    }
+
+    /**
+     * Save a sync's checkpoint. This is called from a sync thread, and it's the whole point of the checkpoint
+     * that it's saved before the process can die, so it's committed right away rather than applied.
+     */
+    public static void setCheckpoint(Context context, SyncCheckpoint checkpoint) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putString(PREF_CHECKPOINT_CURSOR, checkpoint.cursor)
+                .putLong(PREF_CHECKPOINT_WATERMARK, checkpoint.watermark.getTime())
+                .putLong(PREF_CHECKPOINT_STARTED, checkpoint.started.getTime())
+                .putInt(PREF_CHECKPOINT_ITEMS_LEFT, checkpoint.itemsLeft)
+                .putInt(PREF_CHECKPOINT_PAGES, checkpoint.pages)
+                .putInt(PREF_CHECKPOINT_ATTEMPTS, checkpoint.attempts)
+                .putLong(PREF_CHECKPOINT_SAVED_AT, checkpoint.savedAt)
+                .commit();
+    }
+
+    public static void clearCheckpoint(Context context) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .remove(PREF_CHECKPOINT_CURSOR)
+                .remove(PREF_CHECKPOINT_WATERMARK)
+                .remove(PREF_CHECKPOINT_STARTED)
+                .remove(PREF_CHECKPOINT_ITEMS_LEFT)
+                .remove(PREF_CHECKPOINT_PAGES)
+                .remove(PREF_CHECKPOINT_ATTEMPTS)
+                .remove(PREF_CHECKPOINT_SAVED_AT)
+                .apply();
+    }
+
     public static boolean isSyncActive() {
         Account account = StubAuthenticatorService.GetAccount(ACCOUNT_TYPE);
         return ContentResolver.isSyncActive(account, CONTENT_AUTHORITY);
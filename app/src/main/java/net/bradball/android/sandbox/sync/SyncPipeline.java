@@ -0,0 +1,363 @@
+package net.bradball.android.sandbox.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncResult;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import net.bradball.android.sandbox.data.IdentifierIndex;
+import net.bradball.android.sandbox.data.RecordingParser;
+import net.bradball.android.sandbox.data.RecordingsBatch;
+import net.bradball.android.sandbox.data.RecordingsListReader;
+import net.bradball.android.sandbox.data.jsonModel.RecordingsListJson;
+import net.bradball.android.sandbox.network.ArchiveAPI;
+import net.bradball.android.sandbox.provider.RecordingsContract;
+import net.bradball.android.sandbox.util.LogHelper;
+
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs a sync as two overlapping stages, each on its own thread:
+ *
+ * <ol>
+ *     <li><b>fetch</b> - streams a page of results from the api into a {@link RecordingParser}, which parses
+ *     each recording as it comes off the wire, and then turns the page into a {@link RecordingsBatch} of shows and recordings</li>
+ *     <li><b>write</b> - resolves new vs. existing rows and commits the page to the database,
+ *     through the provider's bulk write method ({@link RecordingsContract#METHOD_WRITE_RECORDINGS}).
+ *     The provider notifies observers of the shows and years in the page once it's committed.</li>
+ * </ol>
+ *
+ * Parsing isn't a stage of its own. The json is parsed straight off the response stream (see {@link RecordingsListReader}),
+ * so it already overlaps with the network, and handing it to another thread would mean buffering the whole page first.
+ *
+ * So while page N+1 is coming down from the network (and being parsed), page N is being written. The stages are
+ * connected by a small bounded queue, so the fetch stage blocks (rather than piling up pages in memory) when the
+ * write stage falls behind. A full sync takes about as long as the slower stage, instead of the sum of both.
+ *
+ * Pages are always written in the order they were fetched, and {@link #run(SyncCheckpoint, SyncResult)}
+ * doesn't return until the last page has been committed. After each page is committed, a {@link SyncCheckpoint}
+ * is saved, so if the sync dies part way, the next one can pick up from the page after it.
+ *
+ * The database's automatic write-ahead log checkpoints are paused for the sync, so committing a page
+ * doesn't also mean copying the log back into the database. Instead, the write stage checkpoints
+ * every few pages (which never blocks browsing), and once more at the end.
+ */
+public class SyncPipeline {
+    private static final String TAG = LogHelper.makeLogTag(SyncPipeline.class);
+
+    /**
+     * How many pages can be waiting to be written. Each page is a couple thousand recordings,
+     * so keep this small.
+     */
+    private static final int QUEUE_CAPACITY = 1;
+
+    /**
+     * How many pages to write between checkpoints of the write-ahead log.
+     * Enough to keep the log from growing too big during a full sync.
+     */
+    private static final int PAGES_PER_CHECKPOINT = 4;
+
+    private static final Page END_OF_PAGES = new Page(-1, null, null);
+
+    private final Context mContext;
+    private final ContentResolver mContentResolver;
+    private final ArchiveAPI mArchiveAPI;
+
+    /** Only used by the write stage once the sync is running. */
+    private SyncCheckpoint mCheckpoint;
+
+    private final BlockingQueue<Page> mWriteQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final StageTimer mFetchTimer = new StageTimer("fetch");
+    private final StageTimer mWriteTimer = new StageTimer("write");
+
+    /**
+     * Set by either stage when it hits an error. Once set, the fetch stage stops requesting pages,
+     * and the write stage drains its queue without writing anything else.
+     */
+    private volatile boolean mFailed = false;
+
+    public SyncPipeline(Context context, ArchiveAPI archiveAPI) {
+        mContext = context;
+        mContentResolver = context.getContentResolver();
+        mArchiveAPI = archiveAPI;
+    }
+
+    /**
+     * Run the sync, fetching all of the recordings that have changed since the checkpoint's watermark,
+     * starting from the page after the checkpoint's last committed page (if it has any).
+     * The fetch stage runs on the calling thread.
+     *
+     * @return true if every page was fetched and committed.
+     */
+    public boolean run(SyncCheckpoint checkpoint, SyncResult syncResult) {
+        long start = SystemClock.elapsedRealtime();
+        Date lastUpdate = checkpoint.watermark;
+        String archiveCursor = checkpoint.cursor;
+        RecordingsListJson recordingsList;
+        RecordingParser recordingParser;
+        int itemsLeft;
+        int pageNumber = checkpoint.pages;
+        boolean interrupted = false;
+
+        if (checkpoint.isFinished()) {
+            LogHelper.i(TAG, "Every page was already committed (", checkpoint, ")");
+            return true;
+        }
+
+        if (checkpoint.isResumable()) {
+            LogHelper.i(TAG, "Resuming sync after ", checkpoint.pages, " pages (", checkpoint, ")");
+            //If this attempt doesn't get any further, it counts against the checkpoint.
+            checkpoint = checkpoint.retry();
+            SyncHelper.setCheckpoint(mContext, checkpoint);
+        }
+        mCheckpoint = checkpoint;
+
+        callProvider(RecordingsContract.METHOD_PAUSE_AUTO_CHECKPOINT);
+
+        WriteStage writeStage = new WriteStage(syncResult);
+        writeStage.start();
+
+        try {
+            do {
+                mFetchTimer.startWork();
+                recordingParser = new RecordingParser();
+                recordingsList = mArchiveAPI.fetchShows(lastUpdate, archiveCursor, new RecordingsListReader(recordingParser));
+
+                if (recordingsList == null) {
+                    mFetchTimer.endWork();
+                    syncResult.stats.numIoExceptions++;
+                    mFailed = true;
+                    break;
+                }
+
+                //Build the page's batch here, so the write stage only has to write it.
+                recordingParser.prepare();
+                mFetchTimer.endWork();
+
+                archiveCursor = recordingsList.cursor;
+
+                //The "total" returned from the API is how many total items
+                //there are from this request forward, INCLUDING the items in this request
+                //So the number of items we have left to fetch is the total minus
+                //the number of items in this request (the "count").
+                itemsLeft = recordingsList.total - recordingsList.count;
+
+                LogHelper.d(TAG, "Fetched page ", pageNumber, " (", recordingsList.count, " items, ", itemsLeft, " left)");
+                mFetchTimer.put(mWriteQueue, new Page(pageNumber++, recordingsList, recordingParser));
+            } while (!mFailed && !TextUtils.isEmpty(archiveCursor) && itemsLeft > 0); //keep looping until we've processed all pages
+        } catch (InterruptedException ex) {
+            LogHelper.w(TAG, "Sync was interrupted, waiting for the pipeline to drain.");
+            mFailed = true;
+            interrupted = true;
+        } catch (RuntimeException ex) {
+            LogHelper.e(TAG, ex, "Failed to fetch page ", pageNumber);
+            syncResult.stats.numParseExceptions++;
+            mFailed = true;
+        } finally {
+            //Let the write stage know there's nothing else coming, and wait for it
+            //to finish up whatever it's working on.
+            putUninterruptibly(mWriteQueue, END_OF_PAGES);
+            joinUninterruptibly(writeStage);
+
+            callProvider(RecordingsContract.METHOD_RESUME_AUTO_CHECKPOINT);
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        LogHelper.i(TAG, "Sync pipeline ", (mFailed ? "failed" : "finished"), " after ", pageNumber, " pages in ",
+                SystemClock.elapsedRealtime() - start, "ms. ", mFetchTimer, "; ", mWriteTimer);
+
+        return !mFailed;
+    }
+
+    /**
+     * Call one of the provider's checkpoint methods. These only affect how fast the sync is, so if one
+     * fails, it's logged and the sync carries on.
+     */
+    private Bundle callProvider(String method) {
+        try {
+            return mContentResolver.call(RecordingsContract.BASE_CONTENT_URI, method, null, null);
+        } catch (RuntimeException ex) {
+            LogHelper.w(TAG, ex, "Provider method ", method, " failed");
+            return null;
+        }
+    }
+
+    /**
+     * The write stage. Commits parsed pages to the database, one at a time, in the order they were fetched.
+     */
+    private class WriteStage extends Thread {
+        private final SyncResult mSyncResult;
+        private IdentifierIndex mIndex;
+        private int mPagesSinceCheckpoint = 0;
+
+        WriteStage(SyncResult syncResult) {
+            super(TAG + "-write");
+            mSyncResult = syncResult;
+        }
+
+        @Override
+        public void run() {
+            Page page;
+            do {
+                page = mWriteTimer.takeUninterruptibly(mWriteQueue);
+
+                if (page != END_OF_PAGES && !mFailed) {
+                    mWriteTimer.startWork();
+                    try {
+                        writePage(page);
+                    } catch (RuntimeException ex) {
+                        LogHelper.e(TAG, ex, "Failed to write page ", page.number);
+                        mSyncResult.databaseError = true;
+                        mFailed = true;
+                    }
+                    mWriteTimer.endWork();
+                }
+            } while (page != END_OF_PAGES);
+        }
+
+        private void writePage(Page page) {
+            //The index of existing rows is loaded once, by the first page, and then
+            //kept up to date as each page is committed.
+            if (mIndex == null) {
+                mIndex = IdentifierIndex.load(mContentResolver);
+            }
+
+            RecordingsBatch batch = page.parser.getBatch();
+            batch.resolveIds(mIndex);
+
+            Bundle ids = mContentResolver.call(RecordingsContract.BASE_CONTENT_URI,
+                    RecordingsContract.METHOD_WRITE_RECORDINGS, null, batch.toBundle());
+
+            if (ids == null) {
+                LogHelper.e(TAG, "Provider did not write page ", page.number);
+                mSyncResult.stats.numSkippedEntries += batch.recordingCount;
+                mFailed = true;
+                return;
+            }
+
+            batch.updateIds(ids, mIndex);
+            mSyncResult.stats.numEntries += batch.recordingCount;
+            LogHelper.d(TAG, "Wrote page ", page.number, ": ", batch.showCount, " shows, ", batch.recordingCount, " recordings");
+
+            //The page is committed, so a sync that dies from here on can start with the next one.
+            mCheckpoint = mCheckpoint.next(page.envelope.cursor, page.envelope.total - page.envelope.count);
+            SyncHelper.setCheckpoint(mContext, mCheckpoint);
+
+            if (++mPagesSinceCheckpoint >= PAGES_PER_CHECKPOINT) {
+                mPagesSinceCheckpoint = 0;
+                callProvider(RecordingsContract.METHOD_CHECKPOINT);
+            }
+        }
+    }
+
+    private static class Page {
+        final int number;
+        final RecordingsListJson envelope;
+        final RecordingParser parser;
+
+        Page(int number, RecordingsListJson envelope, RecordingParser parser) {
+            this.number = number;
+            this.envelope = envelope;
+            this.parser = parser;
+        }
+    }
+
+    /**
+     * Keeps track of how long a stage spends working, and how long it spends
+     * blocked waiting on the stages on either side of it.
+     */
+    private static class StageTimer {
+        private final String mName;
+        private long mWorkStart;
+        private long mWorkMillis;
+        private long mWaitMillis;
+        private int mPages;
+
+        StageTimer(String name) {
+            mName = name;
+        }
+
+        void startWork() {
+            mWorkStart = SystemClock.elapsedRealtime();
+        }
+
+        void endWork() {
+            mWorkMillis += SystemClock.elapsedRealtime() - mWorkStart;
+            mPages++;
+        }
+
+        void put(BlockingQueue<Page> queue, Page page) throws InterruptedException {
+            long start = SystemClock.elapsedRealtime();
+            queue.put(page);
+            mWaitMillis += SystemClock.elapsedRealtime() - start;
+        }
+
+        Page takeUninterruptibly(BlockingQueue<Page> queue) {
+            long start = SystemClock.elapsedRealtime();
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return queue.take();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                mWaitMillis += SystemClock.elapsedRealtime() - start;
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mName + ": " + mPages + " pages, " + mWorkMillis + "ms working, " + mWaitMillis + "ms blocked";
+        }
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Page> queue, Page page) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    queue.put(page);
+                    return;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    thread.join();
+                    return;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -13,6 +13,7 @@ import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -24,6 +25,7 @@ import net.bradball.android.sandbox.ui.IMediaBrowser;
 import net.bradball.android.sandbox.util.LogHelper;
 import net.bradball.android.sandbox.util.MediaHelper;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -42,6 +44,12 @@ public class MediaBrowserFragment extends Fragment {
 
     private static final String ARG_MEDIA_ID = "mediaId";
 
+    /**
+     * How many items to load at a time. The next page is requested as the list scrolls
+     * to within half a page of the end of what's loaded.
+     */
+    private static final int PAGE_SIZE = 50;
+
     private String mMediaId;
 
     private MediaBrowserFragmentListener mListener;
@@ -50,18 +58,42 @@ public class MediaBrowserFragment extends Fragment {
     private MediaAdapter mMediaListAdapter;
     private List<MediaBrowserCompat.MediaItem> mListItems;
 
+    private final SparseArray<List<MediaBrowserCompat.MediaItem>> mPages = new SparseArray<>();
+    private int mPagesRequested = 0;
+    private boolean mLastPageLoaded = false;
+
 
     private final MediaBrowserCompat.SubscriptionCallback mMediaBrowserCallback = new MediaBrowserCompat.SubscriptionCallback() {
         @Override
-        public void onChildrenLoaded(@NonNull String parentId, List<MediaBrowserCompat.MediaItem> children) {
-            LogHelper.d(TAG, "==== Media Loaded! ====" + " Size: " + children.size());
+        public void onChildrenLoaded(@NonNull String parentId, List<MediaBrowserCompat.MediaItem> children, @NonNull Bundle options) {
+            int page = options.getInt(MediaBrowserCompat.EXTRA_PAGE);
+            LogHelper.d(TAG, "==== Media Loaded! ====" + " Page: " + page + " Size: " + children.size());
+
+            //Each page is its own subscription, and gets reloaded on its own when the data changes.
+            mPages.put(page, children);
+            if (children.size() < PAGE_SIZE) {
+                mLastPageLoaded = true;
+            }
 
-            mListItems = children;
+            mListItems = new ArrayList<>();
+            for (int i = 0; i < mPagesRequested && mPages.get(i) != null; i++) {
+                mListItems.addAll(mPages.get(i));
+            }
             mMediaListAdapter.setItems(mListItems);
             mMediaListAdapter.notifyDataSetChanged();
         }
     };
 
+    private final RecyclerView.OnScrollListener mScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+            if (layoutManager.findLastVisibleItemPosition() >= mMediaListAdapter.getItemCount() - PAGE_SIZE / 2) {
+                loadNextPage();
+            }
+        }
+    };
+
     public MediaBrowserFragment() {
         // Required empty public constructor
     }
@@ -111,6 +143,7 @@ public class MediaBrowserFragment extends Fragment {
 
         mMediaList = (RecyclerView) v.findViewById(R.id.media_list);
         mMediaList.setAdapter(mMediaListAdapter);
+        mMediaList.addOnScrollListener(mScrollListener);
 
         if (mMediaId == null) {
             mMediaList.setLayoutManager(new GridLayoutManager(getActivity(), 4));
@@ -180,7 +213,28 @@ public class MediaBrowserFragment extends Fragment {
         // subscriber or if the media content changes on the service side, so we need to
         // unsubscribe first.
         mListener.getMediaBrowser().unsubscribe(mMediaId);
-        mListener.getMediaBrowser().subscribe(mMediaId, mMediaBrowserCallback);
+
+        mPages.clear();
+        mPagesRequested = 0;
+        mLastPageLoaded = false;
+        loadNextPage();
+    }
+
+    /**
+     * Subscribe to the next page of children, unless it's already been asked for,
+     * or we've already got the last page.
+     */
+    private void loadNextPage() {
+        if (mLastPageLoaded || mPagesRequested > mPages.size() || mListener == null || !mListener.getMediaBrowser().isConnected()) {
+            return;
+        }
+
+        Bundle options = new Bundle();
+        options.putInt(MediaBrowserCompat.EXTRA_PAGE, mPagesRequested);
+        options.putInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, PAGE_SIZE);
+        mPagesRequested++;
+
+        mListener.getMediaBrowser().subscribe(mMediaId, options, mMediaBrowserCallback);
     }
 
     /**
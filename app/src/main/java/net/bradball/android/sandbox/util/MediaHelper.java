@@ -125,6 +125,21 @@ public class MediaHelper {
         return extras;
     }
 
+    /**
+     * The media id for searching the catalog. Browsing it (onLoadChildren) returns the
+     * matching recordings, and playing it (or onPlayFromSearch) plays the best match.
+     */
+    public static String getSearchMediaId(@NonNull String query) {
+        return RecordingsContract.Recordings.buildSearchUri(query).toString();
+    }
+
+    /**
+     * The media id for a random recording. Playing it picks a new one every time.
+     */
+    public static String getRandomMediaId() {
+        return RecordingsContract.Recordings.buildRandomRecordingUri().toString();
+    }
+
     public static boolean isBrowsable(@NonNull String mediaID) {
         return mediaID.startsWith(RecordingsContract.BASE_CONTENT_URI.toString());
     }
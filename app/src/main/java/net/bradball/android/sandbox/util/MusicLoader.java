@@ -16,41 +16,49 @@
 
 package net.bradball.android.sandbox.util;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.res.Resources;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.support.v4.content.ContentResolverCompat;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat;
+import android.text.TextUtils;
 import android.util.Log;
 import android.util.LruCache;
 
 import net.bradball.android.sandbox.R;
 import net.bradball.android.sandbox.data.DatabaseSchema;
+import net.bradball.android.sandbox.data.RecordingShuffle;
+import net.bradball.android.sandbox.data.RecordingDetailsReader;
 import net.bradball.android.sandbox.data.TrackParser;
 import net.bradball.android.sandbox.data.jsonModel.RecordingDetailsJson;
+import net.bradball.android.sandbox.model.Review;
 import net.bradball.android.sandbox.model.Show;
 import net.bradball.android.sandbox.model.Track;
 import net.bradball.android.sandbox.network.ArchiveAPI;
+import net.bradball.android.sandbox.network.BatchFetch;
 import net.bradball.android.sandbox.provider.RecordingUriMatcher;
 import net.bradball.android.sandbox.provider.RecordingUrisEnum;
 import net.bradball.android.sandbox.provider.RecordingsContract;
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
 
 import net.bradball.android.sandbox.model.Recording;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 /**
  * Simple data provider for music tracks. The actual metadata source is delegated to a
@@ -60,20 +68,57 @@ public class MusicLoader {
 
     private static final String TAG = LogHelper.makeLogTag(MusicLoader.class);
 
-    private static final int CACHE_SIZE_MB = 5; //Cache Size in MB
-    private static final LruCache<String, Recording> mRecordingCache;
+    private static final int SEARCH_RESULTS_LIMIT = 100;
+    private static final int PAGE_KEYS_CACHE_SIZE = 200;
+
+    /** Pass as the page to load all of a parent's children at once. */
+    public static final int ALL_PAGES = -1;
+    private static RecordingCache mRecordingCache;
+
+    /**
+     * The page key (see {@link RecordingsContract#withPage}) that each page of a parent's children starts after,
+     * saved as each page is loaded, so the next page is a keyset query. Keyed by parent uri, page size and page.
+     */
+    private static final LruCache<String, String> mPageKeys = new LruCache<>(PAGE_KEYS_CACHE_SIZE);
+
+    /**
+     * Fetches of recordings' details from archive.org that are in flight, by archive.org identifier. Opening a recording
+     * while its details are being prefetched (see prefetchDetails) waits for the prefetch's request, instead of
+     * fetching and parsing the same details again, and the prefetch skips a recording that's already being fetched.
+     */
+    private static final SingleFlight<String, ArchiveAPI.ConditionalResult<RecordingDetailsJson>> mDetailsFetches = new SingleFlight<>();
+
+    /*
+        Prefetches of the details of a show's recordings (see prefetchDetails). Archive.org is shared by everyone,
+        so only a few requests at a time.
+     */
+    private static final int PREFETCH_CONCURRENCY = 4;
+    private static final int PREFETCH_TIMEOUT_MILLIS = 20 * 1000;
+    private static BatchFetch<RecordingDetailsJson> mPrefetch;
 
     private final Context mContext;
 
+    /**
+     * Where random picks come from (see {@link #getRandomRecording(Uri)}), and the filters it was loaded with.
+     * Guarded by "this".
+     */
+    private RecordingShuffle mShuffle;
+    private String mShuffleFilters;
+
+    /** Set when the recordings change (see {@link #invalidateShuffle()}), so the next pick loads a new shuffle. */
+    private volatile boolean mShuffleStale;
 
 
 
-    static {
-        mRecordingCache = new LruCache<>(CACHE_SIZE_MB * 1024 * 1024);
-    }
 
     public MusicLoader(Context context) {
         mContext = context.getApplicationContext();
+
+        synchronized (MusicLoader.class) {
+            if (mRecordingCache == null) {
+                mRecordingCache = new RecordingCache(RecordingCache.getBudget(mContext));
+            }
+        }
     }
 
 
@@ -103,18 +148,22 @@ public class MusicLoader {
     }
 
     public Iterable<Show> getShows(Uri mediaUri) {
+        return getShows(mediaUri, ALL_PAGES, 0);
+    }
+
+    public Iterable<Show> getShows(Uri mediaUri, int page, int pageSize) {
         List<Show> shows = new ArrayList<>();
-        Cursor cursor = null;
         String selection = RecordingsContract.Shows.YEAR + " = ?";
         String[] selectionArgs = {RecordingsContract.Shows.getShowDate(mediaUri)};
+        String orderBy = DatabaseSchema.ShowsTable.NAME + "." + RecordingsContract.Shows.DATE + " desc";
 
-        cursor = mContext.getContentResolver().query(mediaUri, RecordingsContract.Shows.PROJECTION, selection, selectionArgs, DatabaseSchema.ShowsTable.NAME + "." + RecordingsContract.Shows.DATE + " desc");
+        Cursor cursor = queryPage(mediaUri, RecordingsContract.Shows.PROJECTION, RecordingsContract.Shows.PAGE_KEY,
+                selection, selectionArgs, orderBy, page, pageSize);
         if (cursor != null) {
             try {
-                cursor.moveToFirst();
-                do {
+                while (cursor.moveToNext()) {
                     shows.add(Show.getFromCursor(cursor));
-                } while (cursor.moveToNext());
+                }
             } finally {
                 cursor.close();
             }
@@ -124,12 +173,18 @@ public class MusicLoader {
     }
 
     public Iterable<Recording> getRecordings(Uri mediaUri) {
+        return getRecordings(mediaUri, ALL_PAGES, 0);
+    }
+
+    public Iterable<Recording> getRecordings(Uri mediaUri, int page, int pageSize) {
         List<Recording> recordings = new ArrayList<>();
         Uri recordingsUri = RecordingsContract.Shows.buildShowRecordingsUri(mediaUri);
-        Cursor cursor = null;
         Recording recording = null;
 
-        cursor =  mContext.getContentResolver().query(recordingsUri, RecordingsContract.Recordings.PROJECTION, null, null, RecordingsContract.Recordings.DATE + " desc");
+        //A show's recordings all have its date, so they're in page key order whether they're paged or not,
+        //and a browser that switches between the two sees the same list.
+        Cursor cursor = queryPage(recordingsUri, RecordingsContract.Recordings.PROJECTION, RecordingsContract.Recordings.PAGE_KEY,
+                null, null, RecordingsContract.Recordings.PAGE_KEY, page, pageSize);
         if (cursor != null) {
             try {
                 while (cursor.moveToNext()) {
@@ -145,6 +200,109 @@ public class MusicLoader {
         return recordings;
     }
 
+    /**
+     * Query a directory of shows or recordings, or just one page of it.
+     *
+     * @param pageKey - the column the pages are keyed by ({@link RecordingsContract.Shows#PAGE_KEY} or
+     *                {@link RecordingsContract.Recordings#PAGE_KEY}). It has to be in the projection.
+     * @param sortOrder - the order for all of the rows. Pages are always in page key order.
+     * @param page - the page to get, or {@link #ALL_PAGES}.
+     * @return a cursor, or null if the page is past the end.
+     */
+    private Cursor queryPage(Uri uri, String[] projection, String pageKey, String selection, String[] selectionArgs,
+                             String sortOrder, int page, int pageSize) {
+        ContentResolver resolver = mContext.getContentResolver();
+
+        if (page == ALL_PAGES) {
+            return resolver.query(uri, projection, selection, selectionArgs, sortOrder);
+        }
+
+        String afterKey = null;
+        if (page > 0) {
+            afterKey = mPageKeys.get(getPageCacheKey(uri, page, pageSize));
+            if (afterKey == null) {
+                afterKey = findPageStart(uri, pageKey, selection, selectionArgs, page, pageSize);
+                if (afterKey == null) {
+                    return null;
+                }
+            }
+        }
+
+        Cursor cursor = resolver.query(RecordingsContract.withPage(uri, pageSize, afterKey), projection, selection, selectionArgs, null);
+        if (cursor != null && cursor.moveToLast()) {
+            mPageKeys.put(getPageCacheKey(uri, page + 1, pageSize), cursor.getString(cursor.getColumnIndexOrThrow(pageKey)));
+            cursor.moveToPosition(-1);
+        }
+
+        return cursor;
+    }
+
+    /**
+     * Find the key a page starts after, when we don't have it from loading the page before
+     * (the client skipped ahead). This reads the page key of every row before the page,
+     * but nothing else, so it all comes from an index.
+     *
+     * @return the key, or null if there aren't enough rows to get to the page.
+     */
+    private String findPageStart(Uri uri, String pageKey, String selection, String[] selectionArgs, int page, int pageSize) {
+        int rowsBefore = page * pageSize;
+        Cursor cursor = mContext.getContentResolver().query(RecordingsContract.withPage(uri, rowsBefore, null),
+                new String[] { pageKey }, selection, selectionArgs, null);
+
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            return (cursor.getCount() == rowsBefore && cursor.moveToLast()) ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String getPageCacheKey(Uri uri, int page, int pageSize) {
+        return uri + "|" + pageSize + "|" + page;
+    }
+
+    /**
+     * Get one page of a list that's already been loaded.
+     */
+    private static <T> List<T> getPage(List<T> list, int page, int pageSize) {
+        int from = page * pageSize;
+        if (from >= list.size()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(list.subList(from, Math.min(from + pageSize, list.size())));
+    }
+
+    /**
+     * Search the recordings, with the best (soundboards, then the most downloaded) first.
+     *
+     * @param searchUri - A uri from {@link RecordingsContract.Recordings#buildSearchUri(String)}
+     */
+    public List<Recording> searchRecordings(Uri searchUri) {
+        List<Recording> recordings = new ArrayList<>();
+        Uri queryUri = searchUri.buildUpon()
+                .appendQueryParameter(RecordingsContract.QUERY_PARAMETER_LIMIT, Integer.toString(SEARCH_RESULTS_LIMIT))
+                .build();
+        String orderBy = RecordingsContract.Recordings.SOUNDBOARD + " desc, " + RecordingsContract.Recordings.DOWNLOADS + " desc";
+
+        Cursor cursor = mContext.getContentResolver().query(queryUri, RecordingsContract.Recordings.PROJECTION, null, null, orderBy);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    Recording recording = Recording.getFromCursor(cursor);
+                    recordings.add(recording);
+                    addToCache(recording);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return recordings;
+    }
+
     public Recording getRecording(Uri mediaUri, boolean skipCache) {
         Cursor cursor = null;
         Recording recording = null;
@@ -174,18 +332,181 @@ public class MusicLoader {
         return recording;
     }
 
+    /**
+     * Pick a random recording. Picks come from a shuffle of every matching recording, so none of
+     * them comes up twice until they all have. A new shuffle is loaded when that happens, when the filters change,
+     * or when the recordings have changed since it was loaded.
+     *
+     * Loading a shuffle reads the id of every matching recording, so don't call this on a thread that has to stay responsive.
+     *
+     * @param randomUri - A uri from {@link RecordingsContract.Recordings#buildRandomRecordingUri(boolean, float)}
+     * @return the recording, or null if there aren't any that match.
+     */
+    public synchronized Recording getRandomRecording(Uri randomUri) {
+        String filters = randomUri.getQuery();
+        boolean loaded = false;
+
+        if (mShuffle == null || mShuffleStale || !mShuffle.hasNext() || !TextUtils.equals(filters, mShuffleFilters)) {
+            //Cleared before loading, so a change that happens while it loads gets a new one next time.
+            mShuffleStale = false;
+            mShuffle = loadShuffle(randomUri);
+            mShuffleFilters = filters;
+            loaded = true;
+        }
+
+        Recording recording = getNextRecording(mShuffle);
+        if (recording == null && !loaded) {
+            //The rest of the shuffle was removed, start a new one.
+            mShuffle = loadShuffle(randomUri);
+            recording = getNextRecording(mShuffle);
+        }
+
+        return recording;
+    }
+
+    /**
+     * The recordings have changed (a sync added or removed some), so the next random pick
+     * comes from a new shuffle. Cheap, and safe to call from any thread.
+     */
+    public void invalidateShuffle() {
+        mShuffleStale = true;
+    }
+
+    private RecordingShuffle loadShuffle(Uri randomUri) {
+        boolean soundboardOnly = "1".equals(randomUri.getQueryParameter(RecordingsContract.QUERY_PARAMETER_SOUNDBOARD));
+        float minRating = 0;
+        String rating = randomUri.getQueryParameter(RecordingsContract.QUERY_PARAMETER_MIN_RATING);
+        if (rating != null) {
+            try {
+                minRating = Float.parseFloat(rating);
+            } catch (NumberFormatException ex) {
+                LogHelper.w(TAG, "Ignoring bad min rating: ", rating);
+            }
+        }
+
+        return RecordingShuffle.load(mContext.getContentResolver(), soundboardOnly, minRating, System.nanoTime());
+    }
+
+    /**
+     * Get the next recording in a shuffle, skipping any that have been removed since it was loaded.
+     *
+     * @return the recording, or null when the shuffle has run out.
+     */
+    private Recording getNextRecording(RecordingShuffle shuffle) {
+        while (shuffle.hasNext()) {
+            Recording recording = queryRecording(RecordingsContract.Recordings.buildRecordingUri(shuffle.next()));
+            if (recording != null) {
+                return recording;
+            }
+        }
+
+        return null;
+    }
+
+    private Recording queryRecording(Uri uri) {
+        Recording recording = null;
+
+        Cursor cursor = mContext.getContentResolver().query(uri, RecordingsContract.Recordings.PROJECTION, null, null, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) {
+                    recording = Recording.getFromCursor(cursor);
+                    addToCache(recording);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return recording;
+    }
+
     public Recording getRecordingWithTracks(Uri mediaUri) {
         Recording recording = getRecording(mediaUri, false);
 
         if (recording.getNumberOfTracks() < 1) {
-            ArrayList<Track>  tracks = getTracksFromAPI(recording.getIdentifier());
+            //The lists may be shared with a prefetch (see fetchDetails), and a recording sorts its tracks in place.
+            RecordingDetailsCache.Entry details = loadTracksAndReviews(recording);
+            ArrayList<Track> tracks = new ArrayList<>(details.tracks);
+            ArrayList<Review> reviews = new ArrayList<>(details.reviews);
+
+            //The cache sizes a recording by its tracks and reviews, so they can't change while it's in the cache.
+            mRecordingCache.remove(recording.getIdentifier());
             recording.setTracks(tracks);
+            recording.setReviews(reviews);
             addToCache(recording);
         }
 
         return recording;
     }
 
+    /**
+     * Get a recording's tracks and reviews. Tracks are saved the first time a recording is opened, so after that
+     * they're a local query, and the reviews are in the disk cache (if it still has them). Otherwise they're
+     * fetched (see {@link #getDetails(Recording)}) and the tracks are saved.
+     */
+    private RecordingDetailsCache.Entry loadTracksAndReviews(Recording recording) {
+        ArrayList<Track> tracks = getTracks(recording);
+        if (tracks.isEmpty()) {
+            RecordingDetailsCache.Entry details = getDetails(recording);
+            saveTracks(recording, details.tracks);
+            return details;
+        }
+
+        RecordingDetailsCache.Entry details = RecordingDetailsCache.getInstance(mContext).get(recording.getIdentifier());
+        ArrayList<Review> reviews = (details != null) ? details.reviews : new ArrayList<Review>();
+        return new RecordingDetailsCache.Entry(recording.getIdentifier(), 0, tracks, reviews);
+    }
+
+    /**
+     * Get a recording's saved tracks from the tracks table.
+     * The list is empty if the recording's tracks haven't been fetched yet.
+     */
+    public ArrayList<Track> getTracks(Recording recording) {
+        ArrayList<Track> tracks = new ArrayList<>();
+        if (recording.getID() <= 0) {
+            return tracks;
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(RecordingsContract.Tracks.buildRecordingTracksUri(recording.getID()),
+                RecordingsContract.Tracks.PROJECTION, null, null, RecordingsContract.Tracks.DEFAULT_SORT);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    tracks.add(Track.getFromCursor(cursor, recording.getIdentifier()));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return tracks;
+    }
+
+    /**
+     * Save a recording's tracks, replacing any it already has, in a single batch (and transaction).
+     * A failed save is only logged, the tracks will be fetched again next time.
+     */
+    private void saveTracks(Recording recording, List<Track> tracks) {
+        if (recording.getID() <= 0 || tracks.isEmpty()) {
+            return;
+        }
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(tracks.size() + 1);
+        operations.add(ContentProviderOperation.newDelete(RecordingsContract.Tracks.buildRecordingTracksUri(recording.getID())).build());
+        for (Track track : tracks) {
+            operations.add(ContentProviderOperation.newInsert(RecordingsContract.Tracks.buildRecordingTracksUri(recording.getID()))
+                    .withValues(TrackParser.getTrackContentValues(track))
+                    .build());
+        }
+
+        try {
+            mContext.getContentResolver().applyBatch(RecordingsContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            LogHelper.e(TAG, e, "Error saving tracks for ", recording.getIdentifier());
+        }
+    }
+
     /**
      * Try to get a list of tracks for a Play Queue from a track mediaId.
      * This method will only look in the cache for the track's recording.
@@ -215,7 +536,19 @@ public class MusicLoader {
 
 
     public List<MediaBrowserCompat.MediaItem> getChildren(String mediaId, Resources resources) {
+        return getChildren(mediaId, ALL_PAGES, 0, resources);
+    }
+
+    /**
+     * Get one page of a media item's children. Pages of shows and recordings are loaded straight from the
+     * provider, a page at a time. Everything else is small, so it's loaded and then the page is taken from it.
+     *
+     * @param page - the page to get (starting at 0), or {@link #ALL_PAGES}.
+     * @param pageSize - how many children are on each page.
+     */
+    public List<MediaBrowserCompat.MediaItem> getChildren(String mediaId, int page, int pageSize, Resources resources) {
         List<MediaBrowserCompat.MediaItem> mediaItems = new ArrayList<>();
+        boolean isPaged = false;
 
         if (!MediaHelper.isBrowsable(mediaId)) {
             return mediaItems;
@@ -235,15 +568,25 @@ public class MusicLoader {
                 }
                 break;
             case SHOWS_BY_YEAR:
-                for (Show show : getShows(mediaUri)) {
+                for (Show show : getShows(mediaUri, page, pageSize)) {
                     mediaItems.add(MediaHelper.createMediaItem(show));
                 }
+                isPaged = true;
                 break;
             case SHOWS_BY_ID:
-                for (Recording recording : getRecordings(mediaUri)) {
-                    addToCache(recording);
+                ArrayList<Recording> recordings = new ArrayList<>();
+                for (Recording recording : getRecordings(mediaUri, page, pageSize)) {
+                    recordings.add(recording);
                     mediaItems.add(MediaHelper.createMediaItem(recording));
                 }
+                //The user is probably about to open one of them.
+                prefetchDetails(recordings);
+                isPaged = true;
+                break;
+            case RECORDING_SEARCH:
+                for (Recording result : searchRecordings(mediaUri)) {
+                    mediaItems.add(MediaHelper.createMediaItem(result));
+                }
                 break;
             case RECORDING_BY_ARCHIVE:
 
@@ -255,50 +598,193 @@ public class MusicLoader {
                 break;
         }
 
+        if (page != ALL_PAGES && !isPaged) {
+            return getPage(mediaItems, page, pageSize);
+        }
+
         return mediaItems;
     }
 
-    public ArrayList<Track> getTracksFromAPI(String identifier) {
-        ArrayList<Track> list = new ArrayList<Track>();
+    /**
+     * Get a recording's details (its tracks and reviews). They come from the disk cache if they're fresh,
+     * otherwise they're revalidated with (or fetched from) archive.org and cached. If that fails, stale cached
+     * details are used (if there are any).
+     *
+     * @return the details. The lists are empty if there weren't any to be found.
+     */
+    public RecordingDetailsCache.Entry getDetails(Recording recording) {
+        RecordingDetailsCache diskCache = RecordingDetailsCache.getInstance(mContext);
+        RecordingDetailsCache.Entry details = diskCache.get(recording.getIdentifier());
+
+        if (details == null || !details.isFresh()) {
+            RecordingDetailsCache.Entry fetched = getDetailsFromAPI(recording.getID(), recording.getIdentifier(), details);
+            if (fetched != null) {
+                details = fetched;
+            } else if (details == null) {
+                return new RecordingDetailsCache.Entry(recording.getIdentifier(), 0, new ArrayList<Track>(), new ArrayList<Review>());
+            } else {
+                LogHelper.w(TAG, "Could not revalidate details for ", recording.getIdentifier(), ", using cached details from ",
+                        details.getAge() / 1000 / 60, " minutes ago");
+            }
+        }
+
+        //The cache doesn't keep database ids, they could be different next time.
+        for (Track track : details.tracks) {
+            track.setRecordingID(recording.getID());
+        }
+        for (Review review : details.reviews) {
+            review.setRecordingID(recording.getID());
+        }
 
+        return details;
+    }
+
+    /**
+     * Fetch a recording's details from archive.org, and put them in the disk cache.
+     *
+     * If there are {@code cached} details, the request is conditional (on their ETag and Last-Modified).
+     * If archive.org says they haven't changed, they're refreshed in the cache and returned, without
+     * downloading or parsing anything.
+     *
+     * @param cached the (stale) cached details, or null.
+     * @return the details, or null if they couldn't be fetched.
+     */
+    public RecordingDetailsCache.Entry getDetailsFromAPI(long recordingID, String identifier, RecordingDetailsCache.Entry cached) {
         if (identifier == null) {
-            return list;
+            return null;
         }
 
-        ArchiveAPI api = new ArchiveAPI();
-        String json = api.fetchRecordingDetails(identifier);
+        ArchiveAPI.ConditionalResult<RecordingDetailsJson> result = fetchDetails(recordingID, identifier,
+                (cached == null) ? null : cached.etag, (cached == null) ? null : cached.lastModified);
+        if (result == null) {
+            return null;
+        }
 
-        Gson gson = new Gson();
-        RecordingDetailsJson details = gson.fromJson(json, RecordingDetailsJson.class);
+        RecordingDetailsCache diskCache = RecordingDetailsCache.getInstance(mContext);
+        if (result.notModified) {
+            if (cached == null) {
+                //We waited for a prefetch's conditional request, and it's already refreshed the cached details.
+                return diskCache.get(identifier);
+            }
+            LogHelper.d(TAG, "Details for ", identifier, " not modified");
+            return diskCache.refresh(cached, result.etag, result.lastModified);
+        }
 
-        //We'll have to manually parse the files/tracks in the json, because
-        //it's an object with a bunch of child objects, and each child's key is the filepath to the track
-        //and each child object contains the track info (name, play time, etc).
-        //To make matters worse, not every child is an mp3 filepath. There are also xml, txt, shn, md5 files etc
-        //so we have to account for all of that.
-        TrackParser trackHandler;
-        for (Map.Entry<String, JsonElement> entry : details.files.entrySet()) {
+        if (result.body == null || result.body.tracks == null) {
+            return null;
+        }
 
-            String filePath = entry.getKey();
+        RecordingDetailsCache.Entry details = new RecordingDetailsCache.Entry(identifier, System.currentTimeMillis(),
+                result.body.tracks, result.body.reviews, result.etag, result.lastModified);
+        diskCache.put(details);
+        return details;
+    }
 
-            if (getExtension(filePath).equals(".mp3")) {
-                trackHandler = new TrackParser(filePath, 0, identifier);
-                trackHandler.processJson(entry.getValue());
-                Track track = trackHandler.getTrack();
-                list.add(track);
+    /**
+     * Fetch a recording's details, or wait for the request that's already in flight for them (like a prefetch's).
+     *
+     * @return the result, or null if the details couldn't be fetched.
+     */
+    private ArchiveAPI.ConditionalResult<RecordingDetailsJson> fetchDetails(final long recordingID, final String identifier,
+                                                                           final String etag, final String lastModified) {
+        SingleFlight.Loader<ArchiveAPI.ConditionalResult<RecordingDetailsJson>> loader = new SingleFlight.Loader<ArchiveAPI.ConditionalResult<RecordingDetailsJson>>() {
+            @Override
+            public ArchiveAPI.ConditionalResult<RecordingDetailsJson> load() {
+                return new ArchiveAPI().fetchRecordingDetails(identifier, etag, lastModified, new RecordingDetailsReader(recordingID, identifier));
             }
-        }
+        };
 
-        return list;
+        try {
+            return mDetailsFetches.load(identifier, loader);
+        } catch (CancellationException ex) {
+            //We were waiting for a prefetch that was cancelled.
+            return loader.load();
+        }
     }
 
-    private String getExtension(String file) {
-        int i = file.lastIndexOf(".");
+    /**
+     * Fetch the details of recordings that don't have fresh details in the disk cache, in the background,
+     * a few at a time, so opening one of them doesn't have to wait for archive.org. Starting a prefetch cancels
+     * the last one, if it's still going, since the user has moved on.
+     *
+     * Recordings with stale details in the cache get a conditional request, and if archive.org says
+     * they haven't changed, the cached details are just refreshed.
+     *
+     * @return the batch, or null if there was nothing to fetch.
+     */
+    public BatchFetch<RecordingDetailsJson> prefetchDetails(Iterable<Recording> recordings) {
+        final RecordingDetailsCache diskCache = RecordingDetailsCache.getInstance(mContext);
+        final HashMap<String, Long> recordingIDs = new HashMap<>();
+        final HashMap<String, RecordingDetailsCache.Entry> staleDetails = new HashMap<>();
+        HashMap<String, BatchFetch.Validators> validators = new HashMap<>();
+
+        for (Recording recording : recordings) {
+            if (recording.getIdentifier() == null || recording.getNumberOfTracks() > 0) {
+                continue;
+            }
+            if (diskCache.isFresh(recording.getIdentifier())) {
+                continue;
+            }
 
-        if (i > 0 && i < file.length() - 1) {
-            return file.substring(i).toLowerCase();
+            recordingIDs.put(recording.getIdentifier(), recording.getID());
+            RecordingDetailsCache.Entry cached = diskCache.get(recording.getIdentifier());
+            if (cached != null) {
+                staleDetails.put(recording.getIdentifier(), cached);
+                validators.put(recording.getIdentifier(), new BatchFetch.Validators(cached.etag, cached.lastModified));
+            }
+        }
+
+        synchronized (MusicLoader.class) {
+            cancelPrefetch();
+
+            if (recordingIDs.isEmpty()) {
+                return null;
+            }
+
+            LogHelper.d(TAG, "Prefetching details for ", recordingIDs.size(), " recordings");
+            mPrefetch = new ArchiveAPI().fetchRecordingDetails(recordingIDs.keySet(), PREFETCH_CONCURRENCY, PREFETCH_TIMEOUT_MILLIS,
+                    mDetailsFetches, validators,
+                    new BatchFetch.ReaderFactory<RecordingDetailsJson>() {
+                        @Override
+                        public ArchiveAPI.ResponseReader<RecordingDetailsJson> newReader(String identifier) {
+                            return new RecordingDetailsReader(recordingIDs.get(identifier), identifier);
+                        }
+                    },
+                    new BatchFetch.Listener<RecordingDetailsJson>() {
+                        @Override
+                        public void onResult(String identifier, ArchiveAPI.ConditionalResult<RecordingDetailsJson> result) {
+                            if (result.notModified) {
+                                RecordingDetailsCache.Entry cached = staleDetails.get(identifier);
+                                if (cached != null) {
+                                    diskCache.refresh(cached, result.etag, result.lastModified);
+                                }
+                            } else if (result.body != null && result.body.tracks != null) {
+                                diskCache.put(new RecordingDetailsCache.Entry(identifier, System.currentTimeMillis(),
+                                        result.body.tracks, result.body.reviews, result.etag, result.lastModified));
+                            }
+                        }
+
+                        @Override
+                        public void onError(String identifier, IOException error) {
+                            //It'll be fetched when it's opened.
+                        }
+
+                        @Override
+                        public void onComplete(boolean cancelled) {
+                            LogHelper.d(TAG, "Prefetch ", cancelled ? "cancelled" : "done");
+                        }
+                    });
+            return mPrefetch;
+        }
+    }
+
+    public static void cancelPrefetch() {
+        synchronized (MusicLoader.class) {
+            if (mPrefetch != null) {
+                mPrefetch.cancel();
+                mPrefetch = null;
+            }
         }
-        return "";
     }
 
     /**
@@ -318,6 +804,12 @@ public class MusicLoader {
     }
 
     public void clearCache() {
+        mRecordingCache.logStats();
         mRecordingCache.evictAll();
+        mPageKeys.evictAll();
+    }
+
+    public void logCacheStats() {
+        mRecordingCache.logStats();
     }
 }
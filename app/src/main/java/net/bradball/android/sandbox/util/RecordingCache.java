@@ -0,0 +1,72 @@
+package net.bradball.android.sandbox.util;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.support.v4.app.ActivityManagerCompat;
+import android.util.LruCache;
+
+import net.bradball.android.sandbox.model.Recording;
+import net.bradball.android.sandbox.model.SizeEstimate;
+
+/**
+ * The memory cache of recordings the user has browsed, keyed by archive.org identifier.
+ *
+ * Its size is in (estimated) bytes, not entries. Each recording is sized with {@link Recording#estimateSize()},
+ * which includes its tracks and reviews, so a recording with a long track list costs more than one that's
+ * only been listed. The budget depends on the device's memory class (see {@link #getBudget(Context)}).
+ *
+ * LruCache already counts hits, misses and evictions. {@link #logStats()} logs them, along with how full
+ * the cache is, so the budgets can be tuned.
+ */
+public class RecordingCache extends LruCache<String, Recording> {
+    private static final String TAG = LogHelper.makeLogTag(RecordingCache.class);
+
+    private static final int MB = 1024 * 1024;
+
+    /*
+        Budgets by memory class (the app's heap limit, in MB). Low RAM devices get the smallest
+        budget no matter what their memory class is.
+     */
+    private static final int LOW_RAM_BUDGET = 1 * MB;
+    private static final int SMALL_MEMORY_CLASS = 64;
+    private static final int SMALL_BUDGET = 2 * MB;
+    private static final int MEDIUM_MEMORY_CLASS = 128;
+    private static final int MEDIUM_BUDGET = 4 * MB;
+    private static final int LARGE_BUDGET = 8 * MB;
+
+    public RecordingCache(int maxBytes) {
+        super(maxBytes);
+    }
+
+    /**
+     * The cache budget for this device, in bytes.
+     */
+    public static int getBudget(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+
+        if (ActivityManagerCompat.isLowRamDevice(activityManager)) {
+            return LOW_RAM_BUDGET;
+        }
+
+        return getBudget(activityManager.getMemoryClass());
+    }
+
+    public static int getBudget(int memoryClass) {
+        if (memoryClass <= SMALL_MEMORY_CLASS) {
+            return SMALL_BUDGET;
+        } else if (memoryClass <= MEDIUM_MEMORY_CLASS) {
+            return MEDIUM_BUDGET;
+        }
+        return LARGE_BUDGET;
+    }
+
+    @Override
+    protected int sizeOf(String identifier, Recording recording) {
+        return SizeEstimate.of(identifier) + recording.estimateSize();
+    }
+
+    public void logStats() {
+        LogHelper.i(TAG, "Recording cache: ", size() / 1024, "KB of ", maxSize() / 1024, "KB, ",
+                hitCount(), " hits, ", missCount(), " misses, ", evictionCount(), " evictions, ", putCount(), " puts");
+    }
+}
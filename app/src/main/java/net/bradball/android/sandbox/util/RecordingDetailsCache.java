@@ -0,0 +1,371 @@
+package net.bradball.android.sandbox.util;
+
+import android.content.Context;
+
+import net.bradball.android.sandbox.data.ModelCodec;
+import net.bradball.android.sandbox.model.Recording;
+import net.bradball.android.sandbox.model.Review;
+import net.bradball.android.sandbox.model.Track;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A disk cache of recordings' details (their tracks and reviews), keyed by archive.org identifier.
+ * It sits between {@link MusicLoader}'s memory cache and the network, so details that were fetched
+ * before the process was killed don't have to be fetched again.
+ *
+ * Each recording is one file in the app's cache directory, in a compact binary format (see {@link ModelCodec}),
+ * rather than the details json, which is mostly files we don't use. The directory is kept under
+ * {@link #MAX_BYTES}, evicting the least recently used recordings first.
+ *
+ * An entry is fresh for {@link #TTL_MILLIS} after its details were fetched. After that it should be
+ * revalidated, but it can still be used if that fails, until it's {@link #MAX_STALE_MILLIS} old.
+ * Entries keep the ETag and Last-Modified they were fetched with, so they can be revalidated with a
+ * conditional request, and {@link #refresh(Entry, String, String)} restarts the TTL when the server says they haven't changed.
+ *
+ * There's one instance per process (see {@link #getInstance(Context)}) and it's thread safe. Files are
+ * written to a temp file and renamed into place, so a reader never sees a partly written entry.
+ */
+public class RecordingDetailsCache {
+    private static final String TAG = LogHelper.makeLogTag(RecordingDetailsCache.class);
+
+    private static final String DIRECTORY = "recording_details";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x52444331; //"RDC1"
+    private static final int FORMAT_VERSION = 3;
+
+    public static final long MAX_BYTES = 4 * 1024 * 1024;
+    public static final long TTL_MILLIS = TimeUnit.DAYS.toMillis(3);
+    public static final long MAX_STALE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    private static RecordingDetailsCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /** Each entry's file size by file name, least recently used first. Guarded by "this". */
+    private LinkedHashMap<String, Long> mIndex;
+    private long mTotalBytes;
+
+    public static synchronized RecordingDetailsCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RecordingDetailsCache(new File(context.getApplicationContext().getCacheDir(), DIRECTORY), MAX_BYTES);
+        }
+        return sInstance;
+    }
+
+    public RecordingDetailsCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * A recording's cached details.
+     */
+    public static class Entry {
+        public final String identifier;
+        public final long fetchedAt;
+        public final ArrayList<Track> tracks;
+        public final ArrayList<Review> reviews;
+        /** The validators the details were fetched with (for a conditional request). Either can be null. */
+        public final String etag;
+        public final String lastModified;
+
+        public Entry(String identifier, long fetchedAt, ArrayList<Track> tracks, ArrayList<Review> reviews) {
+            this(identifier, fetchedAt, tracks, reviews, null, null);
+        }
+
+        public Entry(String identifier, long fetchedAt, ArrayList<Track> tracks, ArrayList<Review> reviews, String etag, String lastModified) {
+            this.identifier = identifier;
+            this.fetchedAt = fetchedAt;
+            this.tracks = tracks;
+            this.reviews = reviews;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /** Whether the details can be used without revalidating them. */
+        public boolean isFresh() {
+            return getAge() < TTL_MILLIS;
+        }
+
+        /** Whether the details can still be used when they can't be revalidated. */
+        public boolean isUsable() {
+            return getAge() < MAX_STALE_MILLIS;
+        }
+
+        public long getAge() {
+            return System.currentTimeMillis() - fetchedAt;
+        }
+    }
+
+    /**
+     * Get a recording's cached details.
+     *
+     * @return the entry (which may be stale, see {@link Entry#isFresh()}), or null if there isn't a usable one.
+     */
+    public Entry get(String identifier) {
+        File file = getFile(identifier);
+        synchronized (this) {
+            if (getIndex().get(file.getName()) == null) {
+                return null;
+            }
+        }
+
+        //Reading doesn't need the lock. Entries are only ever replaced by a rename, or deleted,
+        //and either way the open file can still be read to the end.
+        Entry entry;
+        try {
+            entry = read(file);
+        } catch (IOException ex) {
+            LogHelper.w(TAG, ex, "Could not read cached details for ", identifier);
+            remove(identifier);
+            return null;
+        }
+
+        if (entry == null || !identifier.equals(entry.identifier) || !entry.isUsable()) {
+            remove(identifier);
+            return null;
+        }
+
+        //Eviction is by file date, so it's remembered across restarts.
+        file.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     * Whether there's a fresh entry for a recording (see {@link Entry#isFresh()}). This only reads the start
+     * of the entry's file, and it doesn't count as a use of the entry (for eviction), so it's cheap enough
+     * to check a whole list of recordings with.
+     */
+    public boolean isFresh(String identifier) {
+        File file = getFile(identifier);
+        synchronized (this) {
+            //Not get(), that would move it to the end of the LRU order.
+            if (!getIndex().containsKey(file.getName())) {
+                return false;
+            }
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION) {
+                    return false;
+                }
+                return System.currentTimeMillis() - in.readLong() < TTL_MILLIS;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            //get() will deal with it, if it's ever asked for.
+            return false;
+        }
+    }
+
+    /**
+     * Cache a recording's details, replacing what's cached for it already.
+     */
+    public void put(Entry entry) {
+        File temp = null;
+        try {
+            synchronized (this) {
+                //Build the index before there are any temp files of ours in the directory (it deletes leftover ones).
+                getIndex();
+            }
+
+            ensureDirectory();
+            temp = File.createTempFile("details", TEMP_SUFFIX, mDirectory);
+            write(temp, entry);
+
+            synchronized (this) {
+                File file = getFile(entry.identifier);
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Could not rename " + temp + " to " + file);
+                }
+                temp = null;
+
+                Long oldSize = mIndex.put(file.getName(), file.length());
+                mTotalBytes += file.length() - ((oldSize == null) ? 0 : oldSize);
+                trimToSize();
+            }
+        } catch (IOException ex) {
+            LogHelper.w(TAG, ex, "Could not cache details for ", entry.identifier);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * The server says an entry's details haven't changed, so they're good for another {@link #TTL_MILLIS}.
+     * The entry is re-written with the new fetch time and validators (from the already decoded entry,
+     * nothing is fetched or parsed again).
+     *
+     * @param etag the validators from the 304 response.
+     * @return the refreshed entry.
+     */
+    public Entry refresh(Entry entry, String etag, String lastModified) {
+        Entry refreshed = new Entry(entry.identifier, System.currentTimeMillis(), entry.tracks, entry.reviews, etag, lastModified);
+        put(refreshed);
+        return refreshed;
+    }
+
+    public synchronized void remove(String identifier) {
+        File file = getFile(identifier);
+        Long size = getIndex().remove(file.getName());
+        if (size != null) {
+            mTotalBytes -= size;
+            file.delete();
+        }
+    }
+
+    public synchronized void clear() {
+        for (String name : getIndex().keySet()) {
+            new File(mDirectory, name).delete();
+        }
+        mIndex.clear();
+        mTotalBytes = 0;
+    }
+
+    public synchronized long getSize() {
+        getIndex();
+        return mTotalBytes;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mIndex.entrySet().iterator();
+        while (mTotalBytes > mMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            mTotalBytes -= eldest.getValue();
+            new File(mDirectory, eldest.getKey()).delete();
+            LogHelper.d(TAG, "Evicted cached details for ", eldest.getKey());
+        }
+    }
+
+    /**
+     * The index is built from the files in the cache directory the first time it's needed,
+     * in the order they were last used.
+     */
+    private LinkedHashMap<String, Long> getIndex() {
+        if (mIndex != null) {
+            return mIndex;
+        }
+
+        mIndex = new LinkedHashMap<>(16, 0.75f, true);
+        mTotalBytes = 0;
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return mIndex;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return (l < r) ? -1 : ((l == r) ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                //Left behind by a write that didn't finish.
+                file.delete();
+                continue;
+            }
+            mIndex.put(file.getName(), file.length());
+            mTotalBytes += file.length();
+        }
+
+        return mIndex;
+    }
+
+    private void ensureDirectory() throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs() && !mDirectory.isDirectory()) {
+            throw new IOException("Could not create " + mDirectory);
+        }
+    }
+
+    /**
+     * Archive.org identifiers are already safe file names (letters, digits, '.', '-' and '_'),
+     * but just in case, anything else is replaced. The identifier is also in the file, and checked when it's read.
+     */
+    private File getFile(String identifier) {
+        return new File(mDirectory, identifier.replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    /*
+        Format: magic, version, the time the details were fetched, the etag and last modified date ("" for none),
+        then the length of the tracks and reviews, and the tracks and reviews themselves, as a recording encoded with ModelCodec.
+     */
+    private static void write(File file, Entry entry) throws IOException {
+        Recording recording = new Recording(entry.identifier);
+        recording.setTracks(entry.tracks);
+        recording.setReviews(entry.reviews);
+        byte[] body = ModelCodec.encode(recording);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(entry.fetchedAt);
+            out.writeUTF((entry.etag == null) ? "" : entry.etag);
+            out.writeUTF((entry.lastModified == null) ? "" : entry.lastModified);
+            out.writeInt(body.length);
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the entry, or null if the file is from a different version of the format.
+     */
+    private static Entry read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION) {
+                return null;
+            }
+
+            long fetchedAt = in.readLong();
+            String etag = in.readUTF();
+            String lastModified = in.readUTF();
+            int length = in.readInt();
+            if (length < 0 || length > file.length()) {
+                throw new IOException("Bad length " + length + " in " + file);
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+
+            Recording recording = ModelCodec.decodeRecording(body);
+            for (Track track : recording.getTracks()) {
+                track.setRecordingIdentifier(recording.getIdentifier());
+            }
+
+            return new Entry(recording.getIdentifier(), fetchedAt, recording.getTracks(), recording.getReviews(),
+                    etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified);
+        } finally {
+            in.close();
+        }
+    }
+}
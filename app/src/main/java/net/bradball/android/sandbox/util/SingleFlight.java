@@ -0,0 +1,163 @@
+package net.bradball.android.sandbox.util;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Coalesces duplicate loads. If a load for a key is already in flight when another is asked for,
+ * the second caller waits for the first one's result instead of doing the work again. When the load
+ * finishes, every caller that was waiting for it gets the same result (or the same exception).
+ *
+ * A load can also be done somewhere else, like on another thread pool (see {@link #begin(Object)}),
+ * and callers of {@link #load(Object, Loader)} will still wait for it.
+ *
+ * Only loads that overlap are shared. Once a load is done it's forgotten, so caching the result is up to the caller.
+ */
+public class SingleFlight<K, V> {
+    private static final String TAG = LogHelper.makeLogTag(SingleFlight.class);
+
+    public interface Loader<V> {
+        V load();
+    }
+
+    /**
+     * A load that's in flight. Whoever began it has to finish (or fail) it, or anyone waiting for it waits forever.
+     */
+    public static class Flight<V> {
+        private final SingleFlight<?, V> mSingleFlight;
+        private final Object mKey;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+
+        /** Guarded by the SingleFlight. */
+        private int mWaiters;
+        private boolean mFinished;
+
+        private V mResult;
+        private Throwable mError;
+
+        private Flight(SingleFlight<?, V> singleFlight, Object key) {
+            mSingleFlight = singleFlight;
+            mKey = key;
+        }
+
+        /**
+         * Hand the result to everyone waiting for it. Only the first finish (or fail) counts.
+         */
+        public void finish(V result) {
+            complete(result, null);
+        }
+
+        /**
+         * Throw the error to everyone waiting for the result (wrapped in a RuntimeException, if it's checked).
+         */
+        public void fail(Throwable error) {
+            complete(null, error);
+        }
+
+        private void complete(V result, Throwable error) {
+            int waiters;
+            synchronized (mSingleFlight) {
+                if (mFinished) {
+                    return;
+                }
+                mFinished = true;
+                mResult = result;
+                mError = error;
+                waiters = mWaiters;
+                mSingleFlight.mFlights.remove(mKey);
+            }
+
+            //The latch publishes the result to the waiters.
+            mDone.countDown();
+            if (waiters > 0) {
+                LogHelper.d(TAG, "Shared load for ", mKey, " with ", waiters, " waiting callers");
+            }
+        }
+
+        private V await() {
+            awaitUninterruptibly(mDone);
+            if (mError instanceof RuntimeException) {
+                throw (RuntimeException) mError;
+            }
+            if (mError instanceof Error) {
+                throw (Error) mError;
+            }
+            if (mError != null) {
+                throw new RuntimeException(mError);
+            }
+            return mResult;
+        }
+    }
+
+    /** Guarded by "this". */
+    private final HashMap<K, Flight<V>> mFlights = new HashMap<>();
+
+    /**
+     * Load the value for a key, or wait for the load that's already in flight for it.
+     */
+    public V load(K key, Loader<V> loader) {
+        Flight<V> flight;
+        boolean owner = false;
+
+        synchronized (this) {
+            flight = mFlights.get(key);
+            if (flight == null) {
+                flight = new Flight<>(this, key);
+                mFlights.put(key, flight);
+                owner = true;
+            } else {
+                flight.mWaiters++;
+            }
+        }
+
+        if (!owner) {
+            LogHelper.d(TAG, "Joining in flight load for ", key);
+            return flight.await();
+        }
+
+        V result;
+        try {
+            result = loader.load();
+        } catch (Throwable ex) {
+            flight.fail(ex);
+            throw ex;
+        }
+        flight.finish(result);
+        return result;
+    }
+
+    /**
+     * Begin a load for a key, to be finished by the caller. Until it's finished, {@link #load(Object, Loader)}
+     * callers for the key wait for it.
+     *
+     * @return the flight, or null if there's already a load in flight for the key.
+     */
+    public synchronized Flight<V> begin(K key) {
+        if (mFlights.containsKey(key)) {
+            return null;
+        }
+
+        Flight<V> flight = new Flight<V>(this, key);
+        mFlights.put(key, flight);
+        return flight;
+    }
+
+    /**
+     * A waiter can't give up part way, because it has nothing to return without the result. So it keeps
+     * waiting, and re-sets its interrupt when it's done.
+     */
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
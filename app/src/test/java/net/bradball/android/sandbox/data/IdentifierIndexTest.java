@@ -0,0 +1,128 @@
+package net.bradball.android.sandbox.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IdentifierIndexTest {
+
+    @Test
+    public void shows_surviveResize() {
+        IdentifierIndex index = new IdentifierIndex();
+
+        //Every day from 1965 to 1995, far past the starting table size.
+        int count = 0;
+        for (int year = 1965; year <= 1995; year++) {
+            for (int month = 1; month <= 12; month++) {
+                for (int day = 1; day <= 28; day++) {
+                    index.putShow(formatDate(year, month, day), count++);
+                }
+            }
+        }
+
+        assertEquals(count, index.getShowCount());
+        int id = 0;
+        for (int year = 1965; year <= 1995; year++) {
+            for (int month = 1; month <= 12; month++) {
+                for (int day = 1; day <= 28; day++) {
+                    assertEquals(id++, index.getShowId(formatDate(year, month, day)));
+                }
+            }
+        }
+        assertEquals(IdentifierIndex.NO_ID, index.getShowId("1996-01-01"));
+    }
+
+    @Test
+    public void recordings_surviveResize() {
+        IdentifierIndex index = new IdentifierIndex();
+
+        for (int i = 0; i < 10000; i++) {
+            index.putRecording("gd-" + i, i + 1);
+        }
+
+        assertEquals(10000, index.getRecordingCount());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i + 1, index.getRecordingId("gd-" + i));
+        }
+        assertEquals(IdentifierIndex.NO_ID, index.getRecordingId("gd-10000"));
+    }
+
+    @Test
+    public void recordings_sameHashCode_bothFound() {
+        //"Aa" and "BB" have the same String.hashCode(), so these land in the same slot.
+        String first = "gd1977-05-08.sbd.Aa";
+        String second = "gd1977-05-08.sbd.BB";
+        assertEquals(first.hashCode(), second.hashCode());
+
+        IdentifierIndex index = new IdentifierIndex();
+        index.putRecording(first, 1);
+        index.putRecording(second, 2);
+
+        assertEquals(2, index.getRecordingCount());
+        assertEquals(1, index.getRecordingId(first));
+        assertEquals(2, index.getRecordingId(second));
+        assertEquals(IdentifierIndex.NO_ID, index.getRecordingId("gd1977-05-08.sbd.C#"));
+    }
+
+    @Test
+    public void put_existingKey_replacesId() {
+        IdentifierIndex index = new IdentifierIndex();
+        index.putShow("1977-05-08", 1);
+        index.putShow("1977-05-08", 2);
+        index.putRecording("gd1977-05-08.sbd", 3);
+        index.putRecording("gd1977-05-08.sbd", 4);
+
+        assertEquals(1, index.getShowCount());
+        assertEquals(2, index.getShowId("1977-05-08"));
+        assertEquals(1, index.getRecordingCount());
+        assertEquals(4, index.getRecordingId("gd1977-05-08.sbd"));
+    }
+
+    @Test
+    public void showDates_thatKeyToZero_areIgnored() {
+        //A date key of 0 marks an empty slot, so anything that parses to it can't be stored.
+        IdentifierIndex index = new IdentifierIndex();
+        index.putShow("0000-00-00", 1);
+        index.putShow(null, 2);
+        index.putShow("", 3);
+        index.putShow("1977/05/08", 4);
+        index.putShow("1977-5-8", 5);
+        index.putShow("19x7-05-08", 6);
+
+        assertEquals(0, index.getShowCount());
+        assertEquals(IdentifierIndex.NO_ID, index.getShowId("0000-00-00"));
+        assertEquals(IdentifierIndex.NO_ID, index.getShowId(null));
+        assertEquals(IdentifierIndex.NO_ID, index.getShowId("1977/05/08"));
+    }
+
+    @Test
+    public void zeroIds_areStored() {
+        //Only keys mark empty slots, an id can be anything.
+        IdentifierIndex index = new IdentifierIndex();
+        index.putShow("1977-05-08", 0);
+        index.putRecording("gd1977-05-08.sbd", 0);
+
+        assertEquals(0, index.getShowId("1977-05-08"));
+        assertEquals(0, index.getRecordingId("gd1977-05-08.sbd"));
+    }
+
+    @Test
+    public void nullIdentifier_isIgnored() {
+        IdentifierIndex index = new IdentifierIndex();
+        index.putRecording(null, 1);
+
+        assertEquals(0, index.getRecordingCount());
+        assertEquals(IdentifierIndex.NO_ID, index.getRecordingId(null));
+    }
+
+    @Test
+    public void parseDateKey() {
+        assertEquals(19770508, IdentifierIndex.parseDateKey("1977-05-08"));
+        assertEquals(0, IdentifierIndex.parseDateKey("1977-05-08T00:00:00"));
+        assertEquals(0, IdentifierIndex.parseDateKey("1977-05-0a"));
+    }
+
+    private static String formatDate(int year, int month, int day) {
+        return String.format("%04d-%02d-%02d", year, month, day);
+    }
+}
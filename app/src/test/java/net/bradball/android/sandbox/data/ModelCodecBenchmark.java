@@ -0,0 +1,90 @@
+package net.bradball.android.sandbox.data;
+
+import net.bradball.android.sandbox.model.Recording;
+import net.bradball.android.sandbox.model.Review;
+import net.bradball.android.sandbox.model.Track;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares ModelCodec to Gson (reflection, the way we parse everything else) on a recording's track list,
+ * which is the bulk of what gets cached. Tracks are used because Gson can't do the joda dates
+ * in the rest of the models without adapters.
+ *
+ * Timings depend too much on the machine to run with every build, so it's skipped unless the
+ * "benchmark" system property is set (e.g. -Dbenchmark=true in the IDE's run configuration).
+ * The timings are in the failure messages.
+ */
+public class ModelCodecBenchmark {
+    private static final int TRACK_COUNT = 40;
+    private static final int WARMUP = 500;
+    private static final int ITERATIONS = 2000;
+
+    @Test
+    public void codec_vsGson() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+
+        Recording recording = ModelCodecTest.createRecording("gd1977-05-08.sbd.hicks.4982.sbeok.shnf", TRACK_COUNT);
+        recording.setReviews(new ArrayList<Review>());
+        ArrayList<Track> tracks = recording.getTracks();
+
+        Gson gson = new Gson();
+        Type tracksType = new TypeToken<ArrayList<Track>>() {}.getType();
+
+        byte[] codecBytes = ModelCodec.encode(recording);
+        byte[] gsonBytes = gson.toJson(tracks, tracksType).getBytes("UTF-8");
+        String json = new String(gsonBytes, "UTF-8");
+
+        for (int i = 0; i < WARMUP; i++) {
+            ModelCodec.decodeRecording(ModelCodec.encode(recording));
+            gson.fromJson(gson.toJson(tracks, tracksType), tracksType);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            ModelCodec.encode(recording);
+        }
+        long codecEncode = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            ModelCodec.decodeRecording(codecBytes);
+        }
+        long codecDecode = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            gson.toJson(tracks, tracksType).getBytes("UTF-8");
+        }
+        long gsonEncode = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            gson.fromJson(json, tracksType);
+        }
+        long gsonDecode = System.nanoTime() - start;
+
+        String results = String.format("%d tracks: codec %d bytes, encode %.1fus, decode %.1fus; gson %d bytes, encode %.1fus, decode %.1fus",
+                TRACK_COUNT,
+                codecBytes.length, micros(codecEncode), micros(codecDecode),
+                gsonBytes.length, micros(gsonEncode), micros(gsonDecode));
+
+        assertEquals(TRACK_COUNT, ModelCodec.decodeRecording(codecBytes).getTracks().size());
+        assertTrue("Codec output should be smaller than json. " + results, codecBytes.length < gsonBytes.length);
+        assertTrue("Codec should encode faster than gson. " + results, codecEncode < gsonEncode);
+        assertTrue("Codec should decode faster than gson. " + results, codecDecode < gsonDecode);
+    }
+
+    private static double micros(long totalNanos) {
+        return totalNanos / 1000.0 / ITERATIONS;
+    }
+}
@@ -0,0 +1,264 @@
+package net.bradball.android.sandbox.data;
+
+import net.bradball.android.sandbox.model.Recording;
+import net.bradball.android.sandbox.model.Review;
+import net.bradball.android.sandbox.model.Show;
+import net.bradball.android.sandbox.model.Track;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ModelCodecTest {
+
+    @Test
+    public void recording_roundTrips() throws Exception {
+        Recording recording = createRecording("gd1977-05-08.sbd.hicks.4982.sbeok.shnf", 12);
+
+        Recording decoded = ModelCodec.decodeRecording(ModelCodec.encode(recording));
+
+        assertRecordingEquals(recording, decoded);
+    }
+
+    @Test
+    public void show_roundTrips() throws Exception {
+        Show show = new Show(new LocalDate(1977, 5, 8));
+        show.setID(7);
+        show.setLocation("Barton Hall, Cornell University");
+        show.setTitle("Grateful Dead Live at Barton Hall on 1977-05-08");
+        show.setSetlist("Scarlet Begonias > Fire On The Mountain");
+        show.addRecording(createRecording("gd1977-05-08.sbd", 3));
+        show.addRecording(createRecording("gd1977-05-08.aud", 2));
+
+        List<Show> decoded = ModelCodec.decodeShows(ModelCodec.encodeShows(Arrays.asList(show)));
+
+        assertEquals(1, decoded.size());
+        Show decodedShow = decoded.get(0);
+        assertEquals(show.getID(), decodedShow.getID());
+        assertEquals(show.getDate(), decodedShow.getDate());
+        assertEquals(show.getLocation(), decodedShow.getLocation());
+        assertEquals(show.getTitle(), decodedShow.getTitle());
+        assertEquals(show.getSetlist(), decodedShow.getSetlist());
+        assertEquals(show.getDownloads(), decodedShow.getDownloads());
+        assertEquals(show.isSoundboard(), decodedShow.isSoundboard());
+        assertEquals(2, decodedShow.getRecordings().size());
+        assertRecordingEquals(show.getRecordings().get(0), decodedShow.getRecordings().get(0));
+        assertRecordingEquals(show.getRecordings().get(1), decodedShow.getRecordings().get(1));
+    }
+
+    @Test
+    public void showWithoutRecordings_keepsRecordingCount() throws Exception {
+        Show show = new Show(new LocalDate(1965, 12, 4));
+        show.setRecordingsCount(4);
+        show.setDownloads(1200);
+        show.setSoundboard(true);
+
+        Show decoded = ModelCodec.decodeShows(ModelCodec.encodeShows(Arrays.asList(show))).get(0);
+
+        assertEquals(4, decoded.getRecordingsCount());
+        assertEquals(1200, decoded.getDownloads());
+        assertTrue(decoded.isSoundboard());
+    }
+
+    @Test
+    public void defaultsAndNulls_roundTrip() throws Exception {
+        Recording recording = new Recording();
+
+        Recording decoded = ModelCodec.decodeRecording(ModelCodec.encode(recording));
+
+        assertNull(decoded.getIdentifier());
+        assertNull(decoded.getDate());
+        assertEquals(0, decoded.getID());
+        assertEquals(0f, decoded.getRating(), 0f);
+        assertTrue(decoded.getTracks().isEmpty());
+    }
+
+    @Test
+    public void nonAsciiAndNegativeValues_roundTrip() throws Exception {
+        Recording recording = new Recording("gd1990-03-29.sbd");
+        recording.setID(-5);
+        recording.setLocation("Nassau Coliseum \u2013 Uniondale, NY \u266b");
+        recording.setDate(new LocalDate(1965, 1, 1).minusYears(20));
+
+        Recording decoded = ModelCodec.decodeRecording(ModelCodec.encode(recording));
+
+        assertEquals(-5, decoded.getID());
+        assertEquals(recording.getLocation(), decoded.getLocation());
+        assertEquals(recording.getDate(), decoded.getDate());
+    }
+
+    @Test
+    public void repeatedStrings_areOnlyStoredOnce() throws Exception {
+        Recording recording = createRecording("gd1972-05-04.sbd.miller.32203.flac16", 30);
+
+        byte[] bytes = ModelCodec.encode(recording);
+
+        String album = recording.getTracks().get(0).getAlbum();
+        assertEquals(1, countOccurrences(bytes, album.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void unknownFields_areSkipped() throws Exception {
+        //What a newer version might write: a recording with a field this version doesn't know about
+        //(a string, and a nested object with a field of its own), and a top level object of a new type.
+        ModelCodec.Writer writer = new ModelCodec.Writer();
+        writer.beginObject(2);
+        writer.writeString(3, "gd1977-05-08.sbd");
+        writer.writeString(99, "a new field");
+        writer.beginObject(98);
+        writer.writeLong(1, 42);
+        writer.writeFloat(2, 1.5f);
+        writer.endObject();
+        writer.writeLong(10, 1000);
+        writer.endObject();
+        writer.beginObject(50);
+        writer.writeLong(1, 7);
+        writer.endObject();
+
+        List<Recording> decoded = ModelCodec.decodeRecordings(writer.toByteArray());
+
+        assertEquals(1, decoded.size());
+        assertEquals("gd1977-05-08.sbd", decoded.get(0).getIdentifier());
+        assertEquals(1000, decoded.get(0).getDownloads());
+    }
+
+    @Test(expected = IOException.class)
+    public void newerVersion_isRejected() throws Exception {
+        byte[] bytes = ModelCodec.encode(createRecording("gd1977-05-08.sbd", 1));
+        bytes[4] = (byte) (ModelCodec.VERSION + 1);
+
+        ModelCodec.decodeRecording(bytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void otherData_isRejected() throws Exception {
+        ModelCodec.decodeRecording("{\"files\": {}}".getBytes("UTF-8"));
+    }
+
+    @Test
+    public void truncatedData_isRejected() throws Exception {
+        byte[] bytes = ModelCodec.encode(createRecording("gd1977-05-08.sbd", 5));
+
+        for (int length = 0; length < bytes.length; length++) {
+            try {
+                ModelCodec.decodeRecording(Arrays.copyOf(bytes, length));
+                fail("Decoded a recording from " + length + " of " + bytes.length + " bytes");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    static Recording createRecording(String identifier, int trackCount) {
+        Recording recording = new Recording(identifier);
+        recording.setID(42);
+        recording.setShowID(7);
+        recording.setDate(new LocalDate(1977, 5, 8));
+        recording.setLocation("Barton Hall, Cornell University");
+        recording.setTitle("Grateful Dead Live at Barton Hall on 1977-05-08");
+        recording.setSetlist("New Minglewood Blues, Loser, El Paso, They Love Each Other, Jack Straw, Deal, Lazy Lightning > Supplication");
+        recording.setSource("SBD > Reel > DAT > CD");
+        recording.setPublisher("charlie miller");
+        recording.setRating(4.85f);
+        recording.setNumReviews(211);
+        recording.setDownloads(1250000);
+        recording.setSoundboard(true);
+        recording.setAvailableOffline(true);
+
+        ArrayList<Track> tracks = new ArrayList<>();
+        for (int i = 1; i <= trackCount; i++) {
+            Track track = new Track();
+            track.setID(100 + i);
+            track.setRecordingID(42);
+            track.setRecordingIdentifier(identifier);
+            track.setFilename("/gd77-05-08d1t" + (i < 10 ? "0" : "") + i + ".mp3");
+            track.setTitle("Track " + i);
+            track.setNumber(i);
+            track.setAlbum("1977-05-08 - Barton Hall, Cornell University");
+            track.setBitRate("192");
+            track.setLength("0" + (i % 10) + ":3" + (i % 6));
+            track.setFormat("VBR MP3");
+            track.setSize(8000000L + i * 1234);
+            track.setMd5("ac231e12151c93b3429e041e50db2f" + (10 + i));
+            tracks.add(track);
+        }
+        recording.setTracks(tracks);
+
+        Review review = new Review(13355);
+        review.setID(1);
+        review.setRecordingID(42);
+        review.setTitle("Best show ever?");
+        review.setReview("Maybe. The Morning Dew alone...");
+        review.setReviewer("digdogdig");
+        review.setDate(new LocalDateTime(2004, 5, 19, 8, 34, 19));
+        review.setStars(5);
+        recording.addReview(review);
+
+        return recording;
+    }
+
+    private static void assertRecordingEquals(Recording expected, Recording actual) {
+        assertEquals(expected.getID(), actual.getID());
+        assertEquals(expected.getShowID(), actual.getShowID());
+        assertEquals(expected.getIdentifier(), actual.getIdentifier());
+        assertEquals(expected.getDate(), actual.getDate());
+        assertEquals(expected.getLocation(), actual.getLocation());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getSetlist(), actual.getSetlist());
+        assertEquals(expected.getSource(), actual.getSource());
+        assertEquals(expected.getPublisher(), actual.getPublisher());
+        assertEquals(expected.getRating(), actual.getRating(), 0f);
+        assertEquals(expected.getNumReviews(), actual.getNumReviews());
+        assertEquals(expected.getDownloads(), actual.getDownloads());
+        assertEquals(expected.isSoundboard(), actual.isSoundboard());
+        assertEquals(expected.isAvailableOffline(), actual.isAvailableOffline());
+
+        assertEquals(expected.getTracks().size(), actual.getTracks().size());
+        for (int i = 0; i < expected.getTracks().size(); i++) {
+            Track expectedTrack = expected.getTracks().get(i);
+            Track actualTrack = actual.getTracks().get(i);
+            assertEquals(expectedTrack.getID(), actualTrack.getID());
+            assertEquals(expectedTrack.getRecordingID(), actualTrack.getRecordingID());
+            assertEquals(expectedTrack.getRecordingIdentifier(), actualTrack.getRecordingIdentifier());
+            assertEquals(expectedTrack.getFilename(), actualTrack.getFilename());
+            assertEquals(expectedTrack.getTitle(), actualTrack.getTitle());
+            assertEquals(expectedTrack.getNumber(), actualTrack.getNumber());
+            assertEquals(expectedTrack.getAlbum(), actualTrack.getAlbum());
+            assertEquals(expectedTrack.getBitRate(), actualTrack.getBitRate());
+            assertEquals(expectedTrack.getLength(), actualTrack.getLength());
+            assertEquals(expectedTrack.getFormat(), actualTrack.getFormat());
+            assertEquals(expectedTrack.getSize(), actualTrack.getSize());
+            assertEquals(expectedTrack.getMd5(), actualTrack.getMd5());
+        }
+
+        assertEquals(expected.getReviews().size(), actual.getReviews().size());
+        for (int i = 0; i < expected.getReviews().size(); i++) {
+            Review expectedReview = expected.getReviews().get(i);
+            Review actualReview = actual.getReviews().get(i);
+            assertEquals(expectedReview.getID(), actualReview.getID());
+            assertEquals(expectedReview.getRecordingID(), actualReview.getRecordingID());
+            assertEquals(expectedReview.getReviewID(), actualReview.getReviewID());
+            assertEquals(expectedReview.getTitle(), actualReview.getTitle());
+            assertEquals(expectedReview.getReview(), actualReview.getReview());
+            assertEquals(expectedReview.getReviewer(), actualReview.getReviewer());
+            assertEquals(expectedReview.getDate(), actualReview.getDate());
+            assertEquals(expectedReview.getStars(), actualReview.getStars());
+        }
+    }
+
+    private static int countOccurrences(byte[] haystack, byte[] needle) {
+        int count = 0;
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(haystack, i, i + needle.length), needle)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
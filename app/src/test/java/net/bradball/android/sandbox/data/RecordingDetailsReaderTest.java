@@ -0,0 +1,132 @@
+package net.bradball.android.sandbox.data;
+
+import net.bradball.android.sandbox.data.jsonModel.RecordingDetailsJson;
+import net.bradball.android.sandbox.model.Review;
+import net.bradball.android.sandbox.model.Track;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class RecordingDetailsReaderTest {
+    private static final String IDENTIFIER = "gd1977-05-08.sbd.hicks.4982.sbeok.shnf";
+
+    @Test
+    public void files_onlyMp3sAreTracks() throws Exception {
+        RecordingDetailsJson details = read("{\"files\": {" +
+                "\"/gd77-05-08d1t01.shn\": {\"track\": \"1\", \"title\": \"New Minglewood Blues\", \"format\": \"Shorten\"}," +
+                "\"/gd77-05-08d1t01.mp3\": {\"track\": \"1\", \"title\": \"New Minglewood Blues\", \"format\": \"VBR MP3\", \"size\": \"8404992\"}," +
+                "\"/gd77-05-08.md5\": {\"format\": \"Checksums\"}," +
+                "\"/gd77-05-08d1t02.MP3\": {\"track\": \"2\", \"title\": \"Loser\"}," +
+                "\"/gd77-05-08_files.xml\": {\"format\": \"Metadata\", \"nested\": {\"track\": \"99\"}}" +
+                "}}");
+
+        assertEquals(2, details.tracks.size());
+
+        Track first = details.tracks.get(0);
+        assertEquals("/gd77-05-08d1t01.mp3", first.getFilename());
+        assertEquals("New Minglewood Blues", first.getTitle());
+        assertEquals(1, first.getNumber());
+        assertEquals(8404992L, first.getSize());
+        assertEquals(7, first.getRecordingID());
+        assertEquals(IDENTIFIER, first.getRecordingIdentifier());
+
+        assertEquals("/gd77-05-08d1t02.MP3", details.tracks.get(1).getFilename());
+    }
+
+    @Test
+    public void isMp3() {
+        assertTrue(RecordingDetailsReader.isMp3("/d1t01.mp3"));
+        assertTrue(RecordingDetailsReader.isMp3("d1t01.Mp3"));
+        assertFalse(RecordingDetailsReader.isMp3(".mp3"));
+        assertFalse(RecordingDetailsReader.isMp3("mp3"));
+        assertFalse(RecordingDetailsReader.isMp3("/d1t01.mp3.md5"));
+        assertFalse(RecordingDetailsReader.isMp3("/d1t01.flac"));
+        assertFalse(RecordingDetailsReader.isMp3(""));
+    }
+
+    @Test
+    public void noFiles_tracksAreNull() throws Exception {
+        RecordingDetailsJson details = read("{\"metadata\": {\"identifier\": [\"" + IDENTIFIER + "\"]}, \"server\": \"ia800300.us.archive.org\"}");
+
+        assertNull(details.tracks);
+        assertTrue(details.reviews.isEmpty());
+    }
+
+    @Test
+    public void emptyDetails_tracksAreNull() throws Exception {
+        //What archive.org sends for an identifier it doesn't have.
+        RecordingDetailsJson details = read("{}");
+
+        assertNull(details.tracks);
+        assertTrue(details.reviews.isEmpty());
+    }
+
+    @Test
+    public void filesWithoutMp3s_tracksAreEmpty() throws Exception {
+        RecordingDetailsJson details = read("{\"files\": {\"/gd77-05-08d1t01.shn\": {\"track\": \"1\"}}}");
+
+        assertNotNull(details.tracks);
+        assertTrue(details.tracks.isEmpty());
+    }
+
+    @Test
+    public void reviews_areReadFromInsideReviewsObject() throws Exception {
+        RecordingDetailsJson details = read("{" +
+                "\"reviews\": {" +
+                "\"info\": {\"num_reviews\": 2, \"avg_rating\": \"4.50\"}," +
+                "\"reviews\": [" +
+                "{\"review_id\": \"101\", \"reviewtitle\": \"Cornell\", \"reviewbody\": \"The best.\", \"reviewer\": \"deadhead\", \"stars\": \"5\", \"reviewdate\": \"2004-03-12 01:02:03\"}," +
+                "{\"review_id\": \"102\", \"reviewtitle\": \"Overrated\", \"reviewer\": \"skeptic\", \"stars\": \"4\", \"reviewdate\": \"not a date\"}" +
+                "]}," +
+                "\"files\": {}" +
+                "}");
+
+        assertEquals(2, details.reviews.size());
+
+        Review first = details.reviews.get(0);
+        assertEquals(101, first.getReviewID());
+        assertEquals("Cornell", first.getTitle());
+        assertEquals("deadhead", first.getReviewer());
+        assertEquals(5, first.getStars());
+        assertEquals(7, first.getRecordingID());
+
+        Review second = details.reviews.get(1);
+        assertEquals(102, second.getReviewID());
+        assertEquals(4, second.getStars());
+        assertNotNull(second.getDate());
+    }
+
+    @Test
+    public void reviewsThatArentAnObject_areSkipped() throws Exception {
+        RecordingDetailsJson details = read("{\"reviews\": [{\"review_id\": \"101\"}], \"files\": {}}");
+
+        assertTrue(details.reviews.isEmpty());
+        assertNotNull(details.tracks);
+    }
+
+    @Test
+    public void tracks_stableSortByNumber() throws Exception {
+        RecordingDetailsJson details = read("{\"files\": {" +
+                "\"/d2t01.mp3\": {\"track\": \"3\", \"title\": \"Scarlet Begonias\"}," +
+                "\"/d1t02.mp3\": {\"track\": \"1\", \"title\": \"first 1\"}," +
+                "\"/d1t03.mp3\": {\"track\": \"2\", \"title\": \"Loser\"}," +
+                "\"/d1t01.mp3\": {\"track\": \"1\", \"title\": \"second 1\"}," +
+                "\"/d1t04.mp3\": {\"track\": \"1\", \"title\": \"third 1\"}" +
+                "}}");
+
+        assertEquals(5, details.tracks.size());
+        assertEquals("first 1", details.tracks.get(0).getTitle());
+        assertEquals("second 1", details.tracks.get(1).getTitle());
+        assertEquals("third 1", details.tracks.get(2).getTitle());
+        assertEquals("Loser", details.tracks.get(3).getTitle());
+        assertEquals("Scarlet Begonias", details.tracks.get(4).getTitle());
+    }
+
+    private static RecordingDetailsJson read(String json) throws IOException {
+        return new RecordingDetailsReader(7, IDENTIFIER).read(new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+}
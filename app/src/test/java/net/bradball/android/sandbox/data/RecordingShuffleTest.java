@@ -0,0 +1,76 @@
+package net.bradball.android.sandbox.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecordingShuffleTest {
+
+    @Test
+    public void next_returnsEveryIdOnce() {
+        long[] ids = createIds(500);
+        RecordingShuffle shuffle = new RecordingShuffle(ids.clone(), 42);
+
+        HashSet<Long> seen = new HashSet<>();
+        for (int i = 0; i < ids.length; i++) {
+            assertTrue(shuffle.hasNext());
+            long id = shuffle.next();
+            assertTrue("Returned " + id + " twice", seen.add(id));
+        }
+
+        for (long id : ids) {
+            assertTrue("Never returned " + id, seen.contains(id));
+        }
+        assertFalse(shuffle.hasNext());
+        assertEquals(0, shuffle.getRemaining());
+        assertEquals(IdentifierIndex.NO_ID, shuffle.next());
+    }
+
+    @Test
+    public void sameSeed_sameSequence() {
+        long[] ids = createIds(100);
+
+        assertEquals(drain(new RecordingShuffle(ids.clone(), 7)), drain(new RecordingShuffle(ids.clone(), 7)));
+        assertNotEquals(drain(new RecordingShuffle(ids.clone(), 7)), drain(new RecordingShuffle(ids.clone(), 8)));
+    }
+
+    @Test
+    public void empty_hasNothing() {
+        RecordingShuffle shuffle = new RecordingShuffle(new long[0], 42);
+
+        assertEquals(0, shuffle.size());
+        assertFalse(shuffle.hasNext());
+        assertEquals(IdentifierIndex.NO_ID, shuffle.next());
+    }
+
+    @Test
+    public void oneId_isReturnedOnce() {
+        RecordingShuffle shuffle = new RecordingShuffle(new long[] { 1977 }, 42);
+
+        assertTrue(shuffle.hasNext());
+        assertEquals(1977, shuffle.next());
+        assertFalse(shuffle.hasNext());
+        assertEquals(IdentifierIndex.NO_ID, shuffle.next());
+    }
+
+    private static long[] createIds(int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            //Gaps, like deleted rows.
+            ids[i] = i * 3 + 1;
+        }
+        return ids;
+    }
+
+    private static List<Long> drain(RecordingShuffle shuffle) {
+        List<Long> sequence = new ArrayList<>();
+        while (shuffle.hasNext()) {
+            sequence.add(shuffle.next());
+        }
+        return sequence;
+    }
+}
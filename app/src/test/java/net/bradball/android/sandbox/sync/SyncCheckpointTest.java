@@ -0,0 +1,93 @@
+package net.bradball.android.sandbox.sync;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class SyncCheckpointTest {
+    private static final long NOW = 1000L * 60 * 60 * 24 * 365 * 40;
+    private static final Date WATERMARK = new Date(NOW - 1000L * 60 * 60 * 24 * 7);
+    private static final Date STARTED = new Date(NOW - 1000L * 60 * 10);
+
+    @Test
+    public void start_isNotResumable() {
+        SyncCheckpoint checkpoint = SyncCheckpoint.start(WATERMARK);
+
+        assertFalse(checkpoint.isResumable());
+        assertFalse(checkpoint.canResume(NOW));
+        assertFalse(checkpoint.isFinished());
+        assertNull(checkpoint.cursor);
+        assertSame(WATERMARK, checkpoint.watermark);
+    }
+
+    @Test
+    public void canResume_untilMaxAge() {
+        assertTrue(savedAgo(0).canResume(NOW));
+        assertTrue(savedAgo(SyncCheckpoint.MAX_AGE_MILLIS).canResume(NOW));
+        assertFalse(savedAgo(SyncCheckpoint.MAX_AGE_MILLIS + 1).canResume(NOW));
+    }
+
+    @Test
+    public void canResume_notFromTheFuture() {
+        //The clock was set back since it was saved, so there's no telling how old it is.
+        assertFalse(savedAgo(-1).canResume(NOW));
+    }
+
+    @Test
+    public void canResume_untilMaxAttempts() {
+        SyncCheckpoint checkpoint = savedAgo(0);
+
+        for (int i = 0; i < SyncCheckpoint.MAX_ATTEMPTS; i++) {
+            assertTrue("Attempt " + i, checkpoint.canResume(NOW));
+            checkpoint = checkpoint.retry();
+        }
+
+        assertEquals(SyncCheckpoint.MAX_ATTEMPTS, checkpoint.attempts);
+        assertFalse(checkpoint.canResume(NOW));
+    }
+
+    @Test
+    public void retry_keepsCursorAndAge() {
+        SyncCheckpoint checkpoint = savedAgo(1000);
+        SyncCheckpoint retried = checkpoint.retry();
+
+        assertEquals(checkpoint.cursor, retried.cursor);
+        assertSame(checkpoint.watermark, retried.watermark);
+        assertSame(checkpoint.started, retried.started);
+        assertEquals(checkpoint.pages, retried.pages);
+        assertEquals(checkpoint.itemsLeft, retried.itemsLeft);
+        //Retrying doesn't make it any younger, the cursor is still as old as it was.
+        assertEquals(checkpoint.savedAt, retried.savedAt);
+        assertEquals(checkpoint.attempts + 1, retried.attempts);
+    }
+
+    @Test
+    public void next_keepsWatermark_resetsAttempts() {
+        SyncCheckpoint checkpoint = savedAgo(1000).retry().retry();
+        SyncCheckpoint next = checkpoint.next("cursor-3", 500);
+
+        assertEquals("cursor-3", next.cursor);
+        assertEquals(500, next.itemsLeft);
+        assertEquals(checkpoint.pages + 1, next.pages);
+        //The cursor belongs to the query with this watermark, and the sync's start is the next watermark.
+        assertSame(WATERMARK, next.watermark);
+        assertSame(STARTED, next.started);
+        //It got further, so it starts over on attempts.
+        assertEquals(0, next.attempts);
+        assertTrue(next.savedAt > checkpoint.savedAt);
+    }
+
+    @Test
+    public void isFinished_whenNoCursorOrItemsLeft() {
+        assertFalse(new SyncCheckpoint("cursor-2", WATERMARK, STARTED, 100, 2, 0, NOW).isFinished());
+        assertTrue(new SyncCheckpoint(null, WATERMARK, STARTED, 100, 2, 0, NOW).isFinished());
+        assertTrue(new SyncCheckpoint("", WATERMARK, STARTED, 100, 2, 0, NOW).isFinished());
+        assertTrue(new SyncCheckpoint("cursor-2", WATERMARK, STARTED, 0, 2, 0, NOW).isFinished());
+    }
+
+    private static SyncCheckpoint savedAgo(long millis) {
+        return new SyncCheckpoint("cursor-2", WATERMARK, STARTED, 1000, 2, 0, NOW - millis);
+    }
+}
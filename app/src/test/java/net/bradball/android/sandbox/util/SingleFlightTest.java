@@ -0,0 +1,181 @@
+package net.bradball.android.sandbox.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Test
+    public void concurrentLoads_callLoaderOnce() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final SingleFlight.Loader<String> loader = new SingleFlight.Loader<String>() {
+            @Override
+            public String load() {
+                loads.incrementAndGet();
+                loading.countDown();
+                await(release);
+                return "details";
+            }
+        };
+
+        LoadThread first = new LoadThread(singleFlight, "gd77-05-08", loader);
+        first.start();
+        assertTrue(loading.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        LoadThread second = new LoadThread(singleFlight, "gd77-05-08", loader);
+        second.start();
+        awaitWaiting(second);
+        release.countDown();
+
+        first.join(TIMEOUT_MILLIS);
+        second.join(TIMEOUT_MILLIS);
+        assertEquals(1, loads.get());
+        assertEquals("details", first.result.get());
+        assertEquals("details", second.result.get());
+    }
+
+    @Test
+    public void differentKeys_loadSeparately() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+        assertEquals("a", singleFlight.load("a", constant("a")));
+        assertEquals("b", singleFlight.load("b", constant("b")));
+        //Finished loads are forgotten.
+        assertEquals("c", singleFlight.load("a", constant("c")));
+    }
+
+    @Test
+    public void error_isThrownToWaiters() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final StackOverflowError error = new StackOverflowError();
+        SingleFlight.Loader<String> loader = new SingleFlight.Loader<String>() {
+            @Override
+            public String load() {
+                loading.countDown();
+                await(release);
+                throw error;
+            }
+        };
+
+        LoadThread first = new LoadThread(singleFlight, "gd77-05-08", loader);
+        first.start();
+        assertTrue(loading.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        LoadThread second = new LoadThread(singleFlight, "gd77-05-08", loader);
+        second.start();
+        awaitWaiting(second);
+        release.countDown();
+
+        first.join(TIMEOUT_MILLIS);
+        second.join(TIMEOUT_MILLIS);
+        assertSame(error, first.error.get());
+        assertSame(error, second.error.get());
+        assertNull(second.result.get());
+    }
+
+    @Test
+    public void begin_makesLoadsWaitForFinish() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        final AtomicInteger loads = new AtomicInteger();
+
+        SingleFlight.Flight<String> flight = singleFlight.begin("gd77-05-08");
+        assertNotNull(flight);
+        assertNull(singleFlight.begin("gd77-05-08"));
+
+        LoadThread waiter = new LoadThread(singleFlight, "gd77-05-08", new SingleFlight.Loader<String>() {
+            @Override
+            public String load() {
+                loads.incrementAndGet();
+                return "loaded";
+            }
+        });
+        waiter.start();
+        awaitWaiting(waiter);
+        flight.finish("prefetched");
+        //Only the first finish counts.
+        flight.finish("again");
+
+        waiter.join(TIMEOUT_MILLIS);
+        assertEquals("prefetched", waiter.result.get());
+        assertEquals(0, loads.get());
+        assertNotNull(singleFlight.begin("gd77-05-08"));
+    }
+
+    @Test
+    public void failedFlight_throwsToWaiters() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        SingleFlight.Flight<String> flight = singleFlight.begin("gd77-05-08");
+
+        LoadThread waiter = new LoadThread(singleFlight, "gd77-05-08", constant("loaded"));
+        waiter.start();
+        awaitWaiting(waiter);
+        IllegalStateException error = new IllegalStateException("cancelled");
+        flight.fail(error);
+
+        waiter.join(TIMEOUT_MILLIS);
+        assertSame(error, waiter.error.get());
+    }
+
+    private static SingleFlight.Loader<String> constant(final String value) {
+        return new SingleFlight.Loader<String>() {
+            @Override
+            public String load() {
+                return value;
+            }
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for a thread to be blocked, waiting for a load that's in flight.
+     */
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue("Thread never waited", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static class LoadThread extends Thread {
+        final AtomicReference<String> result = new AtomicReference<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        private final SingleFlight<String, String> mSingleFlight;
+        private final String mKey;
+        private final SingleFlight.Loader<String> mLoader;
+
+        LoadThread(SingleFlight<String, String> singleFlight, String key, SingleFlight.Loader<String> loader) {
+            mSingleFlight = singleFlight;
+            mKey = key;
+            mLoader = loader;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.set(mSingleFlight.load(mKey, mLoader));
+            } catch (Throwable ex) {
+                error.set(ex);
+            }
+        }
+    }
+}